@@ -1,12 +1,11 @@
 package com.irc4spring;
 
+import com.irc4spring.server.execution.ExecutionModel;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-
-import java.util.concurrent.Executor;
 
 @SpringBootApplication
 @EnableAsync
@@ -16,20 +15,14 @@ public class IrcServerApplication {
         SpringApplication.run(IrcServerApplication.class, args);
     }
 
-    @Bean(name = "virtualThreadExecutor")
-    public Executor virtualThreadExecutor() {
-        // 使用Java 21的虚拟线程
-        return Thread.ofVirtual().factory()::newThread;
-    }
-
-    @Bean(name = "taskExecutor")
-    public ThreadPoolTaskExecutor taskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(10);
-        executor.setMaxPoolSize(50);
-        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("irc-");
-        executor.initialize();
-        return executor;
+    @Bean(destroyMethod = "shutdown")
+    public ExecutionModel executionModel(
+            @Value("${irc.execution.model:virtual}") String model,
+            @Value("${irc.execution.pool-size:16}") int poolSize,
+            @Value("${irc.execution.queue-capacity:1000}") int queueCapacity,
+            @Value("${irc.execution.event-loops:0}") int eventLoops,
+            @Value("${irc.execution.session-queue-capacity:64}") int sessionQueueCapacity) {
+        // 可选：virtual（每会话虚拟线程）、platform-pool（有界平台线程池）、event-loop（分区事件循环）
+        return ExecutionModel.create(model, poolSize, queueCapacity, eventLoops, sessionQueueCapacity);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.irc4spring.benchmark;
+
+import com.irc4spring.server.execution.EventLoopExecutionModel;
+import com.irc4spring.server.execution.ExecutionModel;
+import com.irc4spring.server.execution.PlatformPoolExecutionModel;
+import com.irc4spring.server.execution.VirtualThreadExecutionModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 执行模型对比基准
+ * 模拟多个会话并发提交命令，每条命令包含少量CPU计算和一定比例的短暂阻塞（模拟socket写出），
+ * 输出各执行模型的吞吐量与延迟分位数。
+ *
+ * 运行方式：
+ * mvn compile && java -cp target/classes com.irc4spring.benchmark.ExecutionModelBenchmark [会话数] [每会话命令数] [阻塞比例%]
+ */
+public final class ExecutionModelBenchmark {
+
+    private static final int CPU_WORK_ITERATIONS = 2_000;
+    private static final long BLOCK_NANOS = 200_000;
+
+    private ExecutionModelBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int commandsPerSession = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int blockPercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("会话数=%d 每会话命令数=%d 阻塞比例=%d%% CPU核数=%d%n",
+            sessions, commandsPerSession, blockPercent, cores);
+        System.out.printf("%-14s %12s %10s %10s %10s%n", "model", "cmds/s", "p50(us)", "p99(us)", "max(us)");
+
+        List<ExecutionModel> models = List.of(
+            new VirtualThreadExecutionModel(),
+            new PlatformPoolExecutionModel(cores * 2, 10_000),
+            new EventLoopExecutionModel(cores)
+        );
+
+        // 预热一轮，避免JIT影响第一个模型
+        run(new VirtualThreadExecutionModel(), Math.min(sessions, 200), commandsPerSession, blockPercent);
+
+        for (ExecutionModel model : models) {
+            Result result = run(model, sessions, commandsPerSession, blockPercent);
+            System.out.printf("%-14s %12.0f %10d %10d %10d%n", model.getName(),
+                result.throughput(), result.p50Micros(), result.p99Micros(), result.maxMicros());
+            model.shutdown();
+        }
+    }
+
+    private static Result run(ExecutionModel model, int sessions, int commandsPerSession, int blockPercent)
+            throws InterruptedException {
+        int total = sessions * commandsPerSession;
+        long[] latencies = new long[total];
+        AtomicInteger index = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+
+        long start = System.nanoTime();
+        List<Thread> readers = new ArrayList<>(sessions);
+        for (int s = 0; s < sessions; s++) {
+            Executor executor = model.newSessionExecutor(s);
+            // 读取线程与真实服务器一致，始终是虚拟线程
+            readers.add(Thread.ofVirtual().start(() -> {
+                for (int c = 0; c < commandsPerSession; c++) {
+                    long submittedAt = System.nanoTime();
+                    executor.execute(() -> {
+                        simulateCommand(blockPercent);
+                        latencies[index.getAndIncrement()] = System.nanoTime() - submittedAt;
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new Result(
+            total / (elapsed / 1_000_000_000.0),
+            latencies[total / 2] / 1000,
+            latencies[(int) (total * 0.99)] / 1000,
+            latencies[total - 1] / 1000
+        );
+    }
+
+    private static void simulateCommand(int blockPercent) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long acc = 0;
+        for (int i = 0; i < CPU_WORK_ITERATIONS; i++) {
+            acc += random.nextInt(64);
+        }
+        if (acc < 0 || random.nextInt(100) < blockPercent) {
+            LockSupport.parkNanos(BLOCK_NANOS);
+        }
+    }
+
+    private record Result(double throughput, long p50Micros, long p99Micros, long maxMicros) {}
+}
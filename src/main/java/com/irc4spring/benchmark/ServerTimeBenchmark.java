@@ -0,0 +1,123 @@
+package com.irc4spring.benchmark;
+
+import com.irc4spring.capability.Capability;
+import com.irc4spring.server.OutboundMessage;
+import com.irc4spring.server.ServerTime;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * server-time标签成本基准
+ * 第一部分对比DateTimeFormatter与缓存秒前缀的ServerTime格式化单个时间戳；
+ * 第二部分模拟一次频道广播：按接收者的能力位图选择帧变体，对比逐个接收者拼接标签的做法。
+ * 共享变体的序列化成本（格式化时间、拼接变体）与接收者数量无关，只剩每个接收者一次数组查找。
+ *
+ * 运行方式：
+ * mvn compile && java -cp target/classes com.irc4spring.benchmark.ServerTimeBenchmark [广播次数]
+ */
+public final class ServerTimeBenchmark {
+
+    private static final DateTimeFormatter FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private static final int[] RECIPIENTS = {10, 100, 1_000, 10_000};
+    private static final String LINE = ":alice!alice@example.org PRIVMSG #bench :hello everyone, this is a benchmark message";
+
+    private static long sink;
+
+    private ServerTimeBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int broadcasts = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+
+        // 预热
+        formatting(2_000_000);
+        for (int recipients : RECIPIENTS) {
+            broadcast(recipients, 200, true);
+            broadcast(recipients, 200, false);
+        }
+
+        formatting(5_000_000);
+
+        System.out.printf("%n广播次数=%d%n", broadcasts);
+        System.out.printf("%10s %18s %18s %18s%n", "recipients", "shared ns/bcast", "shared ns/rcpt", "per-rcpt ns/bcast");
+        for (int recipients : RECIPIENTS) {
+            double shared = broadcast(recipients, broadcasts, true);
+            double perRecipient = broadcast(recipients, broadcasts, false);
+            System.out.printf("%10d %18.0f %18.1f %18.0f%n", recipients, shared, shared / recipients, perRecipient);
+        }
+        System.out.println("(sink=" + sink + ")");
+    }
+
+    private static void formatting(int iterations) {
+        long base = System.currentTimeMillis();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += FORMATTER.format(Instant.ofEpochMilli(base + (i >> 10))).length();
+        }
+        double formatter = (System.nanoTime() - start) / (double) iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += ServerTime.format(base + (i >> 10)).length();
+        }
+        double cached = (System.nanoTime() - start) / (double) iterations;
+
+        System.out.printf("时间戳格式化: DateTimeFormatter %.1f ns/次, ServerTime %.1f ns/次%n", formatter, cached);
+    }
+
+    /**
+     * 一次广播的平均耗时（纳秒）
+     *
+     * @param shared true时使用共享的帧变体，false时为每个接收者单独格式化时间并拼接
+     */
+    private static double broadcast(int recipients, int broadcasts, boolean shared) {
+        long[] capabilities = new long[recipients];
+        long[] choices = {
+            0,
+            Capability.SERVER_TIME.bit(),
+            Capability.MESSAGE_TAGS.bit(),
+            Capability.SERVER_TIME.bit() | Capability.MESSAGE_TAGS.bit()
+        };
+        for (int i = 0; i < recipients; i++) {
+            capabilities[i] = choices[ThreadLocalRandom.current().nextInt(choices.length)];
+        }
+
+        long start = System.nanoTime();
+        for (int b = 0; b < broadcasts; b++) {
+            long now = System.currentTimeMillis();
+            String msgid = Long.toString(b, 36);
+            if (shared) {
+                OutboundMessage message = OutboundMessage.builder(LINE)
+                    .tag(Capability.SERVER_TIME, ServerTime.tag(now))
+                    .tag(Capability.MESSAGE_TAGS, "msgid=" + msgid)
+                    .build();
+                for (long caps : capabilities) {
+                    sink += message.forCapabilities(caps).length();
+                }
+            } else {
+                for (long caps : capabilities) {
+                    StringBuilder frame = new StringBuilder();
+                    if (Capability.SERVER_TIME.isIn(caps)) {
+                        frame.append("@time=").append(FORMATTER.format(Instant.ofEpochMilli(now)));
+                    }
+                    if (Capability.MESSAGE_TAGS.isIn(caps)) {
+                        frame.append(frame.isEmpty() ? '@' : ';').append("msgid=").append(msgid);
+                    }
+                    if (!frame.isEmpty()) {
+                        frame.append(' ');
+                    }
+                    String line = frame.append(LINE).toString();
+                    sink += line.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+        }
+        return (System.nanoTime() - start) / (double) broadcasts;
+    }
+}
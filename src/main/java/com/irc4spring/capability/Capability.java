@@ -0,0 +1,57 @@
+package com.irc4spring.capability;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * IRCv3客户端能力
+ * 每个能力占会话能力位图（long）中的一位，位号即声明顺序，因此最多64个；
+ * 广播时按接收者位图与消息相关位的交集选择预先序列化好的帧变体。
+ */
+public enum Capability {
+    SASL("sasl"),
+    ECHO_MESSAGE("echo-message"),
+    MESSAGE_TAGS("message-tags"),
+    SERVER_TIME("server-time"),
+    AWAY_NOTIFY("away-notify"),
+    BATCH("batch"),
+    CHATHISTORY("draft/chathistory");
+
+    private static final Map<String, Capability> BY_NAME = new HashMap<>();
+
+    static {
+        for (Capability capability : values()) {
+            BY_NAME.put(capability.capName, capability);
+        }
+    }
+
+    private final String capName;
+    private final long bit;
+
+    Capability(String capName) {
+        this.capName = capName;
+        this.bit = 1L << ordinal();
+    }
+
+    /**
+     * 协议中使用的能力名
+     */
+    public String capName() {
+        return capName;
+    }
+
+    public long bit() {
+        return bit;
+    }
+
+    public boolean isIn(long capabilities) {
+        return (capabilities & bit) != 0;
+    }
+
+    /**
+     * 按协议名查找，未知能力返回null
+     */
+    public static Capability fromName(String name) {
+        return BY_NAME.get(name);
+    }
+}
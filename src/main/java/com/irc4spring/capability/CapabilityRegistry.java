@@ -0,0 +1,116 @@
+package com.irc4spring.capability;
+
+import com.irc4spring.service.SaslService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 服务器提供的能力清单
+ * 启动时确定可用能力及其值，并预先生成CAP LS的应答分段（旧版本不带值，302及以上带值），
+ * 之后的协商只做位运算。
+ */
+@Component
+public class CapabilityRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CapabilityRegistry.class);
+
+    /**
+     * CAP LS每行能力列表的最大长度，超出时按302多行格式拆分
+     */
+    private static final int MAX_LS_LINE = 400;
+
+    @Value("${irc.capabilities.disabled:}")
+    private Set<String> disabled;
+
+    @Value("${irc.history.enabled:true}")
+    private boolean historyEnabled;
+
+    private final Map<Capability, String> values = new EnumMap<>(Capability.class);
+    private long available;
+    private List<String> lsLegacy;
+    private List<String> ls302;
+
+    @PostConstruct
+    public void init() {
+        values.put(Capability.SASL, String.join(",", SaslService.MECHANISMS));
+
+        Set<String> disabledNames = disabled.stream()
+            .map(name -> name.trim().toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+        List<String> legacyTokens = new ArrayList<>();
+        List<String> tokens302 = new ArrayList<>();
+        for (Capability capability : Capability.values()) {
+            if (disabledNames.contains(capability.capName())
+                || (capability == Capability.CHATHISTORY && !historyEnabled)) {
+                continue;
+            }
+            available |= capability.bit();
+            legacyTokens.add(capability.capName());
+            String value = values.get(capability);
+            tokens302.add(value != null ? capability.capName() + "=" + value : capability.capName());
+        }
+        lsLegacy = chunk(legacyTokens);
+        ls302 = chunk(tokens302);
+        logger.info("客户端能力: {}", String.join(" ", tokens302));
+    }
+
+    /**
+     * 能力是否可协商
+     */
+    public boolean isAvailable(Capability capability) {
+        return (available & capability.bit()) != 0;
+    }
+
+    /**
+     * CAP LS应答的各行能力列表（不含前缀）
+     *
+     * @param withValues 客户端声明了302或更高版本
+     */
+    public List<String> lsLines(boolean withValues) {
+        return withValues ? ls302 : lsLegacy;
+    }
+
+    /**
+     * 把位图转换为以空格分隔的能力名
+     */
+    public String names(long capabilities) {
+        StringBuilder names = new StringBuilder();
+        for (Capability capability : Capability.values()) {
+            if (capability.isIn(capabilities)) {
+                if (!names.isEmpty()) {
+                    names.append(' ');
+                }
+                names.append(capability.capName());
+            }
+        }
+        return names.toString();
+    }
+
+    private static List<String> chunk(List<String> tokens) {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        for (String token : tokens) {
+            if (!line.isEmpty() && line.length() + 1 + token.length() > MAX_LS_LINE) {
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+            if (!line.isEmpty()) {
+                line.append(' ');
+            }
+            line.append(token);
+        }
+        lines.add(line.toString());
+        return List.copyOf(lines);
+    }
+}
@@ -26,6 +26,19 @@ public final class IrcCommand {
     public static final String MODE = "MODE";
     public static final String KICK = "KICK";
     public static final String INVITE = "INVITE";
+    public static final String CHATHISTORY = "CHATHISTORY";
+    public static final String SEARCH = "SEARCH";
+    
+    // IRCv3扩展
+    public static final String BATCH = "BATCH";
+    public static final String FAIL = "FAIL";
+    public static final String CAP = "CAP";
+    public static final String AUTHENTICATE = "AUTHENTICATE";
+    public static final String TAGMSG = "TAGMSG";
+    public static final String MONITOR = "MONITOR";
+    public static final String AWAY = "AWAY";
+    public static final String ISON = "ISON";
+    public static final String USERHOST = "USERHOST";
     
     // 管理员命令
     public static final String OPER = "OPER";
@@ -42,6 +55,7 @@ public final class IrcCommand {
     public static final String RPL_CREATED = "003";
     public static final String RPL_MYINFO = "004";
     public static final String RPL_BOUNCE = "005";
+    public static final String RPL_ISUPPORT = "005";
     public static final String RPL_MOTDSTART = "375";
     public static final String RPL_MOTD = "372";
     public static final String RPL_ENDOFMOTD = "376";
@@ -49,12 +63,27 @@ public final class IrcCommand {
     public static final String RPL_ENDOFNAMES = "366";
     public static final String RPL_TOPIC = "332";
     public static final String RPL_NOTOPIC = "331";
+    public static final String RPL_TRYAGAIN = "263";
+    public static final String RPL_AWAY = "301";
+    public static final String RPL_USERHOST = "302";
+    public static final String RPL_ISON = "303";
+    public static final String RPL_UNAWAY = "305";
+    public static final String RPL_NOWAWAY = "306";
     public static final String RPL_WHOISUSER = "311";
     public static final String RPL_WHOISSERVER = "312";
     public static final String RPL_WHOISOPERATOR = "313";
     public static final String RPL_ENDOFWHOIS = "318";
     public static final String RPL_CHANNELMODEIS = "324";
+    public static final String RPL_BANLIST = "367";
+    public static final String RPL_ENDOFBANLIST = "368";
     public static final String RPL_YOUREOPER = "381";
+    public static final String RPL_LOGGEDIN = "900";
+    public static final String RPL_SASLSUCCESS = "903";
+    public static final String RPL_SASLMECHS = "908";
+    public static final String RPL_MONONLINE = "730";
+    public static final String RPL_MONOFFLINE = "731";
+    public static final String RPL_MONLIST = "732";
+    public static final String RPL_ENDOFMONLIST = "733";
     
     // 错误代码
     public static final String ERR_NOSUCHNICK = "401";
@@ -81,6 +110,13 @@ public final class IrcCommand {
     public static final String ERR_CHANOPRIVSNEEDED = "482";
     public static final String ERR_CANTKILLSERVER = "483";
     public static final String ERR_NOOPERHOST = "491";
+    public static final String ERR_INVALIDCAPCMD = "410";
+    public static final String ERR_INPUTTOOLONG = "417";
+    public static final String ERR_SASLFAIL = "904";
+    public static final String ERR_SASLTOOLONG = "905";
+    public static final String ERR_SASLABORTED = "906";
+    public static final String ERR_SASLALREADY = "907";
+    public static final String ERR_MONLISTFULL = "734";
     
     private IrcCommand() {
         // 私有构造函数，防止实例化
@@ -1,14 +1,31 @@
 package com.irc4spring.controller;
 
 import com.irc4spring.model.UserRole;
+import com.irc4spring.server.BufferPool;
 import com.irc4spring.server.IrcServer;
+import com.irc4spring.server.PinningMonitor;
+import com.irc4spring.search.SearchQuery;
+import com.irc4spring.search.SearchResult;
+import com.irc4spring.server.execution.ExecutionModel;
+import com.irc4spring.storage.AccountStore;
+import com.irc4spring.storage.ChannelLogRecord;
+import com.irc4spring.storage.ChannelStore;
 import com.irc4spring.service.AuthenticationService;
+import com.irc4spring.service.ChannelLogService;
 import com.irc4spring.service.ChannelService;
+import com.irc4spring.service.HistoryService;
+import com.irc4spring.service.LoadShedder;
+import com.irc4spring.service.LoginThrottleService;
+import com.irc4spring.service.PasswordHashService;
+import com.irc4spring.service.QueryBudgetService;
+import com.irc4spring.service.SearchService;
 import com.irc4spring.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,6 +47,42 @@ public class AdminController {
     @Autowired
     private AuthenticationService authService;
     
+    @Autowired
+    private ExecutionModel executionModel;
+    
+    @Autowired
+    private PinningMonitor pinningMonitor;
+    
+    @Autowired
+    private BufferPool bufferPool;
+    
+    @Autowired
+    private HistoryService historyService;
+    
+    @Autowired
+    private ChannelLogService channelLogService;
+    
+    @Autowired
+    private SearchService searchService;
+    
+    @Autowired
+    private AccountStore accountStore;
+    
+    @Autowired
+    private ChannelStore channelStore;
+    
+    @Autowired
+    private PasswordHashService passwordHashService;
+    
+    @Autowired
+    private LoginThrottleService loginThrottleService;
+    
+    @Autowired
+    private QueryBudgetService queryBudgetService;
+    
+    @Autowired
+    private LoadShedder loadShedder;
+    
     /**
      * 获取服务器状态
      */
@@ -58,6 +111,9 @@ public class AdminController {
      */
     @GetMapping("/users")
     public ResponseEntity<Map<String, Object>> getUsers() {
+        if (loadShedder.shouldShed(LoadShedder.ADMIN_STATS)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
         var users = userService.getAllUsers().stream()
                 .map(user -> Map.of(
                     "nickname", user.getNickname(),
@@ -133,6 +189,9 @@ public class AdminController {
      */
     @GetMapping("/channels")
     public ResponseEntity<Map<String, Object>> getChannels() {
+        if (loadShedder.shouldShed(LoadShedder.ADMIN_STATS)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
         var channels = channelService.getAllChannels().stream()
                 .map(channel -> Map.of(
                     "name", channel.getName(),
@@ -192,6 +251,42 @@ public class AdminController {
         return ResponseEntity.ok(Map.of("message", "消息已发送"));
     }
     
+    /**
+     * 注册频道，频道状态将被持久化
+     */
+    @PostMapping("/channels/{channelName}/register")
+    public ResponseEntity<Map<String, String>> registerChannel(
+            @PathVariable String channelName,
+            @RequestBody(required = false) Map<String, String> request) {
+        
+        String founder = request != null ? request.get("founder") : null;
+        if (channelService.registerChannel(channelName, founder)) {
+            return ResponseEntity.ok(Map.of("message", "频道已注册"));
+        } else {
+            return ResponseEntity.badRequest().body(Map.of("error", "频道名称无效或已注册"));
+        }
+    }
+    
+    /**
+     * 注销频道
+     */
+    @DeleteMapping("/channels/{channelName}/register")
+    public ResponseEntity<Map<String, String>> unregisterChannel(@PathVariable String channelName) {
+        if (channelService.unregisterChannel(channelName)) {
+            return ResponseEntity.ok(Map.of("message", "频道已注销"));
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+    
+    /**
+     * 获取注册频道存储统计
+     */
+    @GetMapping("/channel-store")
+    public ResponseEntity<Map<String, Object>> getChannelStoreStatistics() {
+        return ResponseEntity.ok(channelStore.getStatistics());
+    }
+    
     /**
      * 全服广播消息
      */
@@ -278,10 +373,53 @@ public class AdminController {
      */
     @GetMapping("/accounts")
     public ResponseEntity<Map<String, Object>> getAllAccounts() {
+        if (loadShedder.shouldShed(LoadShedder.ADMIN_STATS)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
         var accounts = authService.getAllUsers();
         return ResponseEntity.ok(Map.of("accounts", accounts));
     }
     
+    /**
+     * 获取密码哈希线程池统计
+     */
+    @GetMapping("/auth/kdf")
+    public ResponseEntity<Map<String, Object>> getKdfStatistics() {
+        return ResponseEntity.ok(passwordHashService.getStatistics());
+    }
+    
+    /**
+     * 获取登录限流统计
+     */
+    @GetMapping("/auth/throttle")
+    public ResponseEntity<Map<String, Object>> getLoginThrottleStatistics() {
+        return ResponseEntity.ok(loginThrottleService.getStatistics());
+    }
+    
+    /**
+     * 获取查询预算计费统计
+     */
+    @GetMapping("/query-budget")
+    public ResponseEntity<Map<String, Object>> getQueryBudgetStatistics() {
+        return ResponseEntity.ok(queryBudgetService.getStatistics());
+    }
+    
+    /**
+     * 获取过载保护状态与各命令的拒绝计数
+     */
+    @GetMapping("/overload")
+    public ResponseEntity<Map<String, Object>> getOverloadStatistics() {
+        return ResponseEntity.ok(loadShedder.getStatistics());
+    }
+    
+    /**
+     * 获取账户存储统计
+     */
+    @GetMapping("/accounts/store")
+    public ResponseEntity<Map<String, Object>> getAccountStoreStatistics() {
+        return ResponseEntity.ok(accountStore.getStatistics());
+    }
+    
     /**
      * 优雅关闭服务器
      */
@@ -323,4 +461,92 @@ public class AdminController {
         
         return ResponseEntity.ok(runtimeInfo);
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 获取命令执行模型统计
+     */
+    @GetMapping("/execution")
+    public ResponseEntity<Map<String, Object>> getExecutionStatistics() {
+        return ResponseEntity.ok(executionModel.getStatistics());
+    }
+    
+    /**
+     * 获取虚拟线程pinning诊断统计
+     */
+    @GetMapping("/diagnostics/pinning")
+    public ResponseEntity<Map<String, Object>> getPinningDiagnostics() {
+        return ResponseEntity.ok(pinningMonitor.getStatistics());
+    }
+    
+    /**
+     * 获取网络缓冲池使用统计
+     */
+    @GetMapping("/buffers")
+    public ResponseEntity<Map<String, Object>> getBufferStatistics() {
+        return ResponseEntity.ok(bufferPool.getStatistics());
+    }
+    
+    /**
+     * 获取频道历史缓冲区统计
+     */
+    @GetMapping("/history")
+    public ResponseEntity<Map<String, Object>> getHistoryStatistics() {
+        return ResponseEntity.ok(historyService.getStatistics());
+    }
+    
+    /**
+     * 获取频道日志统计
+     */
+    @GetMapping("/channel-log")
+    public ResponseEntity<Map<String, Object>> getChannelLogStatistics() {
+        return ResponseEntity.ok(channelLogService.getStatistics());
+    }
+    
+    /**
+     * 读取频道日志，时间为毫秒时间戳，默认读取最近一小时
+     */
+    @GetMapping("/channels/{channelName}/log")
+    public ResponseEntity<List<ChannelLogRecord>> getChannelLog(
+            @PathVariable String channelName,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "100") int limit) {
+        if (loadShedder.shouldShed(LoadShedder.ADMIN_STATS)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        long toTime = to != null ? to : System.currentTimeMillis();
+        long fromTime = from != null ? from : toTime - 3_600_000;
+        return ResponseEntity.ok(channelLogService.read(channelName, fromTime, toTime, limit));
+    }
+    
+    /**
+     * 全文检索频道历史，q支持 from:昵称、in:#频道、since:7d 语法，时间为毫秒时间戳
+     */
+    @GetMapping("/search")
+    public ResponseEntity<SearchResult> search(
+            @RequestParam String q,
+            @RequestParam(required = false) String channel,
+            @RequestParam(required = false) String nick,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "20") int limit) {
+        if (loadShedder.shouldShed(LoadShedder.ADMIN_STATS)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        SearchQuery parsed = SearchQuery.parse(q, channel, limit);
+        SearchQuery query = new SearchQuery(parsed.text(), parsed.channel(),
+            nick != null ? nick : parsed.nickname(),
+            from != null ? from : parsed.fromTime(),
+            to != null ? to : parsed.toTime(),
+            parsed.limit());
+        return ResponseEntity.ok(searchService.search(query));
+    }
+    
+    /**
+     * 获取全文索引统计
+     */
+    @GetMapping("/search/stats")
+    public ResponseEntity<Map<String, Object>> getSearchStatistics() {
+        return ResponseEntity.ok(searchService.getStatistics());
+    }
+}
@@ -1,11 +1,30 @@
 package com.irc4spring.handler;
 
+import com.irc4spring.capability.Capability;
+import com.irc4spring.capability.CapabilityRegistry;
 import com.irc4spring.constant.IrcCommand;
+import com.irc4spring.model.HistoryEntry;
+import com.irc4spring.model.IrcChannel;
 import com.irc4spring.model.IrcMessage;
 import com.irc4spring.model.IrcUser;
+import com.irc4spring.model.MessageTags;
+import com.irc4spring.model.SaslSession;
 import com.irc4spring.model.UserRole;
+import com.irc4spring.search.SearchQuery;
+import com.irc4spring.search.SearchResult;
+import com.irc4spring.server.ClientConnection;
+import com.irc4spring.server.OutboundPriority;
+import com.irc4spring.server.Utf8;
+import com.irc4spring.storage.ChannelLogRecord;
 import com.irc4spring.service.AuthenticationService;
+import com.irc4spring.service.ChannelListService;
 import com.irc4spring.service.ChannelService;
+import com.irc4spring.service.HistoryService;
+import com.irc4spring.service.LoadShedder;
+import com.irc4spring.service.MonitorService;
+import com.irc4spring.service.QueryBudgetService;
+import com.irc4spring.service.SaslService;
+import com.irc4spring.service.SearchService;
 import com.irc4spring.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,11 +32,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntToLongFunction;
 
 /**
  * IRC命令处理器
@@ -39,6 +64,21 @@ public class IrcCommandHandler {
     @Value("${irc.auth.allow-unregistered-channels:true}")
     private boolean allowUnregisteredChannels;
     
+    @Value("${irc.query.ison-max-targets:20}")
+    private int isonMaxTargets;
+    
+    @Value("${irc.query.userhost-max-targets:5}")
+    private int userhostMaxTargets;
+    
+    @Value("${irc.query.who-max-results:1000}")
+    private int whoMaxResults;
+    
+    @Value("${irc.query.budget.list-max-delay-ms:10000}")
+    private long listMaxDelayMs;
+    
+    @Value("${irc.away.max-length:200}")
+    private int awayMaxLength;
+    
     @Autowired
     private UserService userService;
     
@@ -48,6 +88,35 @@ public class IrcCommandHandler {
     @Autowired
     private AuthenticationService authService;
     
+    @Autowired
+    private HistoryService historyService;
+    
+    @Autowired
+    private SearchService searchService;
+    
+    @Autowired
+    private SaslService saslService;
+    
+    @Autowired
+    private CapabilityRegistry capabilityRegistry;
+    
+    @Autowired
+    private MonitorService monitorService;
+    
+    @Autowired
+    private ChannelListService channelListService;
+    
+    @Autowired
+    private QueryBudgetService queryBudgetService;
+    
+    @Autowired
+    private LoadShedder loadShedder;
+    
+    private static final int SASL_CHUNK_LENGTH = 400;
+    private static final int MAX_SASL_MESSAGE_LENGTH = 8192;
+    
+    private final AtomicLong batchIdGenerator = new AtomicLong();
+    
     /**
      * 处理IRC命令
      */
@@ -59,25 +128,45 @@ public class IrcCommandHandler {
         IrcUser user = userService.getUserBySocket(socket);
         String command = message.getCommand().toUpperCase();
         
+        // 合并本条命令产生的所有输出，命令结束时一次性刷新
+        ClientConnection connection = userService.getConnection(socket);
+        if (connection != null) {
+            connection.cork();
+        }
+        
         try {
+            // 过载时先拒绝低优先级查询，消息、心跳和注册不受影响
+            if (loadShedder.shouldShed(command)) {
+                sendTryAgain(socket, command, "Server load is temporarily too heavy. Please wait a while and try again.");
+                return;
+            }
             switch (command) {
                 case IrcCommand.NICK -> handleNick(socket, message);
                 case IrcCommand.USER -> handleUser(socket, message);
                 case IrcCommand.PASS -> handlePass(socket, message);
+                case IrcCommand.CAP -> handleCap(socket, message);
+                case IrcCommand.AUTHENTICATE -> handleAuthenticate(socket, message);
                 case IrcCommand.PING -> handlePing(socket, message);
                 case IrcCommand.PONG -> handlePong(socket, message);
                 case IrcCommand.JOIN -> handleJoin(socket, message);
                 case IrcCommand.PART -> handlePart(socket, message);
                 case IrcCommand.PRIVMSG -> handlePrivmsg(socket, message);
                 case IrcCommand.NOTICE -> handleNotice(socket, message);
+                case IrcCommand.TAGMSG -> handleTagmsg(socket, message);
                 case IrcCommand.TOPIC -> handleTopic(socket, message);
                 case IrcCommand.NAMES -> handleNames(socket, message);
                 case IrcCommand.LIST -> handleList(socket, message);
                 case IrcCommand.WHO -> handleWho(socket, message);
                 case IrcCommand.WHOIS -> handleWhois(socket, message);
+                case IrcCommand.MONITOR -> handleMonitor(socket, message);
+                case IrcCommand.ISON -> handleIson(socket, message);
+                case IrcCommand.USERHOST -> handleUserhost(socket, message);
+                case IrcCommand.AWAY -> handleAway(socket, message);
                 case IrcCommand.MODE -> handleMode(socket, message);
                 case IrcCommand.KICK -> handleKick(socket, message);
                 case IrcCommand.INVITE -> handleInvite(socket, message);
+                case IrcCommand.CHATHISTORY -> handleChathistory(socket, message);
+                case IrcCommand.SEARCH -> handleSearch(socket, message);
                 case IrcCommand.QUIT -> handleQuit(socket, message);
                 case IrcCommand.OPER -> handleOper(socket, message);
                 case IrcCommand.KILL -> handleKill(socket, message);
@@ -87,6 +176,10 @@ public class IrcCommandHandler {
         } catch (Exception e) {
             logger.error("处理命令时发生错误: {}", command, e);
             sendErrorToUser(socket, "服务器内部错误");
+        } finally {
+            if (connection != null) {
+                connection.uncork();
+            }
         }
     }
     
@@ -102,8 +195,11 @@ public class IrcCommandHandler {
         String nickname = message.getParams().get(0);
         IrcUser user = userService.getUserBySocket(socket);
         
-        if (!userService.isNicknameAvailable(nickname)) {
-            if (userService.getUserByNickname(nickname) != null) {
+        // 已登记昵称的用户只改大小写时，规范化昵称仍由自己占用
+        boolean caseChange = user != null && user.getNickname() != null && !user.getNickname().equals(nickname)
+            && MonitorService.casefold(user.getNickname()).equals(MonitorService.casefold(nickname));
+        if (!caseChange && !userService.isNicknameAvailable(nickname)) {
+            if (userService.getUserByNicknameIgnoreCase(nickname) != null) {
                 sendErrorToUser(socket, IrcCommand.ERR_NICKNAMEINUSE, nickname, "Nickname is already in use");
             } else {
                 sendErrorToUser(socket, IrcCommand.ERR_ERRONEUSNICKNAME, nickname, "Erroneous nickname");
@@ -118,6 +214,10 @@ public class IrcCommandHandler {
             user.setSocket(socket);
             user.setHostname(socket.getInetAddress().getHostAddress());
             userService.addUser(user);
+        } else if (user.getNickname() == null) {
+            // PASS/CAP之后首次设置昵称
+            user.setNickname(nickname);
+            userService.addUser(user);
         } else {
             // 更改昵称
             String oldNickname = user.getNickname();
@@ -125,7 +225,8 @@ public class IrcCommandHandler {
                 // 广播昵称更改
                 String nickMessage = ":" + user.getFullMask() + " NICK :" + nickname;
                 for (String channelName : user.getChannels()) {
-                    channelService.broadcastToChannel(channelName, nickMessage, null);
+                    channelService.broadcastMemberEvent(channelName, oldNickname, nickMessage, null,
+                        OutboundPriority.BULK);
                 }
             }
         }
@@ -142,13 +243,7 @@ public class IrcCommandHandler {
             return;
         }
         
-        IrcUser user = userService.getUserBySocket(socket);
-        if (user == null) {
-            user = new IrcUser();
-            user.setSocket(socket);
-            user.setHostname(socket.getInetAddress().getHostAddress());
-            userService.addUser(user);
-        }
+        IrcUser user = getOrCreateUser(socket);
         
         if (user.isRegistered()) {
             sendErrorToUser(socket, IrcCommand.ERR_ALREADYREGISTRED, "You may not reregister");
@@ -170,6 +265,178 @@ public class IrcCommandHandler {
             return;
         }
         
+        IrcUser user = getOrCreateUser(socket);
+        user.setPassword(message.getParams().get(0));
+    }
+    
+    /**
+     * 处理CAP命令：LS/LIST/REQ/END，CAP LS或REQ之后暂缓注册直到CAP END
+     */
+    private void handleCap(Socket socket, IrcMessage message) {
+        if (message.getParams().isEmpty()) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.CAP, "Not enough parameters");
+            return;
+        }
+        
+        IrcUser user = getOrCreateUser(socket);
+        String prefix = ":" + serverName + " CAP " + getCurrentNickname(socket) + " ";
+        String subcommand = message.getParams().get(0).toUpperCase();
+        
+        switch (subcommand) {
+            case "LS" -> {
+                if (!user.isRegistered()) {
+                    user.setCapNegotiating(true);
+                }
+                if (message.getParams().size() > 1) {
+                    try {
+                        user.setCapVersion(Math.max(user.getCapVersion(), Integer.parseInt(message.getParams().get(1))));
+                    } catch (NumberFormatException e) {
+                        // 忽略无法识别的版本号
+                    }
+                }
+                boolean v302 = user.getCapVersion() >= 302;
+                List<String> lines = capabilityRegistry.lsLines(v302);
+                for (int i = 0; i < lines.size(); i++) {
+                    // 302客户端支持多行应答，最后一行之前带"*"
+                    String more = v302 && i < lines.size() - 1 ? "* " : "";
+                    sendToUser(socket, prefix + "LS " + more + ":" + lines.get(i));
+                }
+            }
+            case "LIST" -> sendToUser(socket, prefix + "LIST :" + capabilityRegistry.names(user.getCapabilities()));
+            case "REQ" -> {
+                if (!user.isRegistered()) {
+                    user.setCapNegotiating(true);
+                }
+                String requested = message.getTrailing() != null ? message.getTrailing()
+                    : message.getParams().size() > 1 ? message.getParams().get(1) : "";
+                long enable = 0;
+                long disable = 0;
+                boolean valid = !requested.isBlank();
+                for (String token : requested.trim().split("\\s+")) {
+                    boolean remove = token.startsWith("-");
+                    Capability capability = Capability.fromName(remove ? token.substring(1) : token);
+                    if (capability == null || !capabilityRegistry.isAvailable(capability)) {
+                        valid = false;
+                        break;
+                    }
+                    if (remove) {
+                        disable |= capability.bit();
+                    } else {
+                        enable |= capability.bit();
+                    }
+                }
+                // 整个请求要么全部生效，要么全部拒绝
+                if (valid) {
+                    user.setCapabilities((user.getCapabilities() | enable) & ~disable);
+                }
+                sendToUser(socket, prefix + (valid ? "ACK :" : "NAK :") + requested);
+            }
+            case "END" -> {
+                if (user.isCapNegotiating()) {
+                    user.setCapNegotiating(false);
+                    checkRegistration(user);
+                }
+            }
+            default -> sendErrorToUser(socket, IrcCommand.ERR_INVALIDCAPCMD, subcommand, "Invalid CAP command");
+        }
+    }
+    
+    /**
+     * 处理AUTHENTICATE命令（SASL）：客户端数据按400字节分段Base64传输，"+"表示空数据，"*"表示中止
+     */
+    private void handleAuthenticate(Socket socket, IrcMessage message) {
+        if (message.getParams().isEmpty()) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.AUTHENTICATE, "Not enough parameters");
+            return;
+        }
+        
+        IrcUser user = getOrCreateUser(socket);
+        String data = message.getParams().get(0);
+        SaslSession session = user.getSaslSession();
+        
+        if (data.equals("*")) {
+            user.setSaslSession(null);
+            sendErrorToUser(socket, IrcCommand.ERR_SASLABORTED, "SASL authentication aborted");
+            return;
+        }
+        
+        if (session == null) {
+            if (user.getAccount() != null) {
+                sendErrorToUser(socket, IrcCommand.ERR_SASLALREADY, "You have already authenticated using SASL");
+                return;
+            }
+            String mechanism = data.toUpperCase();
+            if (!saslService.isSupported(mechanism)) {
+                sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_SASLMECHS + " " + getCurrentNickname(socket) + " "
+                    + String.join(",", SaslService.MECHANISMS) + " :are available SASL mechanisms", OutboundPriority.CONTROL, null);
+                sendErrorToUser(socket, IrcCommand.ERR_SASLFAIL, "SASL authentication failed");
+                return;
+            }
+            user.setSaslSession(new SaslSession(mechanism, socket.getInetAddress()));
+            sendToUser(socket, "AUTHENTICATE +");
+            return;
+        }
+        
+        // 拼接分段，正好400字节表示后面还有
+        if (!data.equals("+")) {
+            session.getPending().append(data);
+        }
+        if (session.getPending().length() > MAX_SASL_MESSAGE_LENGTH) {
+            user.setSaslSession(null);
+            sendErrorToUser(socket, IrcCommand.ERR_SASLTOOLONG, "SASL message too long");
+            return;
+        }
+        if (data.length() == SASL_CHUNK_LENGTH) {
+            return;
+        }
+        
+        byte[] decoded;
+        try {
+            decoded = Base64.getDecoder().decode(session.getPending().toString());
+        } catch (IllegalArgumentException e) {
+            decoded = null;
+        }
+        session.getPending().setLength(0);
+        
+        SaslService.Step step = decoded != null ? saslService.step(session, decoded) : null;
+        if (step == null || step.status() == SaslService.Status.FAILURE) {
+            user.setSaslSession(null);
+            sendErrorToUser(socket, IrcCommand.ERR_SASLFAIL, "SASL authentication failed");
+        } else if (step.status() == SaslService.Status.CONTINUE) {
+            sendAuthenticateChunks(socket, step.response());
+        } else {
+            user.setSaslSession(null);
+            user.setAuthenticated(true);
+            user.setAccount(step.account());
+            user.setRole(authService.getUserRole(step.account()));
+            
+            String nickname = getCurrentNickname(socket);
+            String mask = nickname + "!" + (user.getUsername() != null ? user.getUsername() : "*") + "@" + user.getHostname();
+            sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_LOGGEDIN + " " + nickname + " " + mask + " "
+                + step.account() + " :You are now logged in as " + step.account());
+            sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_SASLSUCCESS + " " + nickname
+                + " :SASL authentication successful");
+            logger.info("SASL认证成功: {} ({})", step.account(), session.getMechanism());
+        }
+    }
+    
+    /**
+     * 按400字节分段发送AUTHENTICATE数据，长度正好是400的倍数时追加"+"
+     */
+    private void sendAuthenticateChunks(Socket socket, String response) {
+        String encoded = Base64.getEncoder().encodeToString(response.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < encoded.length(); i += SASL_CHUNK_LENGTH) {
+            sendToUser(socket, "AUTHENTICATE " + encoded.substring(i, Math.min(encoded.length(), i + SASL_CHUNK_LENGTH)));
+        }
+        if (encoded.isEmpty() || encoded.length() % SASL_CHUNK_LENGTH == 0) {
+            sendToUser(socket, "AUTHENTICATE +");
+        }
+    }
+    
+    /**
+     * 获取连接对应的用户，尚未发送NICK时先创建
+     */
+    private IrcUser getOrCreateUser(Socket socket) {
         IrcUser user = userService.getUserBySocket(socket);
         if (user == null) {
             user = new IrcUser();
@@ -177,8 +444,7 @@ public class IrcCommandHandler {
             user.setHostname(socket.getInetAddress().getHostAddress());
             userService.addUser(user);
         }
-        
-        user.setPassword(message.getParams().get(0));
+        return user;
     }
     
     /**
@@ -187,7 +453,7 @@ public class IrcCommandHandler {
     private void handlePing(Socket socket, IrcMessage message) {
         String server = message.getParams().isEmpty() ? serverName : message.getParams().get(0);
         IrcMessage pong = new IrcMessage(serverName, IrcCommand.PONG, List.of(serverName), server);
-        sendToUser(socket, pong.toIrcString());
+        sendToUser(socket, pong.toIrcString(), OutboundPriority.CONTROL, null);
     }
     
     /**
@@ -266,6 +532,13 @@ public class IrcCommandHandler {
      * 处理PRIVMSG命令
      */
     private void handlePrivmsg(Socket socket, IrcMessage message) {
+        handlePrivmsg(socket, message, false);
+    }
+    
+    /**
+     * @param notice 为NOTICE时不产生自动回复（RPL_AWAY）
+     */
+    private void handlePrivmsg(Socket socket, IrcMessage message, boolean notice) {
         IrcUser user = userService.getUserBySocket(socket);
         if (!canPerformChannelOperations(user)) {
             return;
@@ -278,26 +551,76 @@ public class IrcCommandHandler {
         
         String target = message.getParams().get(0);
         String text = message.getTrailing();
+        String clientTags = message.getClientTags();
+        if (isTooLong(socket, clientTags)) {
+            return;
+        }
         
         if (target.startsWith("#")) {
             // 频道消息
-            if (!channelService.sendChannelMessage(user.getNickname(), target, text)) {
+            if (!channelService.sendChannelMessage(user.getNickname(), target, text, clientTags)) {
                 sendErrorToUser(socket, IrcCommand.ERR_CANNOTSENDTOCHAN, target, "Cannot send to channel");
             }
         } else {
             // 私聊消息
-            if (!channelService.sendPrivateMessage(user.getNickname(), target, text)) {
+            if (!channelService.sendPrivateMessage(user.getNickname(), target, text, clientTags)) {
                 sendErrorToUser(socket, IrcCommand.ERR_NOSUCHNICK, target, "No such nick/channel");
+                return;
+            }
+            IrcUser recipient = userService.getUserByNickname(target);
+            if (!notice && recipient != null && recipient.isAway() && userService.shouldSendAwayReply(user, recipient)) {
+                sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_AWAY + " " + user.getNickname()
+                    + " " + recipient.getAwayReply());
             }
         }
     }
     
+    /**
+     * 处理TAGMSG命令：只携带客户端标签（如+typing）的消息，没有客户端标签时忽略
+     */
+    private void handleTagmsg(Socket socket, IrcMessage message) {
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!canPerformChannelOperations(user)) {
+            return;
+        }
+        
+        if (message.getParams().isEmpty()) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.TAGMSG, "Not enough parameters");
+            return;
+        }
+        
+        String target = message.getParams().get(0);
+        String clientTags = message.getClientTags();
+        if (clientTags == null || isTooLong(socket, clientTags)) {
+            return;
+        }
+        
+        if (!channelService.sendTagMessage(user.getNickname(), target, clientTags)) {
+            if (target.startsWith("#")) {
+                sendErrorToUser(socket, IrcCommand.ERR_CANNOTSENDTOCHAN, target, "Cannot send to channel");
+            } else {
+                sendErrorToUser(socket, IrcCommand.ERR_NOSUCHNICK, target, "No such nick/channel");
+            }
+        }
+    }
+    
+    /**
+     * 客户端标签超过长度限制时回复417
+     */
+    private boolean isTooLong(Socket socket, String clientTags) {
+        if (clientTags != null && Utf8.length(clientTags) > MessageTags.MAX_CLIENT_TAG_LENGTH) {
+            sendErrorToUser(socket, IrcCommand.ERR_INPUTTOOLONG, "Input line was too long");
+            return true;
+        }
+        return false;
+    }
+    
     /**
      * 处理NOTICE命令
      */
     private void handleNotice(Socket socket, IrcMessage message) {
         // NOTICE与PRIVMSG类似，但不应该产生自动回复
-        handlePrivmsg(socket, message);
+        handlePrivmsg(socket, message, true);
     }
     
     /**
@@ -332,15 +655,38 @@ public class IrcCommandHandler {
      * 处理NAMES命令
      */
     private void handleNames(Socket socket, IrcMessage message) {
+        IrcUser user = userService.getUserBySocket(socket);
+        String nickname = getCurrentNickname(socket);
         if (message.getParams().isEmpty()) {
-            // 列出所有频道的用户
-            for (var channel : channelService.getAllChannels()) {
-                sendChannelNames(socket, channel.getName());
+            // 列出所有频道的用户：行数可能超过预算容量，像LIST一样在独立线程中分批计费，每批计费后才生成回复行
+            ClientConnection connection = userService.getConnection(socket);
+            if (connection == null) {
+                return;
+            }
+            List<IrcChannel> channels = List.copyOf(channelService.getAllChannels());
+            if (!channelListService.streamLines(connection, channels,
+                    channel -> channelNamesLines(channel.getName(), nickname), null,
+                    streamPacer(user, QueryBudgetService.QueryClass.NAMES))) {
+                sendTryAgain(socket, IrcCommand.NAMES);
             }
         } else {
+            // 按实际输出的行数（353分段加366）计费
             String[] channels = message.getParams().get(0).split(",");
+            List<List<String>> replies = new ArrayList<>(channels.length);
+            long rows = 0;
             for (String channelName : channels) {
-                sendChannelNames(socket, channelName.trim());
+                List<String> lines = channelNamesLines(channelName.trim(), nickname);
+                replies.add(lines);
+                rows += lines.size();
+            }
+            if (!chargeQuery(socket, user, QueryBudgetService.QueryClass.NAMES, IrcCommand.NAMES, rows)) {
+                return;
+            }
+            for (int i = 0; i < channels.length; i++) {
+                String channelName = channels[i].trim();
+                for (String line : replies.get(i)) {
+                    sendToUser(socket, line, OutboundPriority.DIRECT, channelName);
+                }
             }
         }
     }
@@ -349,26 +695,173 @@ public class IrcCommandHandler {
      * 处理LIST命令
      */
     private void handleList(Socket socket, IrcMessage message) {
-        for (var channel : channelService.getAllChannels()) {
-            if (!channel.isSecret()) {
-                String listReply = String.format("322 %s %s %d :%s", 
-                    getCurrentNickname(socket), channel.getName(), 
-                    channel.getUsers().size(), channel.getTopic() != null ? channel.getTopic() : "");
-                sendToUser(socket, ":" + serverName + " " + listReply);
+        String nickname = getCurrentNickname(socket);
+        List<String> filters = message.getParams().isEmpty() ? List.of() : List.of(message.getParams().get(0).split(","));
+        List<ChannelListService.ChannelEntry> entries = channelListService.query(filters);
+        
+        String prefix = ":" + serverName + " 322 " + nickname + " ";
+        Function<ChannelListService.ChannelEntry, String> formatter = entry -> prefix + entry.name() + " " + entry.users()
+            + " :" + (entry.topic() != null ? entry.topic() : "");
+        String endOfList = ":" + serverName + " 323 " + nickname + " :End of /LIST";
+        
+        ClientConnection connection = userService.getConnection(socket);
+        if (connection == null) {
+            return;
+        }
+        // 结果在独立线程中按客户端读取速度与查询预算分批输出，不占用命令处理线程
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!channelListService.stream(connection, entries, formatter, endOfList,
+                streamPacer(user, QueryBudgetService.QueryClass.LIST))) {
+            sendTryAgain(socket, IrcCommand.LIST);
+        }
+    }
+    
+    /**
+     * 批量输出每批的计费：预算不足时最多等待irc.query.budget.list-max-delay-ms
+     */
+    private IntToLongFunction streamPacer(IrcUser user, QueryBudgetService.QueryClass queryClass) {
+        return rows -> {
+            long delay = queryBudgetService.charge(user, queryClass, rows, listMaxDelayMs);
+            // 服务器过载时已开始的批量输出暂停，让出资源给消息转发
+            return delay < 0 ? delay : delay + loadShedder.deferMillis();
+        };
+    }
+    
+    /**
+     * 为同步执行的查询计费，预算不足时回复263并返回false
+     */
+    private boolean chargeQuery(Socket socket, IrcUser user, QueryBudgetService.QueryClass queryClass,
+                                String command, long rows) {
+        if (queryBudgetService.charge(user, queryClass, rows, 0) < 0) {
+            sendTryAgain(socket, command);
+            return false;
+        }
+        return true;
+    }
+    
+    private void sendTryAgain(Socket socket, String command) {
+        sendTryAgain(socket, command, "Please wait a while and try again.");
+    }
+    
+    private void sendTryAgain(Socket socket, String command, String text) {
+        sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_TRYAGAIN + " " + getCurrentNickname(socket) + " "
+            + command + " :" + text, OutboundPriority.CONTROL, null);
+    }
+    
+    /**
+     * 处理WHO命令：WHO <#频道|掩码> [o][%字段[,查询标记]]
+     * 频道查询直接遍历成员；掩码查询通过HostmaskIndex按昵称前缀/主机后缀取候选，不遍历全部用户。
+     * 带%字段时按WHOX回复354，否则回复352；每行以BULK优先级入队，超过cork阈值时分批写出，
+     * 不会挡住其他直接回复，结果数受irc.query.who-max-results限制。
+     */
+    private void handleWho(Socket socket, IrcMessage message) {
+        String nickname = getCurrentNickname(socket);
+        String mask = message.getParams().isEmpty() || message.getParams().get(0).equals("0")
+            ? "*" : message.getParams().get(0);
+        String options = message.getParams().size() > 1 ? message.getParams().get(1) : "";
+        
+        int percent = options.indexOf('%');
+        boolean operatorsOnly = (percent >= 0 ? options.substring(0, percent) : options).contains("o");
+        String whoxFields = null;
+        String whoxToken = null;
+        if (percent >= 0) {
+            whoxFields = options.substring(percent + 1);
+            int comma = whoxFields.indexOf(',');
+            if (comma >= 0) {
+                whoxToken = whoxFields.substring(comma + 1);
+                whoxFields = whoxFields.substring(0, comma);
             }
         }
         
-        String endOfList = String.format("323 %s :End of /LIST", getCurrentNickname(socket));
-        sendToUser(socket, ":" + serverName + " " + endOfList);
+        int count = 0;
+        IrcUser requester = userService.getUserBySocket(socket);
+        if (mask.startsWith("#")) {
+            IrcChannel channel = channelService.getChannel(mask);
+            boolean visible = channel != null && (!channel.isSecret()
+                || (requester != null && channel.hasUser(requester.getNickname())));
+            if (visible && !chargeQuery(socket, requester, QueryBudgetService.QueryClass.WHO, IrcCommand.WHO,
+                    Math.min(channel.getUsers().size(), whoMaxResults) + 1)) {
+                return;
+            }
+            if (visible) {
+                // +D频道中普通成员看不到尚未公开的成员
+                boolean seesHidden = requester != null && channel.isOperator(requester.getNickname());
+                for (String member : channel.getUsers()) {
+                    if (count >= whoMaxResults) {
+                        break;
+                    }
+                    if (!seesHidden && !channel.isVisible(member) && !member.equals(nickname)) {
+                        continue;
+                    }
+                    IrcUser target = userService.getUserByNickname(member);
+                    if (target != null && (!operatorsOnly || target.hasPermission(UserRole.OPERATOR))) {
+                        sendToUser(socket, whoReply(nickname, channel.getName(), channel, target, whoxFields, whoxToken),
+                            OutboundPriority.BULK, IrcCommand.WHO);
+                        count++;
+                    }
+                }
+            }
+        } else {
+            List<IrcUser> targets = userService.findUsersByMask(mask, whoMaxResults);
+            if (!chargeQuery(socket, requester, QueryBudgetService.QueryClass.WHO, IrcCommand.WHO, targets.size() + 1)) {
+                return;
+            }
+            for (IrcUser target : targets) {
+                if (!operatorsOnly || target.hasPermission(UserRole.OPERATOR)) {
+                    sendToUser(socket, whoReply(nickname, "*", null, target, whoxFields, whoxToken),
+                        OutboundPriority.BULK, IrcCommand.WHO);
+                }
+            }
+        }
+        
+        String endOfWho = String.format("315 %s %s :End of /WHO list", nickname, mask);
+        sendToUser(socket, ":" + serverName + " " + endOfWho, OutboundPriority.BULK, IrcCommand.WHO);
     }
     
     /**
-     * 处理WHO命令
+     * 生成一行WHO回复：whoxFields为null时为352，否则按WHOX规定的字段顺序 tcuihsnfdlaor 生成354
      */
-    private void handleWho(Socket socket, IrcMessage message) {
-        // 简化的WHO实现
-        String endOfWho = String.format("315 %s * :End of /WHO list", getCurrentNickname(socket));
-        sendToUser(socket, ":" + serverName + " " + endOfWho);
+    private String whoReply(String nickname, String channelName, IrcChannel channel, IrcUser target,
+                            String whoxFields, String whoxToken) {
+        String username = target.getUsername() != null ? target.getUsername() : "*";
+        String realname = target.getRealname() != null ? target.getRealname() : "";
+        String flags = (target.isAway() ? "G" : "H")
+            + (target.hasPermission(UserRole.OPERATOR) ? "*" : "")
+            + (channel != null && channel.isOperator(target.getNickname()) ? "@" : "");
+        
+        StringBuilder reply = new StringBuilder(":").append(serverName).append(' ');
+        if (whoxFields == null) {
+            reply.append("352 ").append(nickname).append(' ').append(channelName).append(' ')
+                .append(username).append(' ').append(target.getHostname()).append(' ')
+                .append(serverName).append(' ').append(target.getNickname()).append(' ')
+                .append(flags).append(" :0 ").append(realname);
+            return reply.toString();
+        }
+        
+        reply.append("354 ").append(nickname);
+        for (char field : "tcuihsnfdlaor".toCharArray()) {
+            if (whoxFields.indexOf(field) < 0) {
+                continue;
+            }
+            reply.append(' ');
+            switch (field) {
+                case 't' -> reply.append(whoxToken != null ? whoxToken : "0");
+                case 'c' -> reply.append(channelName);
+                case 'u' -> reply.append(username);
+                case 'i', 'h' -> reply.append(target.getHostname());
+                case 's' -> reply.append(serverName);
+                case 'n' -> reply.append(target.getNickname());
+                case 'f' -> reply.append(flags);
+                case 'd' -> reply.append('0');
+                case 'l' -> reply.append(Duration.between(target.getLastActivity(), LocalDateTime.now()).toSeconds());
+                case 'a' -> reply.append(target.getAccount() != null ? target.getAccount() : "0");
+                case 'o' -> reply.append("n/a");
+                case 'r' -> reply.append(':').append(realname);
+                default -> {
+                }
+            }
+        }
+        return reply.toString();
     }
     
     /**
@@ -389,6 +882,11 @@ public class IrcCommandHandler {
             return;
         }
         
+        if (!chargeQuery(socket, userService.getUserBySocket(socket), QueryBudgetService.QueryClass.WHOIS,
+                IrcCommand.WHOIS, 4)) {
+            return;
+        }
+        
         // 发送WHOIS信息
         String whoisUser = String.format("311 %s %s %s %s * :%s", 
             currentNickname, target.getNickname(), target.getUsername(), 
@@ -399,6 +897,11 @@ public class IrcCommandHandler {
             currentNickname, target.getNickname(), serverName, serverName);
         sendToUser(socket, ":" + serverName + " " + whoisServer);
         
+        String awayReply = target.getAwayReply();
+        if (awayReply != null) {
+            sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_AWAY + " " + currentNickname + " " + awayReply);
+        }
+        
         if (target.hasPermission(UserRole.OPERATOR)) {
             String whoisOperator = String.format("313 %s %s :is an IRC operator", 
                 currentNickname, target.getNickname());
@@ -410,26 +913,282 @@ public class IrcCommandHandler {
         sendToUser(socket, ":" + serverName + " " + endOfWhois);
     }
     
+    /**
+     * 处理ISON命令：一次查询一批昵称是否在线，只回复一行303
+     * 每个昵称在昵称索引上查找一次，代替客户端逐个发送WHOIS
+     */
+    private void handleIson(Socket socket, IrcMessage message) {
+        List<String> targets = batchTargets(message, isonMaxTargets);
+        if (targets.isEmpty()) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.ISON, "Not enough parameters");
+            return;
+        }
+        
+        StringBuilder reply = new StringBuilder(":").append(serverName).append(' ')
+            .append(IrcCommand.RPL_ISON).append(' ').append(getCurrentNickname(socket)).append(" :");
+        int start = reply.length();
+        for (String target : targets) {
+            IrcUser found = userService.getUserByNicknameIgnoreCase(target);
+            if (found != null && found.isRegistered()) {
+                appendBatchEntry(reply, start, found.getNickname());
+            }
+        }
+        sendToUser(socket, reply.toString());
+    }
+    
+    /**
+     * 处理USERHOST命令：回复一行302，每项为 nick[*]=+|-user@host（*表示IRC操作员，-表示离开）
+     */
+    private void handleUserhost(Socket socket, IrcMessage message) {
+        List<String> targets = batchTargets(message, userhostMaxTargets);
+        if (targets.isEmpty()) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.USERHOST, "Not enough parameters");
+            return;
+        }
+        
+        StringBuilder reply = new StringBuilder(":").append(serverName).append(' ')
+            .append(IrcCommand.RPL_USERHOST).append(' ').append(getCurrentNickname(socket)).append(" :");
+        int start = reply.length();
+        for (String target : targets) {
+            IrcUser found = userService.getUserByNicknameIgnoreCase(target);
+            if (found != null && found.isRegistered()) {
+                String entry = found.getNickname() + (found.hasPermission(UserRole.OPERATOR) ? "*" : "")
+                    + (found.isAway() ? "=-" : "=+") + found.getUsername() + "@" + found.getHostname();
+                appendBatchEntry(reply, start, entry);
+            }
+        }
+        sendToUser(socket, reply.toString());
+    }
+    
+    /**
+     * 处理AWAY命令：带消息时设置离开状态（306），不带消息时取消（305），
+     * 状态变化通过away-notify发给启用了该能力的频道伙伴，每人一次
+     */
+    private void handleAway(Socket socket, IrcMessage message) {
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!canPerformChannelOperations(user)) {
+            return;
+        }
+        
+        String awayMessage = message.getTrailing() != null ? message.getTrailing()
+            : !message.getParams().isEmpty() ? message.getParams().get(0) : null;
+        if (awayMessage == null || awayMessage.isEmpty()) {
+            if (user.isAway()) {
+                channelService.setAway(user, null);
+            }
+            sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_UNAWAY + " " + user.getNickname()
+                + " :You are no longer marked as being away");
+            return;
+        }
+        
+        if (awayMessage.length() > awayMaxLength) {
+            awayMessage = awayMessage.substring(0, awayMaxLength);
+        }
+        channelService.setAway(user, awayMessage);
+        sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_NOWAWAY + " " + user.getNickname()
+            + " :You have been marked as being away");
+    }
+    
+    /**
+     * ISON/USERHOST的目标昵称：中间参数与尾随参数中以空格分隔的昵称，超出上限的部分忽略
+     */
+    private List<String> batchTargets(IrcMessage message, int limit) {
+        List<String> targets = new ArrayList<>();
+        List<String> words = new ArrayList<>(message.getParams());
+        if (message.getTrailing() != null) {
+            words.addAll(List.of(message.getTrailing().trim().split("\\s+")));
+        }
+        for (String word : words) {
+            if (targets.size() >= limit) {
+                break;
+            }
+            if (!word.isEmpty()) {
+                targets.add(word);
+            }
+        }
+        return targets;
+    }
+    
+    /**
+     * 向单行回复追加一项，超过IRC行长度上限时丢弃后续项
+     */
+    private void appendBatchEntry(StringBuilder reply, int start, String entry) {
+        if (reply.length() + 1 + entry.length() > 510) {
+            return;
+        }
+        if (reply.length() > start) {
+            reply.append(' ');
+        }
+        reply.append(entry);
+    }
+    
+    /**
+     * 处理MONITOR命令：+ 添加、- 移除、C 清空、L 列出、S 查询状态
+     * 之后目标上线、下线或改名时由UserService主动推送730/731，客户端无需轮询
+     */
+    private void handleMonitor(Socket socket, IrcMessage message) {
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!canPerformChannelOperations(user)) {
+            return;
+        }
+        
+        if (message.getParams().isEmpty()) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.MONITOR, "Not enough parameters");
+            return;
+        }
+        
+        String subcommand = message.getParams().get(0);
+        String targetList = message.getTrailing() != null ? message.getTrailing()
+            : message.getParams().size() > 1 ? message.getParams().get(1) : null;
+        
+        switch (subcommand) {
+            case "+" -> {
+                if (targetList == null) {
+                    sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.MONITOR, "Not enough parameters");
+                    return;
+                }
+                List<String> added = new ArrayList<>();
+                String[] targets = targetList.split(",");
+                for (int i = 0; i < targets.length; i++) {
+                    if (targets[i].isEmpty()) {
+                        continue;
+                    }
+                    if (!monitorService.add(user, targets[i])) {
+                        // 超出上限：拒绝剩余的全部目标
+                        String rejected = String.join(",", List.of(targets).subList(i, targets.length));
+                        sendErrorToUser(socket, IrcCommand.ERR_MONLISTFULL, String.valueOf(monitorService.getMaxTargets()),
+                            rejected, "Monitor list is full");
+                        break;
+                    }
+                    added.add(targets[i]);
+                }
+                sendMonitorStatus(socket, user, added);
+            }
+            case "-" -> {
+                if (targetList != null) {
+                    for (String target : targetList.split(",")) {
+                        monitorService.remove(user, target);
+                    }
+                }
+            }
+            case "C", "c" -> monitorService.clear(user);
+            case "L", "l" -> {
+                sendCommaSeparated(socket, IrcCommand.RPL_MONLIST, user.getNickname(),
+                    new ArrayList<>(user.getMonitorList().values()));
+                sendToUser(socket, ":" + serverName + " " + IrcCommand.RPL_ENDOFMONLIST + " " + user.getNickname()
+                    + " :End of MONITOR list");
+            }
+            case "S", "s" -> sendMonitorStatus(socket, user, new ArrayList<>(user.getMonitorList().values()));
+            default -> sendErrorToUser(socket, IrcCommand.ERR_UNKNOWNCOMMAND, IrcCommand.MONITOR, "Unknown MONITOR subcommand");
+        }
+    }
+    
+    /**
+     * 按目标当前在线状态回复730/731
+     */
+    private void sendMonitorStatus(Socket socket, IrcUser user, List<String> targets) {
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        for (String target : targets) {
+            IrcUser found = userService.getUserByNicknameIgnoreCase(target);
+            if (found != null && found.isRegistered()) {
+                online.add(found.getFullMask());
+            } else {
+                offline.add(target);
+            }
+        }
+        sendCommaSeparated(socket, IrcCommand.RPL_MONONLINE, user.getNickname(), online);
+        sendCommaSeparated(socket, IrcCommand.RPL_MONOFFLINE, user.getNickname(), offline);
+    }
+    
+    /**
+     * 把逗号分隔的列表拆成多行发送，每行不超过约400字节
+     */
+    private void sendCommaSeparated(Socket socket, String numeric, String nickname, List<String> items) {
+        String prefix = ":" + serverName + " " + numeric + " " + nickname + " :";
+        StringBuilder line = new StringBuilder(prefix);
+        for (String item : items) {
+            if (line.length() > prefix.length() && line.length() + 1 + item.length() > 400) {
+                sendToUser(socket, line.toString());
+                line.setLength(prefix.length());
+            }
+            if (line.length() > prefix.length()) {
+                line.append(',');
+            }
+            line.append(item);
+        }
+        if (line.length() > prefix.length()) {
+            sendToUser(socket, line.toString());
+        }
+    }
+    
     /**
      * 处理MODE命令
      */
     private void handleMode(Socket socket, IrcMessage message) {
-        // 简化的MODE实现
         if (message.getParams().isEmpty()) {
             sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.MODE, "Not enough parameters");
             return;
         }
         
         String target = message.getParams().get(0);
-        if (target.startsWith("#")) {
-            // 频道模式
-            var channel = channelService.getChannel(target);
-            if (channel != null) {
-                String modeReply = String.format("324 %s %s %s", 
-                    getCurrentNickname(socket), target, channel.getModeString());
-                sendToUser(socket, ":" + serverName + " " + modeReply);
+        if (!target.startsWith("#")) {
+            return;
+        }
+        
+        // 频道模式
+        var channel = channelService.getChannel(target);
+        String nickname = getCurrentNickname(socket);
+        if (channel == null) {
+            sendErrorToUser(socket, IrcCommand.ERR_NOSUCHCHANNEL, target, "No such channel");
+            return;
+        }
+        
+        List<String> args = new ArrayList<>(message.getParams().subList(1, message.getParams().size()));
+        if (message.getTrailing() != null) {
+            args.add(message.getTrailing());
+        }
+        if (args.isEmpty()) {
+            String modeReply = String.format("324 %s %s %s", nickname, target, channel.getModeString());
+            sendToUser(socket, ":" + serverName + " " + modeReply);
+            return;
+        }
+        
+        String modes = args.remove(0);
+        if (args.isEmpty() && (modes.equals("b") || modes.equals("+b"))) {
+            // 查询封禁名单
+            for (String mask : channel.getBanned()) {
+                sendToUser(socket, ":" + serverName + " " + String.format("367 %s %s %s", nickname, target, mask));
+            }
+            sendToUser(socket, ":" + serverName + " " + String.format("368 %s %s :End of channel ban list", nickname, target));
+            return;
+        }
+        
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!canPerformChannelOperations(user)) {
+            return;
+        }
+        
+        for (char mode : modes.toCharArray()) {
+            if (mode != '+' && mode != '-' && "imsptklborD".indexOf(mode) < 0) {
+                sendErrorToUser(socket, IrcCommand.ERR_UNKNOWNMODE, String.valueOf(mode), "is unknown mode char to me");
+                return;
             }
         }
+        
+        boolean serverOperator = user.hasPermission(UserRole.OPERATOR);
+        if (!channel.isOperator(user.getNickname()) && !serverOperator) {
+            sendErrorToUser(socket, IrcCommand.ERR_CHANOPRIVSNEEDED, target, "You're not channel operator");
+            return;
+        }
+        
+        // 注册频道需要已认证的账户或服务器操作员
+        if (modes.indexOf('r') >= 0 && user.getAccount() == null && !serverOperator) {
+            sendErrorToUser(socket, IrcCommand.ERR_NOPRIVILEGES, "Permission Denied- You need an authenticated account to register channels");
+            return;
+        }
+        
+        channelService.changeChannelModes(user.getNickname(), target, modes, args);
     }
     
     /**
@@ -475,6 +1234,165 @@ public class IrcCommandHandler {
         channelService.inviteUser(user.getNickname(), channelName, targetNickname);
     }
     
+    /**
+     * 处理CHATHISTORY命令
+     * 支持 LATEST/BEFORE/AFTER/BETWEEN，结果放在chathistory批次中返回；
+     * 需要先协商draft/chathistory和batch，time/msgid标签只发给协商了server-time/message-tags的客户端
+     */
+    private void handleChathistory(Socket socket, IrcMessage message) {
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!canPerformChannelOperations(user)) {
+            return;
+        }
+        
+        if (!canUseChathistory(user)) {
+            sendFail(socket, IrcCommand.CHATHISTORY, "NEED_CAPABILITY", null,
+                "The draft/chathistory and batch capabilities are required");
+            return;
+        }
+        
+        List<String> params = message.getParams();
+        if (params.size() < 3) {
+            sendFail(socket, IrcCommand.CHATHISTORY, "INVALID_PARAMS", null, "Not enough parameters");
+            return;
+        }
+        
+        String subcommand = params.get(0).toUpperCase();
+        String target = params.get(1);
+        int limit;
+        try {
+            limit = Integer.parseInt(params.get(params.size() - 1));
+        } catch (NumberFormatException e) {
+            sendFail(socket, IrcCommand.CHATHISTORY, "INVALID_PARAMS", subcommand, "Invalid limit");
+            return;
+        }
+        
+        // 只有频道成员可以查询频道历史，私聊不保存历史
+        var channel = channelService.getChannel(target);
+        if (!target.startsWith("#") || channel == null || !channel.hasUser(user.getNickname())) {
+            sendFail(socket, IrcCommand.CHATHISTORY, "INVALID_TARGET", subcommand + " " + target, "Messages could not be retrieved");
+            return;
+        }
+        
+        List<HistoryEntry> entries;
+        switch (subcommand) {
+            case "LATEST" -> {
+                String ref = params.get(2);
+                HistoryService.Reference after = "*".equals(ref) ? null : historyService.parseReference(ref);
+                if (after == null && !"*".equals(ref)) {
+                    entries = null;
+                } else {
+                    entries = historyService.latest(target, after, limit);
+                }
+            }
+            case "BEFORE", "AFTER" -> {
+                HistoryService.Reference reference = historyService.parseReference(params.get(2));
+                if (reference == null) {
+                    entries = null;
+                } else if ("BEFORE".equals(subcommand)) {
+                    entries = historyService.before(target, reference, limit);
+                } else {
+                    entries = historyService.after(target, reference, limit);
+                }
+            }
+            case "BETWEEN" -> {
+                HistoryService.Reference first = params.size() > 3 ? historyService.parseReference(params.get(2)) : null;
+                HistoryService.Reference second = params.size() > 3 ? historyService.parseReference(params.get(3)) : null;
+                entries = first != null && second != null
+                    ? historyService.between(target, first, second, limit)
+                    : null;
+            }
+            default -> {
+                sendFail(socket, IrcCommand.CHATHISTORY, "INVALID_PARAMS", subcommand, "Unknown subcommand");
+                return;
+            }
+        }
+        
+        if (entries == null) {
+            sendFail(socket, IrcCommand.CHATHISTORY, "INVALID_PARAMS", subcommand, "Invalid message reference");
+            return;
+        }
+        
+        String batchId = Long.toString(batchIdGenerator.incrementAndGet(), 36);
+        sendToUser(socket, ":" + serverName + " BATCH +" + batchId + " chathistory " + target,
+            OutboundPriority.DIRECT, target);
+        boolean serverTime = user.hasCapability(Capability.SERVER_TIME);
+        boolean messageTags = user.hasCapability(Capability.MESSAGE_TAGS);
+        for (HistoryEntry entry : entries) {
+            StringBuilder line = new StringBuilder("@batch=").append(batchId);
+            if (serverTime) {
+                line.append(";time=").append(historyService.formatServerTime(entry.time()));
+            }
+            if (messageTags) {
+                line.append(";msgid=").append(entry.msgid());
+            }
+            line.append(" :").append(entry.source()).append(' ').append(entry.command())
+                .append(' ').append(entry.target()).append(" :").append(entry.text());
+            sendToUser(socket, line.toString(), OutboundPriority.DIRECT, target);
+        }
+        sendToUser(socket, ":" + serverName + " BATCH -" + batchId, OutboundPriority.DIRECT, target);
+    }
+    
+    /**
+     * 客户端能否使用CHATHISTORY：历史已开启且协商了draft/chathistory和batch
+     */
+    private boolean canUseChathistory(IrcUser user) {
+        return historyService.isEnabled()
+            && user.hasCapability(Capability.CHATHISTORY)
+            && user.hasCapability(Capability.BATCH);
+    }
+    
+    /**
+     * 处理SEARCH命令：SEARCH <#频道|*> :<查询>
+     * 查询支持 from:昵称、since:7d、limit:N；普通用户只能搜索自己所在的频道，*（所有频道）仅限管理员
+     */
+    private void handleSearch(Socket socket, IrcMessage message) {
+        IrcUser user = userService.getUserBySocket(socket);
+        if (!canPerformChannelOperations(user)) {
+            return;
+        }
+        
+        if (message.getParams().isEmpty() || message.getTrailing() == null) {
+            sendErrorToUser(socket, IrcCommand.ERR_NEEDMOREPARAMS, IrcCommand.SEARCH, "Not enough parameters");
+            return;
+        }
+        
+        String target = message.getParams().get(0);
+        boolean operator = user.hasPermission(UserRole.OPERATOR);
+        if ("*".equals(target)) {
+            if (!operator) {
+                sendErrorToUser(socket, IrcCommand.ERR_NOPRIVILEGES, "Permission Denied- You're not an IRC operator");
+                return;
+            }
+        } else {
+            var channel = channelService.getChannel(target);
+            if (!operator && (channel == null || !channel.hasUser(user.getNickname()))) {
+                sendErrorToUser(socket, IrcCommand.ERR_NOTONCHANNEL, target, "You're not on that channel");
+                return;
+            }
+        }
+        
+        SearchQuery query = SearchQuery.parse(message.getTrailing(), "*".equals(target) ? null : target, 20);
+        if (!operator && query.channel() != null && !query.channel().equalsIgnoreCase(target)) {
+            // 普通用户不能通过in:切换到其他频道
+            sendErrorToUser(socket, IrcCommand.ERR_NOTONCHANNEL, query.channel(), "You're not on that channel");
+            return;
+        }
+        
+        SearchResult result = searchService.search(query);
+        String nickname = user.getNickname();
+        for (ChannelLogRecord record : result.hits()) {
+            String sender = record.source().contains("!")
+                ? record.source().substring(0, record.source().indexOf('!'))
+                : record.source();
+            sendToUser(socket, ":" + serverName + " NOTICE " + nickname + " :["
+                + historyService.formatServerTime(record.time()) + "] " + record.channel()
+                + " <" + sender + "> " + record.text(), OutboundPriority.BULK, null);
+        }
+        sendToUser(socket, ":" + serverName + " NOTICE " + nickname + " :End of SEARCH ("
+            + result.hits().size() + " results, " + result.elapsedMicros() + "us)", OutboundPriority.BULK, null);
+    }
+    
     /**
      * 处理QUIT命令
      */
@@ -488,7 +1406,8 @@ public class IrcCommandHandler {
             
             // 广播退出消息到所有频道
             for (String channelName : user.getChannels()) {
-                channelService.broadcastToChannel(channelName, quitMessage, user.getNickname());
+                channelService.broadcastMemberEvent(channelName, user.getNickname(), quitMessage, user.getNickname(),
+                    OutboundPriority.BULK);
                 channelService.leaveChannel(user.getNickname(), channelName, null);
             }
             
@@ -508,11 +1427,14 @@ public class IrcCommandHandler {
         String username = message.getParams().get(0);
         String password = message.getParams().get(1);
         
-        if (authService.authenticateOperator(username, password)) {
+        if (authService.authenticateOperator(username, password, socket.getInetAddress())) {
             IrcUser user = userService.getUserBySocket(socket);
             if (user != null) {
                 user.setRole(authService.getUserRole(username));
                 user.setAuthenticated(true);
+                if (user.getAccount() == null) {
+                    user.setAccount(username);
+                }
                 
                 String operReply = String.format("381 %s :You are now an IRC operator", user.getNickname());
                 sendToUser(socket, ":" + serverName + " " + operReply);
@@ -598,11 +1520,18 @@ public class IrcCommandHandler {
      * 检查用户注册状态
      */
     private void checkRegistration(IrcUser user) {
+        if (user.isCapNegotiating()) {
+            // CAP END之后再完成注册
+            return;
+        }
+        
         if (!user.isRegistered() && user.getNickname() != null && user.getUsername() != null) {
-            // 检查认证
-            if (authService.isRegistrationRequired()) {
-                if (user.getPassword() != null && authService.authenticateUser(user.getUsername(), user.getPassword())) {
+            // 检查认证，已通过SASL认证的用户不再检查PASS
+            if (authService.isRegistrationRequired() && !user.isAuthenticated()) {
+                if (user.getPassword() != null && authService.authenticateUser(user.getUsername(), user.getPassword(),
+                        user.getSocket().getInetAddress())) {
                     user.setAuthenticated(true);
+                    user.setAccount(user.getUsername());
                     user.setRole(authService.getUserRole(user.getUsername()));
                 } else {
                     sendErrorToUser(user.getSocket(), IrcCommand.ERR_PASSWDMISMATCH, "Password incorrect");
@@ -610,7 +1539,7 @@ public class IrcCommandHandler {
                 }
             }
             
-            user.setRegistered(true);
+            userService.completeRegistration(user);
             sendWelcomeMessages(user);
         } else if (allowUnregisteredChannels && !user.isRegistered() && user.getNickname() != null && user.getUsername() == null) {
             // 在允许非注册频道模式下，只有昵称也可以进行基本操作
@@ -645,6 +1574,20 @@ public class IrcCommandHandler {
             nickname, serverName, serverVersion);
         sendToUser(user.getSocket(), ":" + serverName + " " + myInfo);
         
+        // 005 RPL_ISUPPORT
+        List<String> isupport = new ArrayList<>();
+        isupport.add("AWAYLEN=" + awayMaxLength);
+        isupport.add("ELIST=CMNTU");
+        isupport.add("SAFELIST");
+        isupport.add("MONITOR=" + monitorService.getMaxTargets());
+        isupport.add("WHOX");
+        if (canUseChathistory(user)) {
+            isupport.add("CHATHISTORY=" + historyService.getMaxQueryLimit());
+            isupport.add("MSGREFTYPES=msgid,timestamp");
+        }
+        sendToUser(user.getSocket(), ":" + serverName + " 005 " + nickname + " " + String.join(" ", isupport)
+            + " :are supported by this server");
+        
         // 发送MOTD
         sendMotd(user.getSocket());
     }
@@ -679,11 +1622,11 @@ public class IrcCommandHandler {
             if (channel.getTopic() != null) {
                 String topicReply = String.format("332 %s %s :%s", 
                     nickname, channelName, channel.getTopic());
-                sendToUser(socket, ":" + serverName + " " + topicReply);
+                sendToUser(socket, ":" + serverName + " " + topicReply, OutboundPriority.DIRECT, channelName);
             } else {
                 String noTopicReply = String.format("331 %s %s :No topic is set", 
                     nickname, channelName);
-                sendToUser(socket, ":" + serverName + " " + noTopicReply);
+                sendToUser(socket, ":" + serverName + " " + noTopicReply, OutboundPriority.DIRECT, channelName);
             }
         }
     }
@@ -692,19 +1635,35 @@ public class IrcCommandHandler {
      * 发送频道用户列表
      */
     private void sendChannelNames(Socket socket, String channelName) {
-        List<String> users = channelService.getChannelUsers(channelName);
-        String nickname = getCurrentNickname(socket);
+        for (String line : channelNamesLines(channelName, getCurrentNickname(socket))) {
+            sendToUser(socket, line, OutboundPriority.DIRECT, channelName);
+        }
+    }
+    
+    /**
+     * 频道的NAMES回复各行（353分段和366）
+     */
+    private List<String> channelNamesLines(String channelName, String nickname) {
+        List<String> lines = new ArrayList<>();
+        IrcChannel channel = channelService.getChannel(channelName);
         
-        if (!users.isEmpty()) {
-            String userList = String.join(" ", users);
-            String namesReply = String.format("353 %s = %s :%s", 
-                nickname, channelName, userList);
-            sendToUser(socket, ":" + serverName + " " + namesReply);
+        if (channel != null) {
+            // 成员列表按版本缓存并预先分段，这里只拼接每行的前缀
+            String symbol = channel.isSecret() ? "@" : channel.isPrivateChannel() ? "*" : "=";
+            String prefix = ":" + serverName + " 353 " + nickname + " " + symbol + " " + channelName + " :";
+            for (String chunk : channelService.getNamesChunks(channel, nickname)) {
+                lines.add(prefix + chunk);
+            }
+            if (channel.hasUser(nickname) && !channel.isVisible(nickname)) {
+                // +D频道中尚未公开的成员不在共享的列表里，单独补上自己
+                lines.add(prefix + nickname);
+            }
         }
         
         String endOfNames = String.format("366 %s %s :End of /NAMES list", 
             nickname, channelName);
-        sendToUser(socket, ":" + serverName + " " + endOfNames);
+        lines.add(":" + serverName + " " + endOfNames);
+        return lines;
     }
     
     /**
@@ -719,30 +1678,48 @@ public class IrcCommandHandler {
             error.append(" ").append(param);
         }
         
-        sendToUser(socket, ":" + serverName + " " + error);
+        sendToUser(socket, ":" + serverName + " " + error, OutboundPriority.CONTROL, null);
+    }
+    
+    /**
+     * 发送IRCv3标准回复FAIL
+     */
+    private void sendFail(Socket socket, String command, String code, String context, String description) {
+        StringBuilder fail = new StringBuilder(":").append(serverName)
+            .append(" ").append(IrcCommand.FAIL).append(" ").append(command).append(" ").append(code);
+        if (context != null) {
+            fail.append(" ").append(context);
+        }
+        fail.append(" :").append(description);
+        sendToUser(socket, fail.toString(), OutboundPriority.CONTROL, null);
     }
     
     /**
      * 发送错误消息（简化版）
      */
     private void sendErrorToUser(Socket socket, String message) {
-        sendToUser(socket, "ERROR :" + message);
+        sendToUser(socket, "ERROR :" + message, OutboundPriority.CONTROL, null);
     }
     
     /**
      * 向用户发送消息
      */
     private void sendToUser(Socket socket, String message) {
+        sendToUser(socket, message, OutboundPriority.DIRECT, null);
+    }
+    
+    /**
+     * 按指定优先级向用户发送消息
+     */
+    private void sendToUser(Socket socket, String message, OutboundPriority priority, String orderingKey) {
         IrcUser user = userService.getUserBySocket(socket);
         if (user != null && user.getNickname() != null) {
-            userService.sendMessageToUser(user.getNickname(), message);
+            userService.sendMessageToUser(user.getNickname(), message, priority, orderingKey);
         } else {
-            // 直接通过socket发送消息
-            try {
-                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-                writer.println(message);
-            } catch (IOException e) {
-                logger.error("发送消息失败", e);
+            // 直接通过连接发送消息
+            ClientConnection connection = userService.getConnection(socket);
+            if (connection == null || !connection.send(message, priority, orderingKey)) {
+                logger.error("发送消息失败: {}", socket.getInetAddress().getHostAddress());
             }
         }
     }
@@ -0,0 +1,66 @@
+package com.irc4spring.history;
+
+import com.irc4spring.model.HistoryEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 堆内环形缓冲区：每个槽位保存(序号, 消息)，序号用于识别被覆盖的槽位
+ */
+public class HeapHistoryRing implements HistoryRing {
+
+    /** 单条消息的估算占用：对象头、字符串及IRC行长上限 */
+    static final int ESTIMATED_ENTRY_BYTES = 768;
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long lastAppendTime;
+
+    public HeapHistoryRing(int capacity) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    @Override
+    public void append(HistoryEntry entry) {
+        long sequence = tail.getAndIncrement();
+        slots.setRelease((int) (sequence & mask), new Slot(sequence, entry));
+        lastAppendTime = entry.time();
+    }
+
+    @Override
+    public List<HistoryEntry> snapshot() {
+        long end = tail.get();
+        long start = Math.max(0, end - slots.length());
+        List<HistoryEntry> entries = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots.getAcquire((int) (sequence & mask));
+            // 槽位尚未写入或已被更新的消息覆盖
+            if (slot != null && slot.sequence() == sequence) {
+                entries.add(slot.entry());
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public long getLastAppendTime() {
+        return lastAppendTime;
+    }
+
+    @Override
+    public int capacity() {
+        return slots.length();
+    }
+
+    @Override
+    public long memoryBytes() {
+        return (long) slots.length() * ESTIMATED_ENTRY_BYTES;
+    }
+
+    private record Slot(long sequence, HistoryEntry entry) {}
+}
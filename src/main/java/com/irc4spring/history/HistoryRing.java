@@ -0,0 +1,43 @@
+package com.irc4spring.history;
+
+import com.irc4spring.model.HistoryEntry;
+
+import java.util.List;
+
+/**
+ * 定长环形历史缓冲区，写满后覆盖最旧的消息。
+ * 追加不加锁，读取方通过序号校验跳过被并发覆盖的槽位。
+ */
+public interface HistoryRing {
+
+    /**
+     * 追加一条消息
+     */
+    void append(HistoryEntry entry);
+
+    /**
+     * 按时间顺序返回当前保留的全部消息快照
+     */
+    List<HistoryEntry> snapshot();
+
+    /**
+     * 最后一次追加的时间（毫秒）
+     */
+    long getLastAppendTime();
+
+    /**
+     * 槽位数
+     */
+    int capacity();
+
+    /**
+     * 占用的内存字节数（估算）
+     */
+    long memoryBytes();
+
+    /**
+     * 释放底层存储
+     */
+    default void release() {
+    }
+}
@@ -0,0 +1,173 @@
+package com.irc4spring.history;
+
+import com.irc4spring.model.HistoryEntry;
+
+import java.lang.foreign.Arena;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外环形缓冲区：消息序列化到直接内存的定长槽位中，不占用Java堆。
+ * 槽位格式：[版本戳 8B][时间 8B][负载长度 4B][负载]，负载为5个(大端长度2B+UTF-8)字段。
+ * 写入方先把版本戳置为WRITING再写负载，最后写入序号+1；读取方前后两次校验版本戳。
+ * 内存由共享Arena分配，release()时立即归还，不依赖GC回收直接内存，全局字节上限因此是实际占用的上限；
+ * 释放后仍持有引用的写入方丢弃消息，读取方返回已读到的部分。
+ * 使用Java 21的预览API（FFM），运行时需要--enable-preview。
+ */
+public class OffHeapHistoryRing implements HistoryRing {
+
+    private static final VarHandle STAMP =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long WRITING = -1;
+    private static final int HEADER_BYTES = 20;
+    private static final int FIELD_COUNT = 5;
+
+    private final Arena arena;
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int slotSize;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long lastAppendTime;
+
+    public OffHeapHistoryRing(int capacity, int slotSize) {
+        if (slotSize % Long.BYTES != 0 || slotSize <= HEADER_BYTES + FIELD_COUNT * Short.BYTES) {
+            throw new IllegalArgumentException("无效的槽位大小: " + slotSize);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slotSize = slotSize;
+        this.arena = Arena.ofShared();
+        this.buffer = arena.allocate((long) capacity * slotSize, Long.BYTES).asByteBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void append(HistoryEntry entry) {
+        try {
+            write(entry);
+        } catch (IllegalStateException e) {
+            // 缓冲区已被淘汰或删除
+        }
+    }
+
+    private void write(HistoryEntry entry) {
+        long sequence = tail.getAndIncrement();
+        int base = (int) (sequence & mask) * slotSize;
+        long stamp = sequence + 1;
+
+        // 环绕时可能有更新的写入方正在写同一槽位，等待其完成；若槽位已是更新的消息则放弃本条
+        long previous;
+        do {
+            previous = (long) STAMP.getVolatile(buffer, base);
+            if (previous == WRITING) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (previous > stamp) {
+                return;
+            }
+        } while (previous == WRITING || !STAMP.compareAndSet(buffer, base, previous, WRITING));
+
+        int position = base + HEADER_BYTES;
+        int limit = base + slotSize;
+        position = putField(entry.msgid(), position, limit);
+        position = putField(entry.source(), position, limit);
+        position = putField(entry.command(), position, limit);
+        position = putField(entry.target(), position, limit);
+        position = putField(entry.text(), position, limit);
+        buffer.putLong(base + Long.BYTES, entry.time());
+        buffer.putInt(base + 2 * Long.BYTES, position - base - HEADER_BYTES);
+
+        STAMP.setRelease(buffer, base, stamp);
+        lastAppendTime = entry.time();
+    }
+
+    /**
+     * 写入一个字段，空间不足时截断（至少为后续字段保留长度前缀）
+     */
+    private int putField(String value, int position, int limit) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int reserved = FIELD_COUNT * Short.BYTES;
+        int available = Math.max(0, limit - position - reserved);
+        int length = Math.min(bytes.length, Math.min(available, Short.MAX_VALUE));
+        buffer.put(position, (byte) (length >>> 8));
+        buffer.put(position + 1, (byte) length);
+        buffer.put(position + Short.BYTES, bytes, 0, length);
+        return position + Short.BYTES + length;
+    }
+
+    @Override
+    public List<HistoryEntry> snapshot() {
+        long end = tail.get();
+        long start = Math.max(0, end - capacity);
+        List<HistoryEntry> entries = new ArrayList<>((int) (end - start));
+        byte[] payload = new byte[slotSize];
+        try {
+            for (long sequence = start; sequence < end; sequence++) {
+                HistoryEntry entry = read(sequence, payload);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IllegalStateException e) {
+            // 读取期间缓冲区被释放
+        }
+        return entries;
+    }
+
+    private HistoryEntry read(long sequence, byte[] payload) {
+        int base = (int) (sequence & mask) * slotSize;
+        long stamp = sequence + 1;
+        if ((long) STAMP.getAcquire(buffer, base) != stamp) {
+            return null;
+        }
+
+        long time = buffer.getLong(base + Long.BYTES);
+        int length = Math.min(buffer.getInt(base + 2 * Long.BYTES), slotSize - HEADER_BYTES);
+        if (length < 0) {
+            return null;
+        }
+        buffer.get(base + HEADER_BYTES, payload, 0, length);
+
+        // 读取期间槽位被覆盖则丢弃
+        VarHandle.loadLoadFence();
+        if ((long) STAMP.getVolatile(buffer, base) != stamp) {
+            return null;
+        }
+
+        String[] fields = new String[FIELD_COUNT];
+        int position = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            int fieldLength = ((payload[position] & 0xFF) << 8) | (payload[position + 1] & 0xFF);
+            fields[i] = new String(payload, position + Short.BYTES, fieldLength, StandardCharsets.UTF_8);
+            position += Short.BYTES + fieldLength;
+        }
+        return new HistoryEntry(fields[0], time, fields[1], fields[2], fields[3], fields[4]);
+    }
+
+    @Override
+    public long getLastAppendTime() {
+        return lastAppendTime;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public long memoryBytes() {
+        return (long) capacity * slotSize;
+    }
+
+    @Override
+    public void release() {
+        arena.close();
+    }
+}
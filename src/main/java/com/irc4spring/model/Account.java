@@ -0,0 +1,19 @@
+package com.irc4spring.model;
+
+/**
+ * 持久化的用户账户
+ *
+ * @param username     用户名
+ * @param passwordHash 密码哈希，只设置了角色的账户为null
+ * @param role         用户角色
+ */
+public record Account(String username, String passwordHash, UserRole role) {
+
+    public Account withPasswordHash(String newHash) {
+        return new Account(username, newHash, role);
+    }
+
+    public Account withRole(UserRole newRole) {
+        return new Account(username, passwordHash, newRole);
+    }
+}
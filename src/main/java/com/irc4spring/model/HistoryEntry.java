@@ -0,0 +1,14 @@
+package com.irc4spring.model;
+
+/**
+ * 频道历史消息
+ *
+ * @param msgid   消息ID
+ * @param time    服务器时间（毫秒时间戳）
+ * @param source  发送者完整掩码
+ * @param command 消息命令（PRIVMSG/NOTICE）
+ * @param target  消息目标
+ * @param text    消息内容
+ */
+public record HistoryEntry(String msgid, long time, String source, String command, String target, String text) {
+}
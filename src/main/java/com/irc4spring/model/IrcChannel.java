@@ -1,8 +1,12 @@
 package com.irc4spring.model;
 
 import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * IRC频道模型
@@ -19,11 +23,19 @@ public class IrcChannel {
     private boolean secret;
     private boolean privateChannel;
     private boolean topicLocked;
+    private volatile boolean delayedJoin; // +D：成员发言或成为操作员之前，加入只对操作员可见
     private final Set<String> users;
     private final Set<String> operators;
     private final Set<String> banned;
     private final Set<String> invited;
+    private final Set<String> revealed; // +D下加入已对全体成员公开的成员
+    private final Set<String> accessList; // 注册频道的操作员名单，按账户名记录，以名单中的账户认证的用户加入时自动获得操作员
+    private boolean registered; // 注册频道会被持久化，成员全部离开后也不会删除
+    private String founder;
     private LocalDateTime createdAt;
+    private final ReentrantLock membershipLock = new ReentrantLock(); // 成员与操作员变更和NAMES缓存保持一致
+    private final NamesCache namesCache = new NamesCache();
+    private final NamesCache visibleNamesCache = new NamesCache(); // +D下普通成员看到的NAMES：操作员和已公开的成员
     
     public IrcChannel(String name) {
         this.name = name;
@@ -31,6 +43,8 @@ public class IrcChannel {
         this.operators = ConcurrentHashMap.newKeySet();
         this.banned = ConcurrentHashMap.newKeySet();
         this.invited = ConcurrentHashMap.newKeySet();
+        this.revealed = ConcurrentHashMap.newKeySet();
+        this.accessList = ConcurrentHashMap.newKeySet();
         this.createdAt = LocalDateTime.now();
         this.userLimit = 0; // 0表示无限制
         this.inviteOnly = false;
@@ -41,22 +55,155 @@ public class IrcChannel {
     }
     
     public void addUser(String nickname) {
-        users.add(nickname);
+        membershipLock.lock();
+        try {
+            if (users.add(nickname)) {
+                namesCache.joined(nickname);
+            }
+        } finally {
+            membershipLock.unlock();
+        }
     }
     
     public void removeUser(String nickname) {
-        users.remove(nickname);
-        operators.remove(nickname);
+        membershipLock.lock();
+        try {
+            boolean removed = users.remove(nickname);
+            boolean visible = revealed.remove(nickname);
+            if (operators.remove(nickname) || removed) {
+                namesCache.changed();
+            }
+            // 未公开的成员离开不影响普通成员看到的列表，大频道中的潜水成员进出不会反复重建
+            if (visible) {
+                visibleNamesCache.changed();
+            }
+        } finally {
+            membershipLock.unlock();
+        }
     }
     
     public void addOperator(String nickname) {
-        if (users.contains(nickname)) {
-            operators.add(nickname);
+        membershipLock.lock();
+        try {
+            if (users.contains(nickname) && operators.add(nickname)) {
+                namesCache.opped(nickname);
+                revealed.add(nickname);
+                visibleNamesCache.changed();
+            }
+        } finally {
+            membershipLock.unlock();
         }
     }
     
     public void removeOperator(String nickname) {
-        operators.remove(nickname);
+        membershipLock.lock();
+        try {
+            if (operators.remove(nickname)) {
+                namesCache.changed();
+                visibleNamesCache.changed();
+            }
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+    
+    /**
+     * 成员版本号，成员或操作员变化时递增
+     */
+    public long getMembershipVersion() {
+        return namesCache.getVersion();
+    }
+    
+    /**
+     * NAMES成员列表分段（操作员带@前缀），成员未变化时直接返回缓存
+     *
+     * @param budget 每段最大字符数
+     */
+    public List<String> getNamesChunks(int budget) {
+        List<String> cached = namesCache.current(budget);
+        if (cached != null) {
+            return cached;
+        }
+        membershipLock.lock();
+        try {
+            return namesCache.chunks(budget, users, operators);
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+    
+    /**
+     * 公开+D频道中尚未公开的成员
+     *
+     * @return 本次调用使该成员由不可见变为可见时返回true，调用方据此补发JOIN
+     */
+    public boolean reveal(String nickname) {
+        if (!delayedJoin || revealed.contains(nickname)) {
+            return false;
+        }
+        membershipLock.lock();
+        try {
+            if (!users.contains(nickname) || !revealed.add(nickname)) {
+                return false;
+            }
+            visibleNamesCache.joined(nickname);
+            return true;
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+    
+    /**
+     * 该成员是否对普通成员可见；没有+D时所有成员可见
+     */
+    public boolean isVisible(String nickname) {
+        return !delayedJoin || revealed.contains(nickname);
+    }
+    
+    /**
+     * 设置或取消+D；设置时现有成员都已公开，取消时返回此前未公开的成员，由调用方补发JOIN
+     */
+    public Set<String> setDelayedJoin(boolean delayedJoin) {
+        membershipLock.lock();
+        try {
+            Set<String> hidden = new HashSet<>(users);
+            hidden.removeAll(revealed);
+            if (delayedJoin) {
+                revealed.addAll(users);
+            } else {
+                revealed.clear();
+            }
+            this.delayedJoin = delayedJoin;
+            visibleNamesCache.changed();
+            return delayedJoin ? Set.of() : hidden;
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+    
+    /**
+     * 普通成员看到的NAMES分段；没有+D时与getNamesChunks相同
+     */
+    public List<String> getVisibleNamesChunks(int budget) {
+        if (!delayedJoin) {
+            return getNamesChunks(budget);
+        }
+        List<String> cached = visibleNamesCache.current(budget);
+        if (cached != null) {
+            return cached;
+        }
+        membershipLock.lock();
+        try {
+            Set<String> visible = new LinkedHashSet<>();
+            for (String nickname : users) {
+                if (revealed.contains(nickname)) {
+                    visible.add(nickname);
+                }
+            }
+            return visibleNamesCache.chunks(budget, visible, operators);
+        } finally {
+            membershipLock.unlock();
+        }
     }
     
     public boolean isOperator(String nickname) {
@@ -119,6 +266,8 @@ public class IrcChannel {
         if (topicLocked) modes.append("t");
         if (key != null) modes.append("k");
         if (userLimit > 0) modes.append("l");
+        if (registered) modes.append("r");
+        if (delayedJoin) modes.append("D");
         
         return modes.toString();
     }
@@ -204,6 +353,10 @@ public class IrcChannel {
         this.privateChannel = privateChannel;
     }
     
+    public boolean isDelayedJoin() {
+        return delayedJoin;
+    }
+    
     public boolean isTopicLocked() {
         return topicLocked;
     }
@@ -228,6 +381,30 @@ public class IrcChannel {
         return invited;
     }
     
+    public Set<String> getAccessList() {
+        return accessList;
+    }
+    
+    public boolean hasAccess(String account) {
+        return accessList.contains(account);
+    }
+    
+    public boolean isRegistered() {
+        return registered;
+    }
+    
+    public void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+    
+    public String getFounder() {
+        return founder;
+    }
+    
+    public void setFounder(String founder) {
+        this.founder = founder;
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
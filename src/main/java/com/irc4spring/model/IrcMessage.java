@@ -2,13 +2,17 @@ package com.irc4spring.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
  * IRC消息模型
- * 格式: [:prefix] <command> [params] [:trailing]
+ * 格式: [@tags] [:prefix] <command> [params] [:trailing]
+ * 解析时只截取原始标签段，处理器需要时才解码，大多数命令不会为标签付出代价。
  */
 public class IrcMessage {
+    private String rawTags;
+    private Map<String, String> tags;
     private String prefix;
     private String command;
     private List<String> params;
@@ -46,6 +50,20 @@ public class IrcMessage {
         }
 
         IrcMessage message = new IrcMessage();
+        
+        // 截取标签段，留待处理器按需解码
+        if (line.charAt(0) == '@') {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                return null;
+            }
+            message.rawTags = line.substring(1, space);
+            line = line.substring(space + 1).stripLeading();
+            if (line.isEmpty()) {
+                return null;
+            }
+        }
+        
         String[] parts = line.split(" ");
         int index = 0;
 
@@ -89,6 +107,10 @@ public class IrcMessage {
     public String toIrcString() {
         StringBuilder sb = new StringBuilder();
 
+        if (hasTags()) {
+            sb.append("@").append(rawTags).append(" ");
+        }
+
         if (prefix != null && !prefix.isEmpty()) {
             sb.append(":").append(prefix).append(" ");
         }
@@ -107,6 +129,34 @@ public class IrcMessage {
     }
 
     // Getters and Setters
+    public boolean hasTags() {
+        return rawTags != null && !rawTags.isEmpty();
+    }
+    
+    /**
+     * 未解码的标签段（不含@），没有标签时为null
+     */
+    public String getRawTags() {
+        return rawTags;
+    }
+    
+    /**
+     * 解码后的标签，第一次调用时才解析
+     */
+    public Map<String, String> getTags() {
+        if (tags == null) {
+            tags = MessageTags.parse(rawTags);
+        }
+        return tags;
+    }
+    
+    /**
+     * 需要转发给其他客户端的客户端标签（+开头）原始片段，没有时为null
+     */
+    public String getClientTags() {
+        return MessageTags.clientOnly(rawTags);
+    }
+    
     public String getPrefix() {
         return prefix;
     }
@@ -162,7 +212,8 @@ public class IrcMessage {
     @Override
     public String toString() {
         return "IrcMessage{" +
-                "prefix='" + prefix + '\'' +
+                "tags='" + rawTags + '\'' +
+                ", prefix='" + prefix + '\'' +
                 ", command='" + command + '\'' +
                 ", params=" + params +
                 ", trailing='" + trailing + '\'' +
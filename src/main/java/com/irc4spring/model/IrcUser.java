@@ -1,7 +1,10 @@
 package com.irc4spring.model;
 
+import com.irc4spring.capability.Capability;
+
 import java.net.Socket;
 import java.time.LocalDateTime;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -21,10 +24,20 @@ public class IrcUser {
     private UserRole role;
     private boolean registered;
     private boolean authenticated;
+    private String account; // SASL或OPER登录的账户名
+    private boolean capNegotiating; // CAP协商进行中，CAP END之前暂缓完成注册
+    private int capVersion; // CAP LS声明的版本，302及以上时能力带值
+    private volatile long capabilities; // 已启用能力的位图，位号见Capability
+    private SaslSession saslSession;
     private LocalDateTime connectedAt;
     private LocalDateTime lastActivity;
     private Socket socket;
     private final Set<String> channels;
+    private final Map<String, String> monitorList; // MONITOR订阅：规范化昵称 -> 客户端给出的昵称
+    private volatile String awayMessage; // AWAY消息，null表示不在离开状态
+    private volatile AwayReply awayReply; // 缓存的RPL_AWAY片段及其对应的昵称和AWAY消息
+    private final Map<Long, Long> awayRepliesReceived; // 作为发送者收到RPL_AWAY的记录：目标用户ID -> 时间
+    private volatile TokenBucket queryBudget; // 高开销查询的会话预算，首次计费时创建
     
     public IrcUser() {
         this.id = ID_GENERATOR.getAndIncrement();
@@ -34,6 +47,8 @@ public class IrcUser {
         this.connectedAt = LocalDateTime.now();
         this.lastActivity = LocalDateTime.now();
         this.channels = ConcurrentHashMap.newKeySet();
+        this.monitorList = new ConcurrentHashMap<>();
+        this.awayRepliesReceived = new ConcurrentHashMap<>();
     }
     
     public IrcUser(String nickname, String username, String realname, String hostname) {
@@ -139,6 +154,97 @@ public class IrcUser {
         this.authenticated = authenticated;
     }
     
+    public String getAccount() {
+        return account;
+    }
+    
+    public void setAccount(String account) {
+        this.account = account;
+    }
+    
+    public boolean isCapNegotiating() {
+        return capNegotiating;
+    }
+    
+    public void setCapNegotiating(boolean capNegotiating) {
+        this.capNegotiating = capNegotiating;
+    }
+    
+    public Map<String, String> getMonitorList() {
+        return monitorList;
+    }
+    
+    public boolean isAway() {
+        return awayMessage != null;
+    }
+    
+    public String getAwayMessage() {
+        return awayMessage;
+    }
+    
+    public void setAwayMessage(String awayMessage) {
+        this.awayMessage = awayMessage;
+    }
+    
+    /**
+     * RPL_AWAY中 "<nick> :<message>" 部分，同一昵称和AWAY消息只拼接一次；不在离开状态时返回null。
+     * 缓存与构造它的昵称和消息一起保存，与当前值不一致时重建，并发改名或更改AWAY不会返回过期内容
+     */
+    public String getAwayReply() {
+        String message = awayMessage;
+        if (message == null) {
+            return null;
+        }
+        String nick = nickname;
+        AwayReply cached = awayReply;
+        // 按引用比较：昵称和消息只会整体替换，引用相同即内容相同
+        if (cached == null || cached.nickname() != nick || cached.message() != message) {
+            cached = new AwayReply(nick, message, nick + " :" + message);
+            awayReply = cached;
+        }
+        return cached.reply();
+    }
+    
+    public Map<Long, Long> getAwayRepliesReceived() {
+        return awayRepliesReceived;
+    }
+    
+    public TokenBucket getQueryBudget() {
+        return queryBudget;
+    }
+    
+    public void setQueryBudget(TokenBucket queryBudget) {
+        this.queryBudget = queryBudget;
+    }
+    
+    public int getCapVersion() {
+        return capVersion;
+    }
+    
+    public void setCapVersion(int capVersion) {
+        this.capVersion = capVersion;
+    }
+    
+    public long getCapabilities() {
+        return capabilities;
+    }
+    
+    public void setCapabilities(long capabilities) {
+        this.capabilities = capabilities;
+    }
+    
+    public boolean hasCapability(Capability capability) {
+        return capability.isIn(capabilities);
+    }
+    
+    public SaslSession getSaslSession() {
+        return saslSession;
+    }
+    
+    public void setSaslSession(SaslSession saslSession) {
+        this.saslSession = saslSession;
+    }
+    
     public LocalDateTime getConnectedAt() {
         return connectedAt;
     }
@@ -178,7 +284,10 @@ public class IrcUser {
                 ", role=" + role +
                 ", registered=" + registered +
                 ", authenticated=" + authenticated +
+                ", away=" + (awayMessage != null) +
                 ", channels=" + channels +
                 '}';
     }
-} 
\ No newline at end of file
+    
+    private record AwayReply(String nickname, String message, String reply) {}
+}
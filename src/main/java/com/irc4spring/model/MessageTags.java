@@ -0,0 +1,105 @@
+package com.irc4spring.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * IRCv3消息标签的解析
+ * 标签段格式：key[=value];key[=value]...，值中的 ; 空格 \ CR LF 分别转义为 \: \s \\ \r \n。
+ * 转发客户端标签时保留原始片段，不需要重新转义。
+ */
+public final class MessageTags {
+
+    /**
+     * 客户端标签（+开头）序列化后的最大字节数
+     */
+    public static final int MAX_CLIENT_TAG_LENGTH = 4094;
+
+    private MessageTags() {
+    }
+
+    /**
+     * 解码标签段（不含开头的@），重复的键以最后一个为准
+     */
+    public static Map<String, String> parse(String raw) {
+        if (raw == null || raw.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> tags = new LinkedHashMap<>();
+        int start = 0;
+        while (start <= raw.length()) {
+            int end = raw.indexOf(';', start);
+            if (end < 0) {
+                end = raw.length();
+            }
+            if (end > start) {
+                int eq = raw.indexOf('=', start);
+                if (eq < 0 || eq > end) {
+                    tags.put(raw.substring(start, end), "");
+                } else if (eq > start) {
+                    tags.put(raw.substring(start, eq), unescape(raw, eq + 1, end));
+                }
+            }
+            start = end + 1;
+        }
+        return tags;
+    }
+
+    /**
+     * 只保留客户端标签（键以+开头）的原始片段，不解码值；没有时返回null
+     */
+    public static String clientOnly(String raw) {
+        if (raw == null || raw.indexOf('+') < 0) {
+            return null;
+        }
+        StringBuilder result = null;
+        int start = 0;
+        while (start < raw.length()) {
+            int end = raw.indexOf(';', start);
+            if (end < 0) {
+                end = raw.length();
+            }
+            if (end > start + 1 && raw.charAt(start) == '+') {
+                if (result == null) {
+                    result = new StringBuilder(end - start);
+                } else {
+                    result.append(';');
+                }
+                result.append(raw, start, end);
+            }
+            start = end + 1;
+        }
+        return result != null ? result.toString() : null;
+    }
+
+    /**
+     * 反转义标签值：未知转义去掉反斜杠，结尾单独的反斜杠丢弃
+     */
+    public static String unescape(String raw, int start, int end) {
+        int backslash = raw.indexOf('\\', start);
+        if (backslash < 0 || backslash >= end) {
+            return raw.substring(start, end);
+        }
+        StringBuilder value = new StringBuilder(end - start).append(raw, start, backslash);
+        for (int i = backslash; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (++i >= end) {
+                break;
+            }
+            char next = raw.charAt(i);
+            value.append(switch (next) {
+                case ':' -> ';';
+                case 's' -> ' ';
+                case 'r' -> '\r';
+                case 'n' -> '\n';
+                default -> next;
+            });
+        }
+        return value.toString();
+    }
+}
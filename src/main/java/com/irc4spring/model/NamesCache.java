@@ -0,0 +1,130 @@
+package com.irc4spring.model;
+
+import com.irc4spring.server.Utf8;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 频道NAMES回复缓存
+ * 成员列表预先按UTF-8字节数切分为不超过353行长度预算的若干段，以成员版本号标识；版本未变时所有请求共用同一份。
+ * 加入只把新昵称追加到末段（成员大量涌入时不必每次重建），离开、取消操作员等无法增量表达的变化才整体重建。
+ * 非线程安全，由所属IrcChannel的成员锁保护；snapshot为volatile，读取当前版本无需加锁。
+ */
+public class NamesCache {
+
+    /**
+     * 某个成员版本的分段结果
+     */
+    public record Snapshot(long version, int budget, List<String> chunks) {
+    }
+
+    private volatile long version;
+    private volatile Snapshot snapshot;
+    private final List<String> pendingJoins = new ArrayList<>();
+    private boolean dirty = true;
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 当前版本的缓存分段，已失效或预算不同时返回null
+     */
+    public List<String> current(int budget) {
+        Snapshot current = snapshot;
+        return current != null && current.version() == version && current.budget() == budget ? current.chunks() : null;
+    }
+
+    /**
+     * 记录一次加入，下次读取时增量追加
+     */
+    public void joined(String entry) {
+        version++;
+        if (!dirty) {
+            pendingJoins.add(entry);
+        }
+    }
+
+    /**
+     * 刚加入的成员被设为操作员时改写待追加的条目，其他情况整体重建
+     */
+    public void opped(String nickname) {
+        version++;
+        int index = pendingJoins.lastIndexOf(nickname);
+        if (!dirty && index >= 0) {
+            pendingJoins.set(index, "@" + nickname);
+        } else {
+            invalidate();
+        }
+    }
+
+    /**
+     * 无法增量表达的变化（离开、取消操作员等），下次读取时整体重建
+     */
+    public void changed() {
+        version++;
+        invalidate();
+    }
+
+    /**
+     * 取当前版本的分段，必要时追加或重建
+     *
+     * @param budget 每段（空格分隔的昵称列表）最大UTF-8字节数
+     */
+    public List<String> chunks(int budget, Set<String> users, Set<String> operators) {
+        List<String> cached = current(budget);
+        if (cached != null) {
+            return cached;
+        }
+
+        Snapshot previous = snapshot;
+        List<String> chunks;
+        if (!dirty && previous != null && previous.budget() == budget) {
+            chunks = new ArrayList<>(previous.chunks());
+            append(chunks, pendingJoins, budget);
+        } else {
+            List<String> entries = new ArrayList<>(users.size());
+            for (String nickname : users) {
+                entries.add(operators.contains(nickname) ? "@" + nickname : nickname);
+            }
+            chunks = new ArrayList<>();
+            append(chunks, entries, budget);
+        }
+
+        pendingJoins.clear();
+        dirty = false;
+        List<String> result = List.copyOf(chunks);
+        snapshot = new Snapshot(version, budget, result);
+        return result;
+    }
+
+    private void invalidate() {
+        dirty = true;
+        pendingJoins.clear();
+    }
+
+    private static void append(List<String> chunks, Collection<String> entries, int budget) {
+        StringBuilder last = new StringBuilder(chunks.isEmpty() ? "" : chunks.remove(chunks.size() - 1));
+        int lastBytes = Utf8.length(last.toString());
+        for (String entry : entries) {
+            int entryBytes = Utf8.length(entry);
+            if (!last.isEmpty() && lastBytes + 1 + entryBytes > budget) {
+                chunks.add(last.toString());
+                last.setLength(0);
+                lastBytes = 0;
+            }
+            if (!last.isEmpty()) {
+                last.append(' ');
+                lastBytes++;
+            }
+            last.append(entry);
+            lastBytes += entryBytes;
+        }
+        if (!last.isEmpty()) {
+            chunks.add(last.toString());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.irc4spring.model;
+
+import java.net.InetAddress;
+
+/**
+ * 一次进行中的SASL交换（AUTHENTICATE）的状态
+ */
+public class SaslSession {
+
+    /**
+     * 交换所处的阶段
+     */
+    public enum Stage {
+        /** 等待客户端的首条消息 */
+        INITIAL,
+        /** SCRAM：已发送server-first，等待client-final */
+        SCRAM_FINAL,
+        /** SCRAM：已发送server-final，等待客户端确认 */
+        SCRAM_CONFIRM
+    }
+
+    private final String mechanism;
+    private final InetAddress clientAddress;
+    private final StringBuilder pending = new StringBuilder();
+    private Stage stage = Stage.INITIAL;
+    private String account;
+    private String clientFirstBare;
+    private String serverFirst;
+    private String nonce;
+    private String gs2Header;
+    private byte[] storedKey;
+    private byte[] serverKey;
+    private boolean knownAccount;
+
+    public SaslSession(String mechanism, InetAddress clientAddress) {
+        this.mechanism = mechanism;
+        this.clientAddress = clientAddress;
+    }
+
+    public String getMechanism() {
+        return mechanism;
+    }
+
+    public InetAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    /**
+     * 尚未拼接完整的Base64分段（每段400字节，正好400字节表示后面还有）
+     */
+    public StringBuilder getPending() {
+        return pending;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public void setStage(Stage stage) {
+        this.stage = stage;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public void setAccount(String account) {
+        this.account = account;
+    }
+
+    public String getClientFirstBare() {
+        return clientFirstBare;
+    }
+
+    public void setClientFirstBare(String clientFirstBare) {
+        this.clientFirstBare = clientFirstBare;
+    }
+
+    public String getServerFirst() {
+        return serverFirst;
+    }
+
+    public void setServerFirst(String serverFirst) {
+        this.serverFirst = serverFirst;
+    }
+
+    public String getNonce() {
+        return nonce;
+    }
+
+    public void setNonce(String nonce) {
+        this.nonce = nonce;
+    }
+
+    public String getGs2Header() {
+        return gs2Header;
+    }
+
+    public void setGs2Header(String gs2Header) {
+        this.gs2Header = gs2Header;
+    }
+
+    public byte[] getStoredKey() {
+        return storedKey;
+    }
+
+    public void setStoredKey(byte[] storedKey) {
+        this.storedKey = storedKey;
+    }
+
+    public byte[] getServerKey() {
+        return serverKey;
+    }
+
+    public void setServerKey(byte[] serverKey) {
+        this.serverKey = serverKey;
+    }
+
+    public boolean isKnownAccount() {
+        return knownAccount;
+    }
+
+    public void setKnownAccount(boolean knownAccount) {
+        this.knownAccount = knownAccount;
+    }
+}
@@ -0,0 +1,63 @@
+package com.irc4spring.model;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 令牌桶：按固定速率补充到容量上限，查询按产生的行数扣除
+ * 允许在maxDelayMillis内可补足的透支，调用方据此延后执行；超出时拒绝且不扣除。
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerMilli;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(long capacity, long refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerMilli = refillPerSecond / 1000.0;
+        this.tokens = capacity;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * 扣除cost个令牌
+     *
+     * @param maxDelayMillis 最多愿意等待的毫秒数，0表示只接受立即可用的令牌
+     * @return 0表示立即执行；正数为需要等待的毫秒数（令牌已预扣）；-1表示拒绝
+     */
+    public long charge(long cost, long maxDelayMillis) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMilli);
+            lastRefill = now;
+
+            if (tokens >= cost) {
+                tokens -= cost;
+                return 0;
+            }
+            long delay = refillPerMilli > 0 ? (long) Math.ceil((cost - tokens) / refillPerMilli) : Long.MAX_VALUE;
+            if (delay > maxDelayMillis) {
+                return -1;
+            }
+            tokens -= cost;
+            return delay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 退还已扣除的令牌（另一个桶拒绝时回滚）
+     */
+    public void refund(long cost) {
+        lock.lock();
+        try {
+            tokens = Math.min(capacity, tokens + cost);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
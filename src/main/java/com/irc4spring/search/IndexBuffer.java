@@ -0,0 +1,86 @@
+package com.irc4spring.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 尚未冻结的内存倒排缓冲区，只由索引线程写入，查询方需在外部加锁后读取
+ */
+public final class IndexBuffer {
+
+    private final Map<String, DocList> postings = new HashMap<>();
+    private int docCount;
+    private long minDoc = -1;
+    private long maxDoc = -1;
+
+    /**
+     * 添加一个文档，文档号必须递增
+     */
+    public void add(long doc, Set<String> terms) {
+        for (String term : terms) {
+            postings.computeIfAbsent(term, key -> new DocList()).add(doc);
+        }
+        if (minDoc < 0) {
+            minDoc = doc;
+        }
+        maxDoc = doc;
+        docCount++;
+    }
+
+    /**
+     * 复制词项的倒排表，查询在锁外使用
+     */
+    public PostingCursor snapshot(String term) {
+        DocList docs = postings.get(term);
+        return docs != null ? PostingCursor.of(Arrays.copyOf(docs.docs, docs.size), docs.size) : null;
+    }
+
+    /**
+     * 冻结为不可变段
+     */
+    public IndexSegment freeze() {
+        String[] terms = postings.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+
+        IndexSegment.Builder builder = new IndexSegment.Builder(terms.length);
+        for (String term : terms) {
+            DocList docs = postings.get(term);
+            builder.startTerm(term);
+            for (int i = 0; i < docs.size; i++) {
+                builder.addDoc(docs.docs[i]);
+            }
+            builder.endTerm();
+        }
+        return builder.finish(docCount, minDoc, maxDoc);
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    public long getMinDoc() {
+        return minDoc;
+    }
+
+    public long getMaxDoc() {
+        return maxDoc;
+    }
+
+    public boolean isEmpty() {
+        return docCount == 0;
+    }
+
+    private static final class DocList {
+        private long[] docs = new long[4];
+        private int size;
+
+        void add(long doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.irc4spring.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 不可变的倒排索引段
+ * 词典为排序数组，按二分查找定位；倒排表按128个文档分块，块内文档号做差值后用varint编码，
+ * 每块首个文档号以绝对值开头并记录在跳表中，求交时可以直接跳到目标所在的块。
+ * 段内文档号区间互不重叠，合并时按段顺序拼接倒排表即可保持升序。
+ */
+public final class IndexSegment {
+
+    static final int BLOCK_SIZE = 128;
+
+    private final String[] terms;
+    private final int[] docFreqs;
+    private final int[] skipStarts;
+    private final long[] skipDocs;
+    private final int[] skipPositions;
+    private final byte[] postings;
+    private final int docCount;
+    private final long minDoc;
+    private final long maxDoc;
+
+    private IndexSegment(String[] terms, int[] docFreqs, int[] skipStarts, long[] skipDocs, int[] skipPositions,
+                         byte[] postings, int docCount, long minDoc, long maxDoc) {
+        this.terms = terms;
+        this.docFreqs = docFreqs;
+        this.skipStarts = skipStarts;
+        this.skipDocs = skipDocs;
+        this.skipPositions = skipPositions;
+        this.postings = postings;
+        this.docCount = docCount;
+        this.minDoc = minDoc;
+        this.maxDoc = maxDoc;
+    }
+
+    /**
+     * 合并多个段，段需按文档号区间升序排列
+     */
+    public static IndexSegment merge(List<IndexSegment> segments) {
+        // 多路归并词典
+        PriorityQueue<TermSource> queue = new PriorityQueue<>();
+        int totalTerms = 0;
+        int docCount = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            IndexSegment segment = segments.get(i);
+            totalTerms = Math.max(totalTerms, segment.terms.length);
+            docCount += segment.docCount;
+            if (segment.terms.length > 0) {
+                queue.add(new TermSource(segment, i, 0));
+            }
+        }
+
+        Builder builder = new Builder(totalTerms);
+        while (!queue.isEmpty()) {
+            String term = queue.peek().term();
+            builder.startTerm(term);
+
+            // 同一词项按段顺序取出，保证文档号升序
+            List<TermSource> sources = new ArrayList<>();
+            while (!queue.isEmpty() && queue.peek().term().equals(term)) {
+                sources.add(queue.poll());
+            }
+            sources.sort((a, b) -> Integer.compare(a.order(), b.order()));
+            for (TermSource source : sources) {
+                SegmentCursor cursor = source.segment().cursorAt(source.termIndex());
+                for (long doc = cursor.advance(0); doc != PostingCursor.NO_MORE_DOCS; doc = cursor.advance(doc + 1)) {
+                    builder.addDoc(doc);
+                }
+                if (source.termIndex() + 1 < source.segment().terms.length) {
+                    queue.add(new TermSource(source.segment(), source.order(), source.termIndex() + 1));
+                }
+            }
+            builder.endTerm();
+        }
+
+        return builder.finish(docCount,
+            segments.get(0).minDoc,
+            segments.get(segments.size() - 1).maxDoc);
+    }
+
+    /**
+     * 获取词项的倒排表游标，词项不存在时返回null
+     */
+    public PostingCursor cursor(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index >= 0 ? cursorAt(index) : null;
+    }
+
+    private SegmentCursor cursorAt(int termIndex) {
+        return new SegmentCursor(termIndex);
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    public int getTermCount() {
+        return terms.length;
+    }
+
+    public long getMinDoc() {
+        return minDoc;
+    }
+
+    public long getMaxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * 估算内存占用（倒排数据、跳表和词典）
+     */
+    public long memoryBytes() {
+        long dictionary = 0;
+        for (String term : terms) {
+            dictionary += 40 + term.length();
+        }
+        return postings.length + skipDocs.length * 12L + terms.length * 8L + dictionary;
+    }
+
+    private static long readVarLong(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int pos = position[0];
+        byte b;
+        do {
+            b = bytes[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        position[0] = pos;
+        return value;
+    }
+
+    /**
+     * 分块倒排表游标
+     */
+    private final class SegmentCursor implements PostingCursor {
+
+        private final int termIndex;
+        private final int firstBlock;
+        private final int blockCount;
+        private final int[] position = new int[1];
+        private int block = -1;
+        private int remainingInBlock;
+        private long current = -1;
+
+        SegmentCursor(int termIndex) {
+            this.termIndex = termIndex;
+            this.firstBlock = skipStarts[termIndex];
+            this.blockCount = skipStarts[termIndex + 1] - firstBlock;
+        }
+
+        @Override
+        public int cost() {
+            return docFreqs[termIndex];
+        }
+
+        @Override
+        public long advance(long target) {
+            if (current == NO_MORE_DOCS || current >= target) {
+                return current;
+            }
+
+            // 通过跳表找到target所在的块，只有目标在后面的块时才跳转
+            int targetBlock = findBlock(target);
+            if (targetBlock > block) {
+                loadBlock(targetBlock);
+            }
+
+            while (current < target) {
+                if (remainingInBlock == 0) {
+                    if (block + 1 >= blockCount) {
+                        current = NO_MORE_DOCS;
+                        return current;
+                    }
+                    loadBlock(block + 1);
+                } else {
+                    current += readVarLong(postings, position);
+                    remainingInBlock--;
+                }
+            }
+            return current;
+        }
+
+        private int findBlock(long target) {
+            int low = Math.max(block, 0);
+            int high = blockCount - 1;
+            int found = low;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (skipDocs[firstBlock + mid] <= target) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        private void loadBlock(int newBlock) {
+            block = newBlock;
+            position[0] = skipPositions[firstBlock + newBlock];
+            current = readVarLong(postings, position);
+            int docsBefore = newBlock * BLOCK_SIZE;
+            remainingInBlock = Math.min(BLOCK_SIZE, docFreqs[termIndex] - docsBefore) - 1;
+        }
+    }
+
+    private record TermSource(IndexSegment segment, int order, int termIndex) implements Comparable<TermSource> {
+
+        String term() {
+            return segment.terms[termIndex];
+        }
+
+        @Override
+        public int compareTo(TermSource other) {
+            int result = term().compareTo(other.term());
+            return result != 0 ? result : Integer.compare(order, other.order);
+        }
+    }
+
+    /**
+     * 顺序写入词项和文档号，生成紧凑的段数据
+     */
+    static final class Builder {
+
+        private String[] terms;
+        private int[] docFreqs;
+        private int[] skipStarts;
+        private long[] skipDocs = new long[256];
+        private int[] skipPositions = new int[256];
+        private byte[] postings = new byte[4096];
+        private int termCount;
+        private int skipCount;
+        private int size;
+        private int docsInTerm;
+        private long lastDoc;
+
+        Builder(int expectedTerms) {
+            int capacity = Math.max(16, expectedTerms);
+            terms = new String[capacity];
+            docFreqs = new int[capacity];
+            skipStarts = new int[capacity + 1];
+        }
+
+        void startTerm(String term) {
+            if (termCount == terms.length) {
+                int capacity = termCount * 2;
+                terms = Arrays.copyOf(terms, capacity);
+                docFreqs = Arrays.copyOf(docFreqs, capacity);
+                skipStarts = Arrays.copyOf(skipStarts, capacity + 1);
+            }
+            terms[termCount] = term;
+            skipStarts[termCount] = skipCount;
+            docsInTerm = 0;
+        }
+
+        void addDoc(long doc) {
+            if (docsInTerm % BLOCK_SIZE == 0) {
+                if (skipCount == skipDocs.length) {
+                    skipDocs = Arrays.copyOf(skipDocs, skipCount * 2);
+                    skipPositions = Arrays.copyOf(skipPositions, skipCount * 2);
+                }
+                skipDocs[skipCount] = doc;
+                skipPositions[skipCount] = size;
+                skipCount++;
+                writeVarLong(doc);
+            } else {
+                writeVarLong(doc - lastDoc);
+            }
+            lastDoc = doc;
+            docsInTerm++;
+        }
+
+        void endTerm() {
+            docFreqs[termCount] = docsInTerm;
+            termCount++;
+        }
+
+        private void writeVarLong(long value) {
+            if (size + 10 > postings.length) {
+                postings = Arrays.copyOf(postings, postings.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                postings[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            postings[size++] = (byte) value;
+        }
+
+        IndexSegment finish(int docCount, long minDoc, long maxDoc) {
+            skipStarts[termCount] = skipCount;
+            return new IndexSegment(
+                Arrays.copyOf(terms, termCount),
+                Arrays.copyOf(docFreqs, termCount),
+                Arrays.copyOf(skipStarts, termCount + 1),
+                Arrays.copyOf(skipDocs, skipCount),
+                Arrays.copyOf(skipPositions, skipCount),
+                Arrays.copyOf(postings, size),
+                docCount, minDoc, maxDoc);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.irc4spring.search;
+
+/**
+ * 倒排表游标，按文档号（日志序号）升序遍历
+ */
+public interface PostingCursor {
+
+    long NO_MORE_DOCS = Long.MAX_VALUE;
+
+    /**
+     * 文档频率，求交时从最短的倒排表开始
+     */
+    int cost();
+
+    /**
+     * 移动到第一个不小于target的文档，没有时返回NO_MORE_DOCS
+     */
+    long advance(long target);
+
+    /**
+     * 基于已排序数组的游标，用于尚未冻结的内存缓冲区
+     */
+    static PostingCursor of(long[] docs, int count) {
+        return new PostingCursor() {
+            private int index;
+
+            @Override
+            public int cost() {
+                return count;
+            }
+
+            @Override
+            public long advance(long target) {
+                if (index < count && docs[index] < target) {
+                    int low = index + 1;
+                    int high = count - 1;
+                    while (low <= high) {
+                        int mid = (low + high) >>> 1;
+                        if (docs[mid] < target) {
+                            low = mid + 1;
+                        } else {
+                            high = mid - 1;
+                        }
+                    }
+                    index = low;
+                }
+                return index < count ? docs[index] : NO_MORE_DOCS;
+            }
+        };
+    }
+}
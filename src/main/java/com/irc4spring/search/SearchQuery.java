@@ -0,0 +1,73 @@
+package com.irc4spring.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 全文检索查询
+ *
+ * @param text     查询正文，多个词之间为AND关系
+ * @param channel  限定频道，为空表示所有频道
+ * @param nickname 限定发送者昵称，为空表示不限
+ * @param fromTime 起始时间（毫秒，含），0表示不限
+ * @param toTime   结束时间（毫秒，含）
+ * @param limit    最多返回条数
+ */
+public record SearchQuery(String text, String channel, String nickname, long fromTime, long toTime, int limit) {
+
+    /**
+     * 解析查询语法：普通词之外支持 from:昵称、in:#频道、since:7d（s/m/h/d）、limit:N
+     */
+    public static SearchQuery parse(String query, String channel, int defaultLimit) {
+        List<String> words = new ArrayList<>();
+        String nickname = null;
+        long fromTime = 0;
+        int limit = defaultLimit;
+
+        for (String word : query != null ? query.trim().split("\\s+") : new String[0]) {
+            String lower = word.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("from:") && word.length() > 5) {
+                nickname = word.substring(5);
+            } else if (lower.startsWith("in:") && word.length() > 3) {
+                channel = word.substring(3);
+            } else if (lower.startsWith("since:") && word.length() > 6) {
+                long millis = parseDuration(lower.substring(6));
+                if (millis > 0) {
+                    fromTime = System.currentTimeMillis() - millis;
+                } else {
+                    words.add(word);
+                }
+            } else if (lower.startsWith("limit:") && word.length() > 6) {
+                try {
+                    limit = Integer.parseInt(word.substring(6));
+                } catch (NumberFormatException e) {
+                    words.add(word);
+                }
+            } else if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+
+        return new SearchQuery(String.join(" ", words), channel, nickname, fromTime, Long.MAX_VALUE, limit);
+    }
+
+    private static long parseDuration(String value) {
+        if (value.length() < 2) {
+            return -1;
+        }
+        long unit = switch (value.charAt(value.length() - 1)) {
+            case 's' -> 1_000L;
+            case 'm' -> 60_000L;
+            case 'h' -> 3_600_000L;
+            case 'd' -> 86_400_000L;
+            case 'w' -> 7 * 86_400_000L;
+            default -> -1;
+        };
+        try {
+            return unit > 0 ? Long.parseLong(value.substring(0, value.length() - 1)) * unit : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
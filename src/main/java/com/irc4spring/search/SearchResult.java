@@ -0,0 +1,15 @@
+package com.irc4spring.search;
+
+import com.irc4spring.storage.ChannelLogRecord;
+
+import java.util.List;
+
+/**
+ * 全文检索结果，命中记录按时间从新到旧排列
+ *
+ * @param hits              命中的日志记录
+ * @param elapsedMicros     查询耗时（微秒）
+ * @param segmentsSearched  实际求交的索引段数
+ */
+public record SearchResult(List<ChannelLogRecord> hits, long elapsedMicros, int segmentsSearched) {
+}
@@ -0,0 +1,103 @@
+package com.irc4spring.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 全文检索分词器
+ * 字母数字连续串作为一个词（转小写）；中日韩文字没有空格分隔，同时索引单字和相邻二元组，
+ * 单字查询命中单字，多字查询按二元组求交集。
+ */
+public final class Tokenizer {
+
+    static final int MAX_TOKEN_LENGTH = 64;
+
+    /** 频道字段前缀，不会与正文词冲突 */
+    static final char CHANNEL_FIELD = '\u0001';
+
+    /** 昵称字段前缀 */
+    static final char NICK_FIELD = '\u0002';
+
+    private Tokenizer() {
+    }
+
+    /**
+     * 索引时分词：返回去重后的全部词项
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        split(text, tokens, true);
+        return tokens;
+    }
+
+    /**
+     * 查询时分词：中日韩文字多于一个字时只使用二元组，避免高频单字拖慢求交
+     */
+    public static Set<String> tokenizeQuery(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        split(text, tokens, false);
+        return tokens;
+    }
+
+    public static String channelTerm(String channelName) {
+        return CHANNEL_FIELD + channelName.toLowerCase(Locale.ROOT);
+    }
+
+    public static String nickTerm(String nickname) {
+        return NICK_FIELD + nickname.toLowerCase(Locale.ROOT);
+    }
+
+    private static void split(String text, Set<String> tokens, boolean indexUnigrams) {
+        if (text == null) {
+            return;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (isIdeographic(codePoint)) {
+                int start = i;
+                while (i < length && isIdeographic(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                addIdeographicRun(text.substring(start, i), tokens, indexUnigrams);
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                int start = i;
+                while (i < length) {
+                    int next = text.codePointAt(i);
+                    if (!Character.isLetterOrDigit(next) || isIdeographic(next)) {
+                        break;
+                    }
+                    i += Character.charCount(next);
+                }
+                if (i - start <= MAX_TOKEN_LENGTH) {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+            } else {
+                i += Character.charCount(codePoint);
+            }
+        }
+    }
+
+    private static void addIdeographicRun(String run, Set<String> tokens, boolean indexUnigrams) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1 || indexUnigrams) {
+            for (int codePoint : codePoints) {
+                tokens.add(new String(Character.toChars(codePoint)));
+            }
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            tokens.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static boolean isIdeographic(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+            || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA
+            || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,171 @@
+package com.irc4spring.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 网络I/O用的直接内存缓冲池
+ * 按512B（行读取）、4KB、64KB（批量写出）三个规格分级复用，超过最大规格的请求按需分配不入池。
+ * 开启泄漏检测后，未归还就被回收的缓冲区会记录分配位置并重新放回池中。
+ */
+@Component
+public class BufferPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    public static final int SMALL = 512;
+    public static final int MEDIUM = 4 * 1024;
+    public static final int LARGE = 64 * 1024;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final SizeClass[] sizeClasses;
+    private final boolean leakDetection;
+    private final LongAdder oversizeAllocations = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    public BufferPool(@Value("${irc.buffer.max-pooled-small:16384}") int maxSmall,
+                      @Value("${irc.buffer.max-pooled-medium:2048}") int maxMedium,
+                      @Value("${irc.buffer.max-pooled-large:256}") int maxLarge,
+                      @Value("${irc.buffer.leak-detection:false}") boolean leakDetection) {
+        this.sizeClasses = new SizeClass[] {
+            new SizeClass(SMALL, maxSmall),
+            new SizeClass(MEDIUM, maxMedium),
+            new SizeClass(LARGE, maxLarge)
+        };
+        this.leakDetection = leakDetection;
+    }
+
+    /**
+     * 借出容量不小于minCapacity的缓冲区（已清空，position为0）
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (minCapacity <= sizeClass.capacity) {
+                ByteBuffer buffer = sizeClass.take();
+                if (!leakDetection) {
+                    return new PooledBuffer(buffer, sizeClass, null);
+                }
+
+                LeakTracker tracker = new LeakTracker(buffer, sizeClass, new Throwable("缓冲区分配位置"));
+                PooledBuffer handle = new PooledBuffer(buffer, sizeClass, tracker);
+                CLEANER.register(handle, tracker);
+                return handle;
+            }
+        }
+
+        oversizeAllocations.increment();
+        return new PooledBuffer(ByteBuffer.allocateDirect(minCapacity), null, null);
+    }
+
+    /**
+     * 获取各规格的使用统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (SizeClass sizeClass : sizeClasses) {
+            stats.put(String.valueOf(sizeClass.capacity), sizeClass.statistics());
+        }
+        stats.put("oversizeAllocations", oversizeAllocations.sum());
+        stats.put("leakDetection", leakDetection);
+        stats.put("leaks", leaks.sum());
+        return stats;
+    }
+
+    /**
+     * 单一规格的缓冲池
+     */
+    final class SizeClass {
+        private final int capacity;
+        private final int maxPooled;
+        private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+        private final LongAdder acquires = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder releases = new LongAdder();
+        private final LongAdder discarded = new LongAdder();
+
+        SizeClass(int capacity, int maxPooled) {
+            this.capacity = capacity;
+            this.maxPooled = maxPooled;
+        }
+
+        ByteBuffer take() {
+            acquires.increment();
+            ByteBuffer buffer = pool.poll();
+            if (buffer != null) {
+                pooled.decrementAndGet();
+                hits.increment();
+                return buffer;
+            }
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        void recycle(ByteBuffer buffer) {
+            releases.increment();
+            if (pooled.incrementAndGet() > maxPooled) {
+                // 池已满，交给GC回收
+                pooled.decrementAndGet();
+                discarded.increment();
+                return;
+            }
+            buffer.clear();
+            pool.offer(buffer);
+        }
+
+        Map<String, Object> statistics() {
+            long acquired = acquires.sum();
+            long hit = hits.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("acquires", acquired);
+            stats.put("hits", hit);
+            stats.put("hitRate", acquired == 0 ? 0.0 : (double) hit / acquired);
+            stats.put("allocations", acquired - hit);
+            stats.put("inUse", acquired - releases.sum());
+            stats.put("pooled", pooled.get());
+            stats.put("discarded", discarded.sum());
+            return stats;
+        }
+    }
+
+    /**
+     * 泄漏检测状态，不能持有PooledBuffer本身，否则handle永远不会被回收
+     */
+    final class LeakTracker implements Runnable {
+        private final ByteBuffer buffer;
+        private final SizeClass sizeClass;
+        private final Throwable allocationSite;
+        private volatile boolean released;
+
+        LeakTracker(ByteBuffer buffer, SizeClass sizeClass, Throwable allocationSite) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            this.allocationSite = allocationSite;
+        }
+
+        void released() {
+            released = true;
+        }
+
+        @Override
+        public void run() {
+            if (released) {
+                return;
+            }
+            leaks.increment();
+            logger.error("检测到未归还的{}字节缓冲区", sizeClass.capacity, allocationSite);
+            sizeClass.recycle(buffer);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.irc4spring.server;
+
+import com.irc4spring.server.execution.ExecutionModel;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 客户端连接的输出通道
+ * 发送方只把消息放入按优先级划分的出站队列，由每个连接专属的写线程按优先级取出并写入socket：
+ * 控制类消息优先于直接回复，直接回复优先于频道批量消息；带有相同排序键（频道）的消息保持先后顺序。
+ * 支持写合并(cork)：处理一条命令期间产生的输出先累积，命令结束或超过阈值时统一写出。
+ * 写路径只使用ReentrantLock，阻塞在socket写出上的虚拟线程不会占住载体线程。
+ * 队列中只保存字符串，写线程每批按待写量从BufferPool借用直接缓冲区（最大64KB），就地按UTF-8编码后写出。
+ */
+public class ClientConnection {
+
+    private static final int CRLF_LENGTH = 2;
+    private static final AtomicLong ID_GENERATOR = new AtomicLong(1);
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+    // 所有连接未写出字节数之和，用于过载检测
+    private static final LongAdder TOTAL_QUEUED_BYTES = new LongAdder();
+
+    private final long id;
+    private final SocketChannel channel;
+    private final Socket socket;
+    private final BufferPool bufferPool;
+    private final int corkThreshold;
+    private final int maxSendQueue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writable = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Frame>[] queues;
+    // 各优先级队列中每个排序键的待写消息数，只有低优先级队列里有同键消息时才需要扫描
+    private final Map<String, Integer>[] keyedCounts;
+
+    private long nextSequence;
+    private int queuedFrames;
+    private int queuedBytes;
+    private int corkDepth;
+    private boolean writerStarted;
+    private volatile boolean closing;
+    private volatile boolean closed;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ClientConnection(SocketChannel channel, BufferPool bufferPool, int corkThreshold, int maxSendQueue) {
+        this.id = ID_GENERATOR.getAndIncrement();
+        this.channel = channel;
+        this.socket = channel.socket();
+        this.bufferPool = bufferPool;
+        this.corkThreshold = corkThreshold;
+        this.maxSendQueue = maxSendQueue;
+        this.queues = new ArrayDeque[OutboundPriority.values().length];
+        this.keyedCounts = new Map[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+            keyedCounts[i] = new HashMap<>();
+        }
+    }
+
+    /**
+     * 启动写线程
+     */
+    public void start(ExecutionModel executionModel) {
+        lock.lock();
+        try {
+            writerStarted = true;
+        } finally {
+            lock.unlock();
+        }
+        executionModel.startConnectionTask("irc-writer-" + id, this::writeLoop);
+    }
+
+    /**
+     * 以直接回复优先级发送一行消息
+     */
+    public boolean send(String line) {
+        return send(line, OutboundPriority.DIRECT, null);
+    }
+
+    /**
+     * 按指定优先级发送一行消息
+     *
+     * @param orderingKey 排序键（通常为频道名），相同排序键的消息不会被高优先级消息越过
+     */
+    public boolean send(String line, OutboundPriority priority, String orderingKey) {
+        return enqueue(line, Utf8.length(line), priority, orderingKey);
+    }
+
+    /**
+     * 发送预先序列化的帧变体，UTF-8长度已在广播前算好
+     */
+    public boolean send(OutboundMessage.Variant variant, OutboundPriority priority, String orderingKey) {
+        return enqueue(variant.line(), variant.length(), priority, orderingKey);
+    }
+
+    private boolean enqueue(String line, int lineLength, OutboundPriority priority, String orderingKey) {
+        int frameLength = lineLength + CRLF_LENGTH;
+
+        lock.lock();
+        try {
+            if (isClosed()) {
+                return false;
+            }
+
+            // 发送队列超限说明客户端长期不读取，直接断开
+            if (queuedBytes + frameLength > maxSendQueue) {
+                abortLocked();
+                return false;
+            }
+
+            queues[priority.ordinal()].addLast(new Frame(line, frameLength, priority, orderingKey, nextSequence++));
+            if (orderingKey != null) {
+                keyedCounts[priority.ordinal()].merge(orderingKey, 1, Integer::sum);
+            }
+            queuedFrames++;
+            queuedBytes += frameLength;
+            TOTAL_QUEUED_BYTES.add(frameLength);
+
+            if (isWritableLocked()) {
+                writable.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 所有连接尚未写出的字节数之和
+     */
+    public static long getTotalQueuedBytes() {
+        return TOTAL_QUEUED_BYTES.sum();
+    }
+
+    /**
+     * 等待未写出的数据降到阈值以下，供大批量输出的生产者按客户端读取速度分批入队
+     *
+     * @return 连接已关闭或超时时返回false
+     */
+    public boolean awaitQueuedBelow(int bytes, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (queuedBytes >= bytes && !closing) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = drained.awaitNanos(remaining);
+            }
+            return !closing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 开始累积输出，可嵌套调用
+     */
+    public void cork() {
+        lock.lock();
+        try {
+            corkDepth++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 结束累积，最外层调用时唤醒写线程
+     */
+    public void uncork() {
+        lock.lock();
+        try {
+            if (corkDepth > 0 && --corkDepth == 0 && queuedFrames > 0) {
+                writable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写出剩余消息后关闭连接，超时仍未写完则强制关闭
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            if (!writerStarted) {
+                closeSocket();
+                return;
+            }
+            writable.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        CompletableFuture.runAsync(this::abort,
+            CompletableFuture.delayedExecutor(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 立即关闭连接，丢弃未写出的消息
+     */
+    public void abort() {
+        lock.lock();
+        try {
+            abortLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void abortLocked() {
+        closing = true;
+        closeSocket();
+        writable.signal();
+        drained.signalAll();
+    }
+
+    private void closeSocket() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 连接已不可用
+        }
+    }
+
+    private boolean isWritableLocked() {
+        return queuedFrames > 0 && (corkDepth == 0 || queuedBytes >= corkThreshold || closing);
+    }
+
+    /**
+     * 写线程：等待可写的消息，按优先级批量编码到池化缓冲区后在锁外写入socket
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                PooledBuffer batch = null;
+                lock.lock();
+                try {
+                    while (!isWritableLocked()) {
+                        if (closing || closed) {
+                            return;
+                        }
+                        writable.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+
+                    // 只在有数据要写时按待写量借用缓冲区，空闲连接不占用直接内存
+                    batch = bufferPool.acquire(Math.min(queuedBytes, BufferPool.LARGE));
+                    ByteBuffer buffer = batch.buffer();
+                    Frame frame;
+                    while ((frame = peekNextLocked()) != null && frame.length() <= buffer.remaining()) {
+                        removeLocked(frame);
+                        Utf8.encode(frame.line(), buffer);
+                        buffer.put((byte) '\r').put((byte) '\n');
+                    }
+                    if (buffer.position() == 0 && frame != null) {
+                        // 单条超过批量缓冲区的消息改用专用缓冲区
+                        batch.release();
+                        batch = bufferPool.acquire(frame.length());
+                        removeLocked(frame);
+                        Utf8.encode(frame.line(), batch.buffer());
+                        batch.buffer().put((byte) '\r').put((byte) '\n');
+                    }
+                    drained.signalAll();
+                } catch (RuntimeException | Error e) {
+                    if (batch != null) {
+                        batch.release();
+                    }
+                    throw e;
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    ByteBuffer buffer = batch.buffer();
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } finally {
+                    batch.release();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // 客户端断开或写线程被中断
+        } finally {
+            lock.lock();
+            try {
+                closing = true;
+                for (int i = 0; i < queues.length; i++) {
+                    queues[i].clear();
+                    keyedCounts[i].clear();
+                }
+                TOTAL_QUEUED_BYTES.add(-queuedBytes);
+                queuedFrames = 0;
+                queuedBytes = 0;
+                closeSocket();
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 查看下一条待写消息：优先级高者优先，
+     * 但若该消息带有排序键，则先写出低优先级队列中同一排序键下更早的消息
+     */
+    private Frame peekNextLocked() {
+        for (int i = 0; i < queues.length; i++) {
+            Frame head = queues[i].peekFirst();
+            if (head == null) {
+                continue;
+            }
+            if (head.orderingKey() != null) {
+                for (int lower = queues.length - 1; lower > i; lower--) {
+                    if (!keyedCounts[lower].containsKey(head.orderingKey())) {
+                        continue;
+                    }
+                    Frame earlier = findEarlier(queues[lower], head.orderingKey(), head.sequence());
+                    if (earlier != null) {
+                        return earlier;
+                    }
+                }
+            }
+            return head;
+        }
+        return null;
+    }
+
+    /**
+     * 从队列中移除peekNextLocked返回的消息并扣减待写计数
+     */
+    private void removeLocked(Frame frame) {
+        int level = frame.priority().ordinal();
+        ArrayDeque<Frame> queue = queues[level];
+        if (queue.peekFirst() == frame) {
+            queue.pollFirst();
+        } else {
+            queue.removeFirstOccurrence(frame);
+        }
+        if (frame.orderingKey() != null) {
+            keyedCounts[level].computeIfPresent(frame.orderingKey(), (key, count) -> count == 1 ? null : count - 1);
+        }
+        queuedFrames--;
+        queuedBytes -= frame.length();
+        TOTAL_QUEUED_BYTES.add(-frame.length());
+    }
+
+    private Frame findEarlier(ArrayDeque<Frame> queue, String orderingKey, long sequence) {
+        Iterator<Frame> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Frame frame = iterator.next();
+            if (frame.sequence() > sequence) {
+                break;
+            }
+            if (orderingKey.equals(frame.orderingKey())) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * 获取尚未写出的字节数
+     */
+    public int getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closing || closed || socket.isClosed();
+    }
+
+    /**
+     * 出站消息帧
+     */
+    private record Frame(String line, int length, OutboundPriority priority, String orderingKey, long sequence) {}
+}
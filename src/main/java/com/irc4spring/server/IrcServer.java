@@ -1,26 +1,27 @@
 package com.irc4spring.server;
 
+import com.irc4spring.constant.IrcCommand;
 import com.irc4spring.handler.IrcCommandHandler;
 import com.irc4spring.model.IrcMessage;
+import com.irc4spring.server.execution.ExecutionModel;
 import com.irc4spring.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -31,15 +32,27 @@ public class IrcServer {
     
     private static final Logger logger = LoggerFactory.getLogger(IrcServer.class);
     
+    /** 512字节的消息本体加上最多8191字节的消息标签 */
+    private static final int MAX_LINE_LENGTH = 512 + 8191;
+    
+    /** 可能触发口令哈希（注册时校验PASS、SASL、OPER）或账户存储fsync（登录后升级哈希）的命令 */
+    private static final Set<String> BLOCKING_COMMANDS = Set.of(IrcCommand.PASS, IrcCommand.NICK, IrcCommand.USER,
+        IrcCommand.CAP, IrcCommand.AUTHENTICATE, IrcCommand.OPER);
+    
     @Value("${irc.server.port:6667}")
     private int port;
     
     @Value("${irc.server.max-connections:1000}")
     private int maxConnections;
     
+    @Value("${irc.server.cork-threshold:8192}")
+    private int corkThreshold;
+    
+    @Value("${irc.server.max-sendq:1048576}")
+    private int maxSendQueue;
+    
     @Autowired
-    @Qualifier("virtualThreadExecutor")
-    private Executor virtualThreadExecutor;
+    private ExecutionModel executionModel;
     
     @Autowired
     private IrcCommandHandler commandHandler;
@@ -47,23 +60,25 @@ public class IrcServer {
     @Autowired
     private UserService userService;
     
-    private ServerSocket serverSocket;
+    @Autowired
+    private BufferPool bufferPool;
+    
+    private ServerSocketChannel serverChannel;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private ExecutorService acceptorExecutor;
     
     @PostConstruct
     public void start() {
         try {
-            serverSocket = new ServerSocket(port);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
             running.set(true);
             
-            // 使用虚拟线程处理连接接受
-            acceptorExecutor = Executors.newVirtualThreadPerTaskExecutor();
-            acceptorExecutor.submit(this::acceptConnections);
+            // 通过执行模型启动连接接受任务
+            executionModel.startConnectionTask("irc-acceptor", this::acceptConnections);
             
             logger.info("IRC服务器已启动，监听端口: {}", port);
             logger.info("最大连接数: {}", maxConnections);
-            logger.info("使用Java 21虚拟线程处理连接");
+            logger.info("命令执行模型: {}", executionModel.getName());
             
         } catch (IOException e) {
             logger.error("启动IRC服务器失败", e);
@@ -75,18 +90,14 @@ public class IrcServer {
     public void stop() {
         running.set(false);
         
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        if (serverChannel != null && serverChannel.isOpen()) {
             try {
-                serverSocket.close();
+                serverChannel.close();
             } catch (IOException e) {
                 logger.error("关闭服务器Socket失败", e);
             }
         }
         
-        if (acceptorExecutor != null) {
-            acceptorExecutor.shutdown();
-        }
-        
         logger.info("IRC服务器已停止");
     }
     
@@ -94,28 +105,27 @@ public class IrcServer {
      * 接受客户端连接
      */
     private void acceptConnections() {
-        while (running.get() && !serverSocket.isClosed()) {
+        while (running.get() && serverChannel.isOpen()) {
             try {
-                Socket clientSocket = serverSocket.accept();
+                SocketChannel clientChannel = serverChannel.accept();
+                Socket clientSocket = clientChannel.socket();
                 
                 // 检查连接数限制
                 if (userService.getOnlineUserCount() >= maxConnections) {
                     logger.warn("达到最大连接数限制，拒绝新连接: {}", 
                                clientSocket.getInetAddress().getHostAddress());
                     
-                    try (PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-                        out.println("ERROR :服务器连接数已满");
-                    }
-                    clientSocket.close();
+                    clientChannel.write(ByteBuffer.wrap("ERROR :服务器连接数已满\r\n".getBytes(StandardCharsets.UTF_8)));
+                    clientChannel.close();
                     continue;
                 }
                 
                 logger.info("接受新连接: {}", clientSocket.getInetAddress().getHostAddress());
                 
-                // 使用虚拟线程处理每个客户端连接
-                Thread.ofVirtual()
-                      .name("irc-client-" + clientSocket.getInetAddress().getHostAddress())
-                      .start(() -> handleClient(clientSocket));
+                // 每个客户端连接的读取循环由执行模型启动
+                executionModel.startConnectionTask(
+                    "irc-client-" + clientSocket.getInetAddress().getHostAddress(),
+                    () -> handleClient(clientChannel));
                 
             } catch (IOException e) {
                 if (running.get()) {
@@ -128,18 +138,26 @@ public class IrcServer {
     /**
      * 处理客户端连接
      */
-    private void handleClient(Socket clientSocket) {
+    private void handleClient(SocketChannel clientChannel) {
+        Socket clientSocket = clientChannel.socket();
         String clientAddress = clientSocket.getInetAddress().getHostAddress();
         logger.debug("开始处理客户端: {}", clientAddress);
         
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+        LineFramer in = new LineFramer(clientChannel, bufferPool, MAX_LINE_LENGTH);
+        Executor sessionExecutor = null;
+        try {
+            ClientConnection connection = new ClientConnection(clientChannel, bufferPool, corkThreshold, maxSendQueue);
+            connection.start(executionModel);
+            userService.registerConnection(connection);
+            
+            // 同一会话的命令按接收顺序执行
+            sessionExecutor = executionModel.newSessionExecutor(connection.getId());
             
             String inputLine;
             while ((inputLine = in.readLine()) != null && !clientSocket.isClosed()) {
                 
                 // 处理IRC消息
-                handleIrcMessage(clientSocket, inputLine.trim());
+                handleIrcMessage(clientSocket, sessionExecutor, inputLine.trim());
                 
                 // 检查连接状态
                 if (clientSocket.isClosed()) {
@@ -150,15 +168,20 @@ public class IrcServer {
         } catch (IOException e) {
             logger.debug("客户端连接异常: {} - {}", clientAddress, e.getMessage());
         } finally {
-            // 清理用户连接
-            cleanupClient(clientSocket);
+            in.release();
+            // 清理排在本会话已提交的命令之后，排队中的NICK/JOIN不会在清理后再执行而留下幽灵用户
+            if (sessionExecutor != null) {
+                sessionExecutor.execute(() -> cleanupClient(clientSocket, clientAddress));
+            } else {
+                cleanupClient(clientSocket, clientAddress);
+            }
         }
     }
     
     /**
      * 处理IRC消息
      */
-    private void handleIrcMessage(Socket clientSocket, String rawMessage) {
+    private void handleIrcMessage(Socket clientSocket, Executor sessionExecutor, String rawMessage) {
         if (rawMessage == null || rawMessage.trim().isEmpty()) {
             return;
         }
@@ -170,10 +193,10 @@ public class IrcServer {
             // 解析IRC消息
             IrcMessage message = IrcMessage.parse(rawMessage);
             if (message != null) {
-                // 使用虚拟线程处理命令
-                Thread.ofVirtual()
-                      .name("irc-command-" + message.getCommand())
-                      .start(() -> commandHandler.handleCommand(clientSocket, message));
+                // 交给执行模型处理命令；认证相关命令可能等待口令哈希或账户存储fsync，标记为阻塞任务
+                Runnable task = () -> commandHandler.handleCommand(clientSocket, message);
+                sessionExecutor.execute(message.getCommand() != null
+                    && BLOCKING_COMMANDS.contains(message.getCommand().toUpperCase()) ? ExecutionModel.blocking(task) : task);
             } else {
                 logger.warn("无法解析IRC消息: {}", rawMessage);
             }
@@ -182,10 +205,9 @@ public class IrcServer {
             logger.error("处理IRC消息时发生错误: {}", rawMessage, e);
             
             // 发送错误响应
-            try (PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-                out.println("ERROR :消息处理错误");
-            } catch (IOException ioException) {
-                logger.error("发送错误响应失败", ioException);
+            ClientConnection connection = userService.getConnection(clientSocket);
+            if (connection != null) {
+                connection.send("ERROR :消息处理错误");
             }
         }
     }
@@ -193,9 +215,7 @@ public class IrcServer {
     /**
      * 清理客户端连接
      */
-    private void cleanupClient(Socket clientSocket) {
-        String clientAddress = clientSocket.getInetAddress().getHostAddress();
-        
+    private void cleanupClient(Socket clientSocket, String clientAddress) {
         try {
             // 从用户服务中移除用户
             var user = userService.getUserBySocket(clientSocket);
@@ -209,11 +229,19 @@ public class IrcServer {
                     // channelService.broadcastToChannel(channelName, quitMessage, user.getNickname());
                 }
                 
-                userService.removeUser(user.getNickname());
+                if (user.getNickname() != null) {
+                    userService.removeUser(user.getNickname());
+                } else {
+                    userService.removePendingUser(clientSocket);
+                }
             }
             
-            // 关闭socket
-            if (!clientSocket.isClosed()) {
+            // 关闭连接
+            ClientConnection connection = userService.getConnection(clientSocket);
+            userService.unregisterConnection(clientSocket);
+            if (connection != null) {
+                connection.close();
+            } else if (!clientSocket.isClosed()) {
                 clientSocket.close();
             }
             
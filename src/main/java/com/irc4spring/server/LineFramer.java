@@ -0,0 +1,69 @@
+package com.irc4spring.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 从SocketChannel按行切分IRC消息
+ * 与BufferedReader.readLine一致，CR、LF和CRLF都作为行尾；读缓冲从BufferPool借用512B规格，超过最大长度的行被截断。
+ */
+public class LineFramer {
+
+    private final SocketChannel channel;
+    private final PooledBuffer readBuffer;
+    private final byte[] line;
+    private int lineLength;
+    // 上一行以CR结束，紧随其后的LF属于同一个行尾
+    private boolean skipLf;
+
+    public LineFramer(SocketChannel channel, BufferPool bufferPool, int maxLineLength) {
+        this.channel = channel;
+        this.readBuffer = bufferPool.acquire(BufferPool.SMALL);
+        this.readBuffer.buffer().flip();
+        this.line = new byte[maxLineLength];
+    }
+
+    /**
+     * 读取下一行（不含行尾），连接结束时返回null
+     */
+    public String readLine() throws IOException {
+        ByteBuffer buffer = readBuffer.buffer();
+        while (true) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (skipLf) {
+                    skipLf = false;
+                    if (b == '\n') {
+                        continue;
+                    }
+                }
+                if (b == '\r' || b == '\n') {
+                    // 单独的CR也结束一行，避免CR留在消息里被转发给其他客户端而伪造出额外的协议行
+                    skipLf = b == '\r';
+                    String result = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    return result;
+                }
+                if (lineLength < line.length) {
+                    line[lineLength++] = b;
+                }
+            }
+
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 归还读缓冲
+     */
+    public void release() {
+        readBuffer.release();
+    }
+}
@@ -0,0 +1,126 @@
+package com.irc4spring.server;
+
+import com.irc4spring.capability.Capability;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一条要发给多个接收者的消息及其预先序列化的帧变体
+ * 消息标签各自依赖一个能力，接收者的能力位图与相关位的交集（用Long.compress压成连续下标）决定使用哪个变体：
+ * 同一次广播中每种变体只拼接一次字符串、只计算一次UTF-8长度，接收者越多越划算，
+ * 变体数量不超过 2^(相关能力数)。变体在首次需要时生成，对象不可变，并发访问时最多重复生成一次。
+ */
+public final class OutboundMessage {
+
+    /**
+     * 一个帧变体：完整的一行（不含CRLF）及其UTF-8长度
+     */
+    public record Variant(String line, int length) {
+    }
+
+    private final String line;
+    private final String[] tags;
+    private final long[] tagCapabilities;
+    private final long relevantMask;
+    private final long requiredMask;
+    private final Variant[] variants;
+
+    private OutboundMessage(String line, List<String> tags, List<Long> tagCapabilities, long requiredMask) {
+        this.line = line;
+        this.requiredMask = requiredMask;
+        this.tags = tags.toArray(new String[0]);
+        this.tagCapabilities = new long[tags.size()];
+        long mask = 0;
+        for (int i = 0; i < this.tagCapabilities.length; i++) {
+            this.tagCapabilities[i] = tagCapabilities.get(i);
+            mask |= this.tagCapabilities[i];
+        }
+        this.relevantMask = mask;
+        this.variants = new Variant[1 << Long.bitCount(mask)];
+    }
+
+    /**
+     * 不带标签的消息，所有接收者共用一个变体
+     */
+    public static OutboundMessage of(String line) {
+        return new OutboundMessage(line, List.of(), List.of(), 0);
+    }
+
+    public static Builder builder(String line) {
+        return new Builder(line);
+    }
+
+    /**
+     * 不带任何标签的原始行
+     */
+    public String line() {
+        return line;
+    }
+
+    /**
+     * 取与接收者能力匹配的变体，接收者缺少必需的能力时返回null（例如TAGMSG只发给启用了message-tags的客户端）
+     */
+    public Variant forCapabilities(long capabilities) {
+        if ((capabilities & requiredMask) != requiredMask) {
+            return null;
+        }
+        int index = (int) Long.compress(capabilities, relevantMask);
+        Variant variant = variants[index];
+        if (variant == null) {
+            variant = build(capabilities & relevantMask);
+            variants[index] = variant;
+        }
+        return variant;
+    }
+
+    private Variant build(long capabilities) {
+        StringBuilder frame = new StringBuilder(line.length() + 64);
+        for (int i = 0; i < tags.length; i++) {
+            if ((capabilities & tagCapabilities[i]) != 0) {
+                frame.append(frame.isEmpty() ? '@' : ';').append(tags[i]);
+            }
+        }
+        if (!frame.isEmpty()) {
+            frame.append(' ');
+        }
+        String result = frame.append(line).toString();
+        return new Variant(result, Utf8.length(result));
+    }
+
+    public static final class Builder {
+
+        private final String line;
+        private final List<String> tags = new ArrayList<>();
+        private final List<Long> tagCapabilities = new ArrayList<>();
+        private long requiredMask;
+
+        private Builder(String line) {
+            this.line = line;
+        }
+
+        /**
+         * 添加一个只发给启用了指定能力的接收者的标签（key=value，已转义），为null时忽略
+         */
+        public Builder tag(Capability capability, String tag) {
+            if (tag == null) {
+                return this;
+            }
+            tags.add(tag);
+            tagCapabilities.add(capability.bit());
+            return this;
+        }
+
+        /**
+         * 只发给启用了指定能力的接收者
+         */
+        public Builder requires(Capability capability) {
+            requiredMask |= capability.bit();
+            return this;
+        }
+
+        public OutboundMessage build() {
+            return new OutboundMessage(line, tags, tagCapabilities, requiredMask);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.irc4spring.server;
+
+/**
+ * 出站消息优先级，数值越小越先发送
+ */
+public enum OutboundPriority {
+    /** 控制类：PONG、错误数值回复、KICK/KILL通知 */
+    CONTROL,
+    /** 直接回复：命令应答、私聊 */
+    DIRECT,
+    /** 频道批量：频道消息广播 */
+    BULK
+}
@@ -0,0 +1,153 @@
+package com.irc4spring.server;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 虚拟线程pinning诊断
+ * 开启后通过JFR事件流订阅jdk.VirtualThreadPinned，统计载体线程被占住的次数、时长和发生位置
+ */
+@Component
+public class PinningMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PinningMonitor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int RECENT_EVENTS = 50;
+    private static final int TOP_SITES = 20;
+    private static final int MAX_SITES = 1000;
+
+    @Value("${irc.diagnostics.pinning.enabled:false}")
+    private boolean enabled;
+
+    @Value("${irc.diagnostics.pinning.threshold-ms:20}")
+    private long thresholdMillis;
+
+    private final LongAdder totalEvents = new LongAdder();
+    private final LongAdder totalPinnedNanos = new LongAdder();
+    private final LongAccumulator maxPinnedNanos = new LongAccumulator(Math::max, 0);
+    private final Map<String, LongAdder> eventsBySite = new ConcurrentHashMap<>();
+    private final Deque<Map<String, Object>> recentEvents = new ConcurrentLinkedDeque<>();
+
+    private RecordingStream stream;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            logger.info("虚拟线程pinning诊断已开启，阈值: {}ms", thresholdMillis);
+        } catch (Exception e) {
+            logger.error("无法开启虚拟线程pinning诊断", e);
+            stream = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        long nanos = event.getDuration().toNanos();
+        String site = pinnedSite(event.getStackTrace());
+
+        totalEvents.increment();
+        totalPinnedNanos.add(nanos);
+        maxPinnedNanos.accumulate(nanos);
+
+        // 位置数量设上限，避免异常情况下无限增长
+        LongAdder counter = eventsBySite.get(site);
+        if (counter == null && eventsBySite.size() < MAX_SITES) {
+            counter = eventsBySite.computeIfAbsent(site, key -> new LongAdder());
+        }
+        if (counter != null) {
+            counter.increment();
+        }
+
+        Map<String, Object> recent = new LinkedHashMap<>();
+        recent.put("time", event.getStartTime());
+        recent.put("durationMillis", nanos / 1_000_000.0);
+        recent.put("thread", event.getThread() != null ? event.getThread().getJavaName() : null);
+        recent.put("site", site);
+        recentEvents.addFirst(recent);
+        while (recentEvents.size() > RECENT_EVENTS) {
+            recentEvents.pollLast();
+        }
+
+        logger.warn("虚拟线程被pin住 {}ms: {}", nanos / 1_000_000, site);
+    }
+
+    /**
+     * 取栈中第一个应用代码帧作为发生位置，找不到时取栈顶
+     */
+    private String pinnedSite(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "unknown";
+        }
+
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (frame.isJavaFrame() && frame.getMethod().getType().getName().startsWith("com.irc4spring.")) {
+                return describe(frame);
+            }
+        }
+        return describe(stackTrace.getFrames().get(0));
+    }
+
+    private String describe(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+            + ":" + frame.getLineNumber();
+    }
+
+    /**
+     * 获取pinning统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", stream != null);
+        stats.put("thresholdMillis", thresholdMillis);
+        stats.put("totalEvents", totalEvents.sum());
+        stats.put("totalPinnedMillis", totalPinnedNanos.sum() / 1_000_000);
+        stats.put("maxPinnedMillis", maxPinnedNanos.get() / 1_000_000.0);
+
+        List<Map<String, Object>> topSites = new ArrayList<>();
+        eventsBySite.entrySet().stream()
+            .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed())
+            .limit(TOP_SITES)
+            .forEach(e -> topSites.add(Map.of("site", e.getKey(), "events", e.getValue().sum())));
+        stats.put("topSites", topSites);
+
+        stats.put("recentEvents", new ArrayList<>(recentEvents));
+        stats.put("collectedAt", Instant.now());
+        return stats;
+    }
+}
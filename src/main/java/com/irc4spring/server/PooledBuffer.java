@@ -0,0 +1,44 @@
+package com.irc4spring.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 从BufferPool借出的缓冲区，使用完毕后必须调用release归还
+ */
+public final class PooledBuffer {
+
+    private final ByteBuffer buffer;
+    private final BufferPool.SizeClass sizeClass;
+    private final BufferPool.LeakTracker leakTracker;
+    private boolean released;
+
+    PooledBuffer(ByteBuffer buffer, BufferPool.SizeClass sizeClass, BufferPool.LeakTracker leakTracker) {
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.leakTracker = leakTracker;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * 归还到池中，重复调用无效
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (leakTracker != null) {
+            leakTracker.released();
+        }
+        if (sizeClass != null) {
+            sizeClass.recycle(buffer);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.irc4spring.server;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * IRCv3 server-time格式化（yyyy-MM-ddTHH:mm:ss.SSSZ，UTC）
+ * 缓存当前这一秒的前缀，同一秒内的时间戳只需填入三位毫秒，不再经过DateTimeFormatter；
+ * 跨秒时由第一个调用者重新生成前缀。较早的时间（如历史记录）不会替换缓存，直接完整格式化。
+ */
+public final class ServerTime {
+
+    private static final DateTimeFormatter SECONDS =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.").withZone(ZoneOffset.UTC);
+
+    private static final String TAG_KEY = "time=";
+
+    /**
+     * 某一秒的格式化前缀，形如 time=2024-01-01T00:00:00.
+     */
+    private record Prefix(long second, char[] chars) {
+    }
+
+    private static volatile Prefix current = prefix(0);
+
+    private ServerTime() {
+    }
+
+    /**
+     * 格式化时间戳
+     */
+    public static String format(long epochMillis) {
+        return build(epochMillis, TAG_KEY.length());
+    }
+
+    /**
+     * 生成完整的标签 time=...，可直接交给OutboundMessage
+     */
+    public static String tag(long epochMillis) {
+        return build(epochMillis, 0);
+    }
+
+    private static String build(long epochMillis, int skip) {
+        long second = Math.floorDiv(epochMillis, 1000);
+        Prefix prefix = current;
+        if (prefix.second() != second) {
+            Prefix fresh = prefix(second);
+            if (second > prefix.second()) {
+                current = fresh;
+            }
+            prefix = fresh;
+        }
+
+        char[] source = prefix.chars();
+        int length = source.length - skip;
+        char[] result = new char[length + 4];
+        System.arraycopy(source, skip, result, 0, length);
+        int millis = Math.floorMod(epochMillis, 1000);
+        result[length] = (char) ('0' + millis / 100);
+        result[length + 1] = (char) ('0' + millis / 10 % 10);
+        result[length + 2] = (char) ('0' + millis % 10);
+        result[length + 3] = 'Z';
+        return new String(result);
+    }
+
+    private static Prefix prefix(long second) {
+        return new Prefix(second, (TAG_KEY + SECONDS.format(Instant.ofEpochSecond(second))).toCharArray());
+    }
+}
@@ -0,0 +1,62 @@
+package com.irc4spring.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 直接把字符串按UTF-8写入ByteBuffer，避免每条消息分配中间byte数组
+ */
+public final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * 计算字符串的UTF-8编码长度
+     */
+    public static int length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 编码到目标缓冲区，调用方需保证剩余空间不小于length(s)
+     */
+    static void encode(String s, ByteBuffer target) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                // 孤立的代理字符按替换字符处理，长度与length()的估算一致
+                char out = Character.isSurrogate(c) ? '\uFFFD' : c;
+                target.put((byte) (0xE0 | (out >> 12)));
+                target.put((byte) (0x80 | ((out >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (out & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.irc4spring.server.execution;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 执行模型基类，统一记录命令执行统计和调度延迟。
+ * 调度延迟指会话有命令可执行到共享线程开始执行之间的等待，不含会话在自身阻塞任务之后的等待，
+ * 因此反映的是共享线程的饱和程度，供过载检测使用
+ */
+abstract class AbstractExecutionModel implements ExecutionModel {
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder dispatchStarted = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAccumulator maxQueueNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder connectionTasks = new LongAdder();
+
+    @Override
+    public void startConnectionTask(String name, Runnable task) {
+        connectionTasks.increment();
+        Thread.ofVirtual().name(name).start(task);
+    }
+
+    @Override
+    public Executor newSessionExecutor(long sessionId) {
+        Executor executor = sessionExecutor(sessionId);
+        return task -> {
+            submitted.increment();
+            Runnable counted = () -> run(task);
+            executor.execute(task instanceof BlockingTask ? ExecutionModel.blocking(counted) : counted);
+        };
+    }
+
+    /**
+     * 由具体模型提供会话执行器
+     */
+    protected abstract Executor sessionExecutor(long sessionId);
+
+    /**
+     * 包装共享执行器，记录交给它的任务从提交到开始执行的等待时间
+     */
+    protected Executor measureDispatch(Executor shared) {
+        return task -> {
+            long queuedAt = System.nanoTime();
+            dispatched.increment();
+            shared.execute(() -> {
+                long waited = System.nanoTime() - queuedAt;
+                queueNanos.add(waited);
+                maxQueueNanos.accumulate(waited);
+                dispatchStarted.increment();
+                task.run();
+            });
+        };
+    }
+
+    /**
+     * 采样前的钩子，没有共享执行器的模型在这里发起调度探测
+     */
+    protected void beforeSample() {
+    }
+
+    /**
+     * 具体模型的附加统计
+     */
+    protected void addStatistics(Map<String, Object> stats) {
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // 命令处理器自行记录错误，这里只做计数，避免异常终止共享的工作线程
+            failed.increment();
+        } finally {
+            completed.increment();
+        }
+    }
+
+    @Override
+    public QueueSample sampleQueue() {
+        beforeSample();
+        long started = dispatchStarted.sum();
+        return new QueueSample(started, queueNanos.sum(), Math.max(0, dispatched.sum() - started));
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        long started = dispatchStarted.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("model", getName());
+        stats.put("connectionTasks", connectionTasks.sum());
+        stats.put("submittedTasks", submitted.sum());
+        stats.put("completedTasks", completed.sum());
+        stats.put("failedTasks", failed.sum());
+        stats.put("averageQueueMicros", started == 0 ? 0 : queueNanos.sum() / started / 1000);
+        stats.put("maxQueueMicros", maxQueueNanos.get() / 1000);
+        addStatistics(stats);
+        return stats;
+    }
+}
@@ -0,0 +1,64 @@
+package com.irc4spring.server.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分区事件循环：N个固定的单线程循环，会话按ID分配到其中一个，
+ * 同一会话的命令在同一循环线程上顺序执行；会阻塞的任务移到虚拟线程，不拖住同一循环上的其他会话。
+ * 每个会话的待执行命令有上限，超过时会话读取线程阻塞
+ */
+public class EventLoopExecutionModel extends AbstractExecutionModel {
+
+    public static final String NAME = "event-loop";
+
+    private final ThreadPoolExecutor[] loops;
+    private final int sessionQueueCapacity;
+
+    public EventLoopExecutionModel(int eventLoops) {
+        this(eventLoops, DEFAULT_SESSION_QUEUE_CAPACITY);
+    }
+
+    public EventLoopExecutionModel(int eventLoops, int sessionQueueCapacity) {
+        this.sessionQueueCapacity = sessionQueueCapacity;
+        int count = eventLoops > 0 ? eventLoops : Runtime.getRuntime().availableProcessors();
+        this.loops = new ThreadPoolExecutor[count];
+        for (int i = 0; i < count; i++) {
+            loops[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                Thread.ofPlatform().name("irc-loop-" + i).daemon(true).factory());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected Executor sessionExecutor(long sessionId) {
+        return new SerialExecutor(measureDispatch(loops[(int) Math.floorMod(sessionId, (long) loops.length)]), sessionQueueCapacity);
+    }
+
+    @Override
+    protected void addStatistics(Map<String, Object> stats) {
+        List<Integer> queued = new ArrayList<>(loops.length);
+        for (ThreadPoolExecutor loop : loops) {
+            queued.add(loop.getQueue().size());
+        }
+        stats.put("eventLoops", loops.length);
+        stats.put("queuedTasksPerLoop", queued);
+    }
+
+    @Override
+    public void shutdown() {
+        for (ExecutorService loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
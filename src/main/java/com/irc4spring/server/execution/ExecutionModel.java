@@ -0,0 +1,84 @@
+package com.irc4spring.server.execution;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 执行模型
+ * 所有连接任务（接受连接、读取循环）与命令处理都经由执行模型调度。
+ * 连接读取使用阻塞I/O，因此连接任务总是运行在虚拟线程上；
+ * 各模型的差异在于命令在哪里执行。
+ */
+public interface ExecutionModel {
+
+    /**
+     * 共享线程模型中每个会话默认最多积压的命令数
+     */
+    int DEFAULT_SESSION_QUEUE_CAPACITY = 64;
+
+    /**
+     * 调度延迟的累计计数，两次采样之差即为该时段内的平均排队时间
+     *
+     * @param startedTasks 已开始执行的调度数
+     * @param queueNanos 已开始执行的调度的累计等待时间
+     * @param pendingTasks 已提交但尚未开始执行的调度数
+     */
+    record QueueSample(long startedTasks, long queueNanos, long pendingTasks) {
+    }
+
+    /**
+     * 模型名称
+     */
+    String getName();
+
+    /**
+     * 启动一个长期运行的连接任务
+     */
+    void startConnectionTask(String name, Runnable task);
+
+    /**
+     * 为会话创建命令执行器，同一会话提交的任务按提交顺序串行执行
+     */
+    Executor newSessionExecutor(long sessionId);
+
+    /**
+     * 会阻塞的命令任务（口令哈希、SASL、账户存储fsync）。
+     * 共享线程的模型把它移到虚拟线程执行，并在完成前暂停该会话的后续任务，顺序不变且不占住共享线程
+     */
+    interface BlockingTask extends Runnable {
+    }
+
+    /**
+     * 把任务标记为会阻塞的任务
+     */
+    static Runnable blocking(Runnable task) {
+        return (BlockingTask) task::run;
+    }
+
+    /**
+     * 采样调度延迟计数，供过载检测使用
+     */
+    QueueSample sampleQueue();
+
+    /**
+     * 获取调度统计信息
+     */
+    Map<String, Object> getStatistics();
+
+    /**
+     * 关闭执行模型
+     */
+    void shutdown();
+
+    /**
+     * 根据配置创建执行模型
+     */
+    static ExecutionModel create(String type, int poolSize, int queueCapacity, int eventLoops, int sessionQueueCapacity) {
+        return switch (type.toLowerCase()) {
+            case VirtualThreadExecutionModel.NAME -> new VirtualThreadExecutionModel();
+            case PlatformPoolExecutionModel.NAME -> new PlatformPoolExecutionModel(poolSize, queueCapacity, sessionQueueCapacity);
+            case EventLoopExecutionModel.NAME -> new EventLoopExecutionModel(eventLoops, sessionQueueCapacity);
+            default -> throw new IllegalArgumentException("未知的执行模型: " + type);
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package com.irc4spring.server.execution;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有界平台线程池：所有会话的命令共享一个固定大小的线程池。
+ * 每个会话的待执行命令有上限，超过时会话读取线程阻塞；线程池队列满时由提交者执行调度，两者都对该连接形成反压
+ */
+public class PlatformPoolExecutionModel extends AbstractExecutionModel {
+
+    public static final String NAME = "platform-pool";
+
+    private final ThreadPoolExecutor pool;
+    private final int sessionQueueCapacity;
+
+    public PlatformPoolExecutionModel(int poolSize, int queueCapacity) {
+        this(poolSize, queueCapacity, DEFAULT_SESSION_QUEUE_CAPACITY);
+    }
+
+    public PlatformPoolExecutionModel(int poolSize, int queueCapacity, int sessionQueueCapacity) {
+        this.sessionQueueCapacity = sessionQueueCapacity;
+        ThreadFactory factory = Thread.ofPlatform().name("irc-worker-", 0).daemon(true).factory();
+        this.pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected Executor sessionExecutor(long sessionId) {
+        return new SerialExecutor(measureDispatch(pool), sessionQueueCapacity);
+    }
+
+    @Override
+    protected void addStatistics(Map<String, Object> stats) {
+        stats.put("poolSize", pool.getPoolSize());
+        stats.put("activeThreads", pool.getActiveCount());
+        stats.put("queuedTasks", pool.getQueue().size());
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
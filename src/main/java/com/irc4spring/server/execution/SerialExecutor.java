@@ -0,0 +1,87 @@
+package com.irc4spring.server.execution;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 串行执行器：在共享线程池上按提交顺序逐个执行同一会话的任务。
+ * 标记为阻塞的任务交给虚拟线程执行，完成后才继续调度该会话的后续任务，共享线程在等待期间可以服务其他会话。
+ * 每个会话最多积压capacity个任务，队列满时提交者（会话读取线程）阻塞，不再读取该连接，由TCP把反压传给客户端
+ */
+class SerialExecutor implements Executor {
+
+    /** 单次调度最多连续执行的任务数，避免单个会话长期占用工作线程 */
+    private static final int BATCH_SIZE = 16;
+
+    private final Executor delegate;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Semaphore permits;
+
+    SerialExecutor(Executor delegate, int capacity) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(capacity);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        permits.acquireUninterruptibly();
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            delegate.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        boolean handedOff = false;
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                if (task instanceof ExecutionModel.BlockingTask) {
+                    // scheduled保持为true直到虚拟线程完成，期间本会话的后续任务不会被调度
+                    Thread.ofVirtual().name("irc-blocking-task").start(() -> {
+                        try {
+                            runQuietly(task);
+                        } finally {
+                            release();
+                        }
+                    });
+                    handedOff = true;
+                    break;
+                }
+                runQuietly(task);
+            }
+        } finally {
+            if (!handedOff) {
+                release();
+            }
+        }
+    }
+
+    private void runQuietly(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ignored) {
+            // 异常已由上层统计，继续执行后续任务
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void release() {
+        scheduled.set(false);
+        if (!tasks.isEmpty()) {
+            schedule();
+        }
+    }
+}
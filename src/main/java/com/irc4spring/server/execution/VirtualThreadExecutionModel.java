@@ -0,0 +1,35 @@
+package com.irc4spring.server.execution;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 每会话一个虚拟线程：命令直接在会话的读取线程上执行。
+ * 没有命令队列，等待发生在虚拟线程调度器里（读取线程收到数据后等待挂载到载体线程），
+ * 因此每次采样时启动一个空的探测虚拟线程，以它的启动延迟作为调度延迟
+ */
+public final class VirtualThreadExecutionModel extends AbstractExecutionModel {
+
+    public static final String NAME = "virtual";
+
+    private final Executor probe = measureDispatch(task -> Thread.ofVirtual().name("irc-scheduler-probe").start(task));
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected Executor sessionExecutor(long sessionId) {
+        return Runnable::run;
+    }
+
+    @Override
+    protected void beforeSample() {
+        probe.execute(() -> { });
+    }
+
+    @Override
+    public void shutdown() {
+        // 会话线程随连接关闭自然结束
+    }
+}
@@ -1,17 +1,17 @@
 package com.irc4spring.service;
 
+import com.irc4spring.model.Account;
 import com.irc4spring.model.IrcUser;
 import com.irc4spring.model.UserRole;
+import com.irc4spring.storage.AccountStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import jakarta.annotation.PostConstruct;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Base64;
+import java.net.InetAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -32,9 +32,14 @@ public class AuthenticationService {
     @Value("${irc.auth.require-registration:false}")
     private boolean requireRegistration;
     
-    private final Map<String, String> userCredentials = new ConcurrentHashMap<>();
-    private final Map<String, UserRole> userRoles = new ConcurrentHashMap<>();
-    private final SecureRandom random = new SecureRandom();
+    @Autowired
+    private AccountStore accountStore;
+    
+    @Autowired
+    private PasswordHashService passwordHashService;
+    
+    @Autowired
+    private LoginThrottleService loginThrottle;
     
     public AuthenticationService() {
         // 构造函数中不调用初始化，等待@PostConstruct
@@ -43,9 +48,17 @@ public class AuthenticationService {
     @PostConstruct
     private void initializeDefaultAdmin() {
         try {
+            // 已持久化的管理员账户保留其当前密码
+            Account existing = accountStore.get(defaultAdminUsername);
+            if (existing != null && existing.passwordHash() != null) {
+                if (existing.role() != UserRole.ADMIN) {
+                    accountStore.update(defaultAdminUsername, account -> account.withRole(UserRole.ADMIN));
+                }
+                return;
+            }
             String hashedPassword = hashPassword(defaultAdminPassword);
-            userCredentials.put(defaultAdminUsername, hashedPassword);
-            userRoles.put(defaultAdminUsername, UserRole.ADMIN);
+            accountStore.update(defaultAdminUsername,
+                account -> new Account(defaultAdminUsername, hashedPassword, UserRole.ADMIN));
             logger.info("默认管理员账户已初始化: {}", defaultAdminUsername);
         } catch (Exception e) {
             logger.error("初始化默认管理员账户失败", e);
@@ -56,35 +69,83 @@ public class AuthenticationService {
      * 验证用户凭据
      */
     public boolean authenticateUser(String username, String password) {
+        return authenticateUser(username, password, null);
+    }
+    
+    /**
+     * 验证用户凭据，按来源地址和账户限流；被限流的尝试在哈希计算之前直接拒绝
+     */
+    public boolean authenticateUser(String username, String password, InetAddress address) {
         if (username == null || password == null) {
             return false;
         }
         
-        String storedHash = userCredentials.get(username);
+        if (!loginThrottle.checkAllowed(address, username)) {
+            return false;
+        }
+        
+        Account account = accountStore.get(username);
+        String storedHash = account != null ? account.passwordHash() : null;
         if (storedHash == null) {
+            // 不存在的账户同样付出一次哈希计算，响应时间不泄露账户是否存在
+            try {
+                passwordHashService.verifyDummy(password);
+            } catch (Exception e) {
+                logger.error("密码验证失败", e);
+            }
+            loginThrottle.recordFailure(address, username);
             return false;
         }
         
         try {
-            return verifyPassword(password, storedHash);
+            if (!passwordHashService.verify(password, storedHash)) {
+                loginThrottle.recordFailure(address, username);
+                return false;
+            }
         } catch (Exception e) {
             logger.error("密码验证失败", e);
             return false;
         }
+        
+        loginThrottle.recordSuccess(address, username);
+        if (passwordHashService.needsUpgrade(storedHash)) {
+            upgradePasswordHash(username, password, storedHash);
+        }
+        return true;
+    }
+    
+    /**
+     * 登录成功后在后台用当前算法重新哈希，期间密码被修改则放弃
+     */
+    private void upgradePasswordHash(String username, String password, String oldHash) {
+        passwordHashService.hashAsync(password).thenAcceptAsync(newHash -> {
+            Account updated = accountStore.update(username, account ->
+                account != null && oldHash.equals(account.passwordHash()) ? account.withPasswordHash(newHash) : account);
+            if (updated != null && newHash.equals(updated.passwordHash())) {
+                logger.info("用户密码哈希已升级: {}", username);
+            }
+        }, command -> Thread.ofVirtual().start(command)).exceptionally(e -> {
+            logger.warn("用户密码哈希升级失败: {}", username, e);
+            return null;
+        });
     }
     
     /**
      * 注册新用户
      */
     public boolean registerUser(String username, String password, UserRole role) {
-        if (username == null || password == null || userCredentials.containsKey(username)) {
+        if (username == null || password == null || isUserRegistered(username)) {
             return false;
         }
         
         try {
             String hashedPassword = hashPassword(password);
-            userCredentials.put(username, hashedPassword);
-            userRoles.put(username, role != null ? role : UserRole.USER);
+            UserRole assignedRole = role != null ? role : UserRole.USER;
+            Account registered = accountStore.update(username, current -> current == null || current.passwordHash() == null
+                ? new Account(username, hashedPassword, assignedRole) : current);
+            if (!hashedPassword.equals(registered.passwordHash())) {
+                return false;
+            }
             logger.info("用户注册成功: {} (角色: {})", username, role);
             return true;
         } catch (Exception e) {
@@ -97,14 +158,16 @@ public class AuthenticationService {
      * 获取用户角色
      */
     public UserRole getUserRole(String username) {
-        return userRoles.getOrDefault(username, UserRole.USER);
+        Account account = accountStore.get(username);
+        return account != null ? account.role() : UserRole.USER;
     }
     
     /**
      * 设置用户角色
      */
     public void setUserRole(String username, UserRole role) {
-        userRoles.put(username, role);
+        accountStore.update(username, current -> current != null
+            ? current.withRole(role) : new Account(username, null, role));
         logger.info("用户角色已更新: {} -> {}", username, role);
     }
     
@@ -120,7 +183,14 @@ public class AuthenticationService {
      * 验证操作员权限
      */
     public boolean authenticateOperator(String username, String password) {
-        if (!authenticateUser(username, password)) {
+        return authenticateOperator(username, password, null);
+    }
+    
+    /**
+     * 验证操作员权限，按来源地址限流
+     */
+    public boolean authenticateOperator(String username, String password, InetAddress address) {
+        if (!authenticateUser(username, password, address)) {
             return false;
         }
         
@@ -131,13 +201,28 @@ public class AuthenticationService {
      * 验证管理员权限
      */
     public boolean authenticateAdmin(String username, String password) {
-        if (!authenticateUser(username, password)) {
+        return authenticateAdmin(username, password, null);
+    }
+    
+    /**
+     * 验证管理员权限，按来源地址限流
+     */
+    public boolean authenticateAdmin(String username, String password, InetAddress address) {
+        if (!authenticateUser(username, password, address)) {
             return false;
         }
         
         return hasPermission(username, UserRole.ADMIN);
     }
     
+    /**
+     * 获取账户的SCRAM凭据，账户不存在或哈希仍为旧格式时返回null
+     */
+    public PasswordHashService.ScramCredentials getScramCredentials(String username) {
+        Account account = accountStore.get(username);
+        return account != null ? passwordHashService.scramCredentials(account.passwordHash()) : null;
+    }
+    
     /**
      * 检查是否需要注册
      */
@@ -149,7 +234,8 @@ public class AuthenticationService {
      * 用户是否已注册
      */
     public boolean isUserRegistered(String username) {
-        return userCredentials.containsKey(username);
+        Account account = accountStore.get(username);
+        return account != null && account.passwordHash() != null;
     }
     
     /**
@@ -160,8 +246,7 @@ public class AuthenticationService {
             return false; // 不能删除默认管理员
         }
         
-        boolean removed = userCredentials.remove(username) != null;
-        userRoles.remove(username);
+        boolean removed = accountStore.remove(username);
         
         if (removed) {
             logger.info("用户已删除: {}", username);
@@ -180,7 +265,7 @@ public class AuthenticationService {
         
         try {
             String hashedPassword = hashPassword(newPassword);
-            userCredentials.put(username, hashedPassword);
+            accountStore.update(username, current -> current.withPasswordHash(hashedPassword));
             logger.info("用户密码已更新: {}", username);
             return true;
         } catch (Exception e) {
@@ -195,7 +280,8 @@ public class AuthenticationService {
     public boolean resetPassword(String username, String newPassword) {
         try {
             String hashedPassword = hashPassword(newPassword);
-            userCredentials.put(username, hashedPassword);
+            accountStore.update(username, current -> current != null
+                ? current.withPasswordHash(hashedPassword) : new Account(username, hashedPassword, UserRole.USER));
             logger.info("管理员重置用户密码: {}", username);
             return true;
         } catch (Exception e) {
@@ -208,50 +294,17 @@ public class AuthenticationService {
      * 获取所有用户列表
      */
     public Map<String, UserRole> getAllUsers() {
-        return new ConcurrentHashMap<>(userRoles);
-    }
-    
-    /**
-     * 哈希密码
-     */
-    private String hashPassword(String password) throws NoSuchAlgorithmException {
-        // 生成盐值
-        byte[] salt = new byte[16];
-        random.nextBytes(salt);
-        
-        // 使用SHA-256哈希
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        md.update(salt);
-        byte[] hashedPassword = md.digest(password.getBytes());
-        
-        // 组合盐值和哈希值
-        byte[] combined = new byte[salt.length + hashedPassword.length];
-        System.arraycopy(salt, 0, combined, 0, salt.length);
-        System.arraycopy(hashedPassword, 0, combined, salt.length, hashedPassword.length);
-        
-        return Base64.getEncoder().encodeToString(combined);
+        Map<String, UserRole> users = new ConcurrentHashMap<>();
+        for (Account account : accountStore.getAll()) {
+            users.put(account.username(), account.role());
+        }
+        return users;
     }
     
     /**
-     * 验证密码
+     * 哈希密码，在密码哈希线程池上执行
      */
-    private boolean verifyPassword(String password, String storedHash) throws NoSuchAlgorithmException {
-        byte[] combined = Base64.getDecoder().decode(storedHash);
-        
-        // 提取盐值
-        byte[] salt = new byte[16];
-        System.arraycopy(combined, 0, salt, 0, salt.length);
-        
-        // 提取存储的哈希值
-        byte[] storedHashBytes = new byte[combined.length - salt.length];
-        System.arraycopy(combined, salt.length, storedHashBytes, 0, storedHashBytes.length);
-        
-        // 使用相同的盐值哈希输入密码
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        md.update(salt);
-        byte[] hashedPassword = md.digest(password.getBytes());
-        
-        // 比较哈希值
-        return MessageDigest.isEqual(storedHashBytes, hashedPassword);
+    private String hashPassword(String password) {
+        return passwordHashService.hash(password);
     }
 } 
\ No newline at end of file
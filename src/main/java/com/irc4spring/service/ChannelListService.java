@@ -0,0 +1,282 @@
+package com.irc4spring.service;
+
+import com.irc4spring.model.IrcChannel;
+import com.irc4spring.server.ClientConnection;
+import com.irc4spring.server.OutboundPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+
+/**
+ * LIST查询服务
+ * 频道列表来自按人数降序排列的不可变快照，快照过期后由第一个LIST请求重建（同一时刻只有一个重建者，
+ * 其他请求继续使用旧快照），避免在频道表被并发修改时逐个格式化。
+ * ELIST过滤条件：>N / <N 人数（在有序数组上二分定位范围），掩码 / !掩码，C>N / C<N 创建时间，T>N / T<N 主题时间（分钟）。
+ * 结果由独立的虚拟线程按连接的未写出字节数分批入队，慢客户端只会拖慢自己的LIST；每批先经查询预算计费。
+ */
+@Service
+public class ChannelListService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelListService.class);
+
+    @Value("${irc.list.snapshot-interval-ms:5000}")
+    private long snapshotIntervalMs;
+
+    @Value("${irc.list.sendq-watermark:32768}")
+    private int sendqWatermark;
+
+    @Value("${irc.list.stall-timeout-ms:30000}")
+    private long stallTimeoutMs;
+
+    @Autowired
+    private ChannelService channelService;
+
+    /**
+     * 快照中的一个频道，时间为毫秒时间戳，没有主题时topicSetAt为0
+     */
+    public record ChannelEntry(String name, int users, String topic, long createdAt, long topicSetAt) {
+    }
+
+    private record Snapshot(long builtAt, ChannelEntry[] byUsersDesc) {
+    }
+
+    /**
+     * 一个连接上排队的LIST输出，公平锁保证按请求顺序依次输出
+     */
+    private static final class StreamQueue {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private int pending;
+    }
+
+    // 每个连接最多一个正在输出、一个等待中的LIST
+    private static final int MAX_PENDING_STREAMS = 2;
+
+    // 每批计费的行数
+    private static final int PACING_BATCH = 50;
+
+    private volatile Snapshot snapshot = new Snapshot(0, new ChannelEntry[0]);
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final Map<ClientConnection, StreamQueue> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 按ELIST条件查询，条件之间为与关系；没有条件时返回全部公开频道
+     *
+     * @param filters LIST的第一个参数按逗号拆分后的各项，可以为空
+     */
+    public List<ChannelEntry> query(List<String> filters) {
+        ChannelEntry[] entries = current().byUsersDesc();
+        int from = 0;
+        int to = entries.length;
+        List<String> names = new ArrayList<>();
+        List<String> masks = new ArrayList<>();
+        List<String> excluded = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        long createdAfter = Long.MIN_VALUE;
+        long createdBefore = Long.MAX_VALUE;
+        long topicAfter = Long.MIN_VALUE;
+        long topicBefore = Long.MAX_VALUE;
+
+        for (String filter : filters) {
+            if (filter.isEmpty()) {
+                continue;
+            }
+            char kind = filter.charAt(0);
+            try {
+                if (kind == '>') {
+                    to = Math.min(to, firstWithUsersAtMost(entries, Integer.parseInt(filter.substring(1))));
+                } else if (kind == '<') {
+                    from = Math.max(from, firstWithUsersAtMost(entries, Integer.parseInt(filter.substring(1)) - 1));
+                } else if ((kind == 'C' || kind == 'T') && filter.length() > 2
+                        && (filter.charAt(1) == '<' || filter.charAt(1) == '>')) {
+                    long boundary = now - Long.parseLong(filter.substring(2)) * 60_000L;
+                    boolean within = filter.charAt(1) == '<';
+                    if (kind == 'C') {
+                        createdAfter = within ? Math.max(createdAfter, boundary) : createdAfter;
+                        createdBefore = within ? createdBefore : Math.min(createdBefore, boundary);
+                    } else {
+                        topicAfter = within ? Math.max(topicAfter, boundary) : topicAfter;
+                        topicBefore = within ? topicBefore : Math.min(topicBefore, boundary);
+                    }
+                } else if (kind == '!') {
+                    excluded.add(filter.substring(1).toLowerCase(Locale.ROOT));
+                } else if (filter.indexOf('*') >= 0 || filter.indexOf('?') >= 0) {
+                    masks.add(filter.toLowerCase(Locale.ROOT));
+                } else {
+                    names.add(filter);
+                }
+            } catch (NumberFormatException e) {
+                // 无法解析的数值条件忽略
+            }
+        }
+
+        List<ChannelEntry> result = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ChannelEntry entry = entries[i];
+            String name = entry.name().toLowerCase(Locale.ROOT);
+            if ((!names.isEmpty() && names.stream().noneMatch(entry.name()::equalsIgnoreCase))
+                    || (!masks.isEmpty() && masks.stream().noneMatch(mask -> HostmaskIndex.matches(mask, name)))
+                    || excluded.stream().anyMatch(mask -> HostmaskIndex.matches(mask, name))
+                    || entry.createdAt() < createdAfter || entry.createdAt() > createdBefore
+                    || entry.topicSetAt() < topicAfter || entry.topicSetAt() > topicBefore) {
+                continue;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * 在独立的虚拟线程中输出查询结果（LIST和不带参数的NAMES）：未写出的数据超过水位线时等待客户端读取，
+     * 超过irc.list.stall-timeout-ms仍未读取则放弃剩余部分。
+     * 同一连接的多个批量输出依次进行，已有一个在输出、一个在等待时拒绝新的请求。
+     *
+     * @param endLine 结束行，为null时不发送
+     * @param pacer 每批输出前按行数计费，返回需要等待的毫秒数，返回负数时放弃剩余部分
+     * @return 该连接排队的批量输出过多时返回false
+     */
+    public <T> boolean stream(ClientConnection connection, List<T> entries,
+                              Function<T, String> formatter, String endLine, IntToLongFunction pacer) {
+        return streamLines(connection, entries, entry -> List.of(formatter.apply(entry)), endLine, pacer);
+    }
+
+    /**
+     * 与stream相同，但每个条目可以输出多行（如NAMES的353分段加366）。
+     * 条目在输出线程中、已计费的行数用完之前才格式化，放弃时剩余条目不会被格式化；
+     * 预付的行数取剩余条目数与批大小的较小值，每个条目至少一行，因此不会多计费。
+     */
+    public <T> boolean streamLines(ClientConnection connection, List<T> entries,
+                                   Function<T, List<String>> formatter, String endLine, IntToLongFunction pacer) {
+        boolean[] accepted = new boolean[1];
+        StreamQueue queue = streams.compute(connection, (key, existing) -> {
+            StreamQueue current = existing != null ? existing : new StreamQueue();
+            if (current.pending < MAX_PENDING_STREAMS) {
+                current.pending++;
+                accepted[0] = true;
+            }
+            return current;
+        });
+        if (!accepted[0]) {
+            return false;
+        }
+
+        Thread.ofVirtual().name("irc-list-" + connection.getId()).start(() -> {
+            queue.lock.lock();
+            try {
+                int paid = 0;
+                for (int i = 0; i < entries.size(); i++) {
+                    if (paid == 0) {
+                        paid = Math.min(PACING_BATCH, entries.size() - i);
+                        if (!pace(pacer, paid)) {
+                            logger.debug("批量输出中止: 连接{}超出查询预算", connection.getId());
+                            return;
+                        }
+                    }
+                    for (String line : formatter.apply(entries.get(i))) {
+                        if (paid == 0) {
+                            // 当前条目的行数超出预付部分，先为后续行计费
+                            paid = Math.min(PACING_BATCH, entries.size() - i);
+                            if (!pace(pacer, paid)) {
+                                logger.debug("批量输出中止: 连接{}超出查询预算", connection.getId());
+                                return;
+                            }
+                        }
+                        if (!connection.awaitQueuedBelow(sendqWatermark, stallTimeoutMs)) {
+                            logger.debug("批量输出中止: 连接{}未读取或已关闭", connection.getId());
+                            return;
+                        }
+                        connection.send(line, OutboundPriority.BULK, null);
+                        paid--;
+                    }
+                }
+                if (endLine != null) {
+                    connection.send(endLine, OutboundPriority.BULK, null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                queue.lock.unlock();
+                streams.computeIfPresent(connection, (key, current) -> --current.pending == 0 ? null : current);
+            }
+        });
+        return true;
+    }
+
+    private static boolean pace(IntToLongFunction pacer, int rows) throws InterruptedException {
+        long delay = pacer.applyAsLong(rows);
+        if (delay < 0) {
+            return false;
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        return true;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (System.currentTimeMillis() - current.builtAt() < snapshotIntervalMs || !refreshLock.tryLock()) {
+            return current;
+        }
+        try {
+            current = snapshot;
+            if (System.currentTimeMillis() - current.builtAt() >= snapshotIntervalMs) {
+                current = build();
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private Snapshot build() {
+        List<ChannelEntry> entries = new ArrayList<>();
+        for (IrcChannel channel : channelService.getAllChannels()) {
+            if (channel.isSecret()) {
+                continue;
+            }
+            entries.add(new ChannelEntry(channel.getName(), channel.getUsers().size(), channel.getTopic(),
+                epochMillis(channel.getCreatedAt()), channel.getTopic() != null ? epochMillis(channel.getTopicSetAt()) : 0));
+        }
+        ChannelEntry[] sorted = entries.toArray(new ChannelEntry[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(ChannelEntry::users).reversed()
+            .thenComparing(ChannelEntry::name));
+        return new Snapshot(System.currentTimeMillis(), sorted);
+    }
+
+    /**
+     * 降序数组中第一个人数不超过max的下标
+     */
+    private static int firstWithUsersAtMost(ChannelEntry[] entries, int max) {
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid].users() > max) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long epochMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+    }
+}
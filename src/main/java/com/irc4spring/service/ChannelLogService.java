@@ -0,0 +1,429 @@
+package com.irc4spring.service;
+
+import com.irc4spring.storage.ChannelLogRecord;
+import com.irc4spring.storage.LogSegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 频道日志服务
+ * 把频道消息、主题变更、踢人和进出频道事件追加到分段的内存映射日志文件中。
+ * 发送方只把事件放入有界队列（队列满时丢弃并计数，不阻塞广播），由单个写线程批量取出顺序写入；
+ * 段写满后封存并滚动到新段，过期或超出总大小的旧段按保留策略删除。
+ */
+@Service
+public class ChannelLogService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelLogService.class);
+
+    private static final long RETENTION_CHECK_INTERVAL_MILLIS = 60_000;
+    private static final int MAX_RECORD_BYTES = 5 * 0xFFFF + 64;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{20})\\.log");
+
+    @Value("${irc.storage.dir:data}")
+    private String storageDir;
+
+    @Value("${irc.channel-log.enabled:true}")
+    private boolean enabled;
+
+    @Value("${irc.channel-log.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${irc.channel-log.index-interval-bytes:4096}")
+    private int indexIntervalBytes;
+
+    @Value("${irc.channel-log.queue-capacity:65536}")
+    private int queueCapacity;
+
+    @Value("${irc.channel-log.batch-size:1024}")
+    private int batchSize;
+
+    @Value("${irc.channel-log.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${irc.channel-log.retention-hours:168}")
+    private long retentionHours;
+
+    @Value("${irc.channel-log.retention-bytes:1073741824}")
+    private long retentionBytes;
+
+    @Value("${irc.channel-log.max-read:1000}")
+    private int maxRead;
+
+    private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rolledSegments = new LongAdder();
+    private final LongAdder deletedSegments = new LongAdder();
+
+    private BlockingQueue<ChannelLogRecord> queue;
+    private Path directory;
+    private Thread writer;
+    private volatile boolean running;
+    private volatile long lastTime;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            directory = Paths.get(storageDir, "channel-log");
+            Files.createDirectories(directory);
+            openSegments();
+        } catch (IOException e) {
+            logger.error("无法打开频道日志目录，频道日志已禁用: {}", storageDir, e);
+            enabled = false;
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        // 写线程做的是文件映射写入和刷盘，使用平台线程
+        writer = Thread.ofPlatform().daemon().name("irc-channel-log").start(this::writeLoop);
+        logger.info("频道日志已启动: {} ({}个段)", directory, segments.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void openSegments() throws IOException {
+        List<Long> baseOffsets = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (!name.endsWith(".log")) {
+                    continue;
+                }
+                // 段文件名为20位零填充的起始偏移量，其他.log文件（手工备份、编辑器临时文件等）跳过
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                long baseOffset = -1;
+                if (matcher.matches()) {
+                    try {
+                        baseOffset = Long.parseLong(matcher.group(1));
+                    } catch (NumberFormatException e) {
+                        // 超出long范围
+                    }
+                }
+                if (baseOffset < 0) {
+                    logger.warn("跳过无法识别的日志文件: {}", path);
+                    continue;
+                }
+                baseOffsets.add(baseOffset);
+            }
+        }
+        Collections.sort(baseOffsets);
+
+        for (long baseOffset : baseOffsets) {
+            LogSegment segment = LogSegment.open(directory, baseOffset, segmentBytes, indexIntervalBytes);
+            segments.add(segment);
+            lastTime = Math.max(lastTime, segment.getLastTime());
+        }
+
+        // 只有最后一个段可以继续写入，之前异常退出留下的未封存段先封存
+        for (int i = 0; i < segments.size() - 1; i++) {
+            segments.get(i).seal();
+        }
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isSealed()) {
+            long nextOffset = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getNextOffset();
+            segments.add(LogSegment.create(directory, nextOffset, segmentBytes, indexIntervalBytes));
+        }
+    }
+
+    /**
+     * 记录一条频道事件，不阻塞调用方
+     */
+    public void append(String channelName, String command, String source, String target, String text) {
+        if (!enabled) {
+            return;
+        }
+        ChannelLogRecord record = new ChannelLogRecord(-1, System.currentTimeMillis(), channelName, command,
+            source, target != null ? target : "", text != null ? text : "");
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 写线程：批量取出事件，编码后顺序写入当前段，定期刷盘和执行保留策略
+     */
+    private void writeLoop() {
+        List<ChannelLogRecord> batch = new ArrayList<>(batchSize);
+        ByteBuffer encoded = ByteBuffer.allocate(MAX_RECORD_BYTES);
+        long lastFlush = System.currentTimeMillis();
+        long lastRetentionCheck = 0;
+
+        while (running || !queue.isEmpty()) {
+            try {
+                ChannelLogRecord first = queue.poll(Math.max(1, flushIntervalMillis), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeBatch(batch, encoded);
+                    batch.clear();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastFlush >= flushIntervalMillis) {
+                    activeSegment().flush();
+                    lastFlush = now;
+                }
+                if (now - lastRetentionCheck >= RETENTION_CHECK_INTERVAL_MILLIS) {
+                    applyRetention(now);
+                    lastRetentionCheck = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("写入频道日志失败，丢弃{}条事件", batch.size(), e);
+                dropped.add(batch.size());
+                batch.clear();
+            }
+        }
+
+        try {
+            activeSegment().flush();
+        } catch (IOException e) {
+            logger.error("刷新频道日志失败", e);
+        }
+    }
+
+    private void writeBatch(List<ChannelLogRecord> batch, ByteBuffer encoded) throws IOException {
+        for (ChannelLogRecord pending : batch) {
+            LogSegment segment = activeSegment();
+            // 时间单调不减，稀疏时间索引才能二分查找
+            long time = Math.max(pending.time(), lastTime);
+            ChannelLogRecord record = pending.withOffset(segment.getNextOffset(), time);
+
+            encoded.clear();
+            try {
+                LogSegment.encode(record, encoded);
+            } catch (BufferOverflowException e) {
+                dropped.increment();
+                continue;
+            }
+            encoded.flip();
+
+            if (!segment.append(encoded, record.offset(), time, record.channel())) {
+                segment = roll(segment);
+                if (!segment.append(encoded, record.offset(), time, record.channel())) {
+                    dropped.increment();
+                    continue;
+                }
+            }
+            lastTime = time;
+            appended.increment();
+        }
+        batches.increment();
+    }
+
+    private LogSegment roll(LogSegment current) throws IOException {
+        current.seal();
+        LogSegment next = LogSegment.create(directory, current.getNextOffset(), segmentBytes, indexIntervalBytes);
+        segments.add(next);
+        rolledSegments.increment();
+        logger.debug("频道日志滚动到新段: {}", next.getBaseOffset());
+        return next;
+    }
+
+    /**
+     * 删除超过保留时间的段，以及总大小超限时最旧的段；当前写入段不删除
+     */
+    private void applyRetention(long now) throws IOException {
+        long expireBefore = now - TimeUnit.HOURS.toMillis(retentionHours);
+        long totalBytes = segments.stream().mapToLong(LogSegment::getSize).sum();
+
+        while (segments.size() > 1) {
+            LogSegment oldest = segments.get(0);
+            boolean expired = oldest.getLastTime() < expireBefore;
+            boolean overSize = totalBytes > retentionBytes;
+            if (!expired && !overSize) {
+                break;
+            }
+            segments.remove(0);
+            totalBytes -= oldest.getSize();
+            oldest.delete();
+            deletedSegments.increment();
+            logger.info("按保留策略删除频道日志段: {}", oldest.getBaseOffset());
+        }
+    }
+
+    private LogSegment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * 读取频道在时间范围内的事件，按时间先后返回
+     */
+    public List<ChannelLogRecord> read(String channelName, long fromTime, long toTime, int limit) {
+        List<ChannelLogRecord> result = new ArrayList<>();
+        if (!enabled) {
+            return result;
+        }
+
+        int max = Math.max(0, Math.min(limit, maxRead));
+        for (LogSegment segment : segments) {
+            if (result.size() >= max) {
+                break;
+            }
+            try {
+                if (segment.scan(channelName, fromTime, toTime, max, result)) {
+                    break;
+                }
+            } catch (IOException e) {
+                logger.error("读取频道日志段失败: {}", segment.getBaseOffset(), e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从指定序号开始顺序读取所有频道的事件
+     */
+    public List<ChannelLogRecord> readFrom(long offset, int max) {
+        List<ChannelLogRecord> result = new ArrayList<>();
+        if (!enabled) {
+            return result;
+        }
+
+        for (LogSegment segment : segments) {
+            if (result.size() >= max) {
+                break;
+            }
+            if (segment.getNextOffset() <= offset) {
+                continue;
+            }
+            try {
+                segment.readFrom(offset, max, result);
+            } catch (IOException e) {
+                logger.error("读取频道日志段失败: {}", segment.getBaseOffset(), e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按序号读取单条记录，已被保留策略删除时返回null
+     */
+    public ChannelLogRecord read(long offset) {
+        List<ChannelLogRecord> records = readFrom(offset, 1);
+        return !records.isEmpty() && records.get(0).offset() == offset ? records.get(0) : null;
+    }
+
+    /**
+     * 估算指定时间之后第一条记录的序号下界，用于把时间范围换算为序号范围
+     */
+    public long offsetForTime(long time) {
+        if (!enabled) {
+            return 0;
+        }
+        for (LogSegment segment : segments) {
+            if (!segment.isEmpty() && segment.getLastTime() >= time) {
+                return segment.offsetBefore(time);
+            }
+        }
+        return getNextOffset();
+    }
+
+    /**
+     * 估算指定时间之后第一条记录的序号上界（不含）：从该序号起的记录都晚于time
+     */
+    public long offsetAfterTime(long time) {
+        if (!enabled) {
+            return 0;
+        }
+        for (LogSegment segment : segments) {
+            if (!segment.isEmpty() && segment.getLastTime() > time) {
+                return segment.offsetAfter(time);
+            }
+        }
+        return getNextOffset();
+    }
+
+    /**
+     * 仍保留在日志中的最早序号
+     */
+    public long getFirstOffset() {
+        return enabled ? segments.get(0).getBaseOffset() : 0;
+    }
+
+    /**
+     * 已写入日志的下一个序号
+     */
+    public long getNextOffset() {
+        return enabled ? activeSegment().getNextOffset() : 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取频道日志统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("directory", directory != null ? directory.toString() : null);
+        stats.put("appended", appended.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("batches", batches.sum());
+        stats.put("queued", queue != null ? queue.size() : 0);
+        stats.put("rolledSegments", rolledSegments.sum());
+        stats.put("deletedSegments", deletedSegments.sum());
+
+        List<Map<String, Object>> segmentStats = new ArrayList<>();
+        for (LogSegment segment : segments) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("baseOffset", segment.getBaseOffset());
+            info.put("nextOffset", segment.getNextOffset());
+            info.put("bytes", segment.getSize());
+            info.put("indexEntries", segment.getIndexEntries());
+            info.put("sealed", segment.isSealed());
+            if (!segment.isEmpty()) {
+                info.put("firstTime", segment.getFirstTime());
+                info.put("lastTime", segment.getLastTime());
+            }
+            segmentStats.add(info);
+        }
+        stats.put("segments", segmentStats);
+        return stats;
+    }
+}
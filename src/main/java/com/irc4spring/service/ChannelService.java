@@ -1,17 +1,29 @@
 package com.irc4spring.service;
 
+import com.irc4spring.capability.Capability;
+import com.irc4spring.model.HistoryEntry;
 import com.irc4spring.model.IrcChannel;
 import com.irc4spring.model.IrcUser;
+import com.irc4spring.model.UserRole;
+import com.irc4spring.server.OutboundMessage;
+import com.irc4spring.server.OutboundPriority;
+import com.irc4spring.server.ServerTime;
+import com.irc4spring.server.Utf8;
+import com.irc4spring.storage.ChannelStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -28,9 +40,25 @@ public class ChannelService {
     @Value("${irc.server.max-channel-name-length:50}")
     private int maxChannelNameLength;
     
+    @Value("${irc.server.max-nickname-length:30}")
+    private int maxNicknameLength;
+    
+    @Value("${irc.server.name:IRC4Spring}")
+    private String serverName;
+    
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private HistoryService historyService;
+    
+    @Autowired
+    private ChannelLogService channelLogService;
+    
+    @Autowired
+    private ChannelStore channelStore;
+    
+    // 已加载到内存的频道；注册频道在第一次被访问时才从ChannelStore加载
     private final Map<String, IrcChannel> channels = new ConcurrentHashMap<>();
     
     /**
@@ -47,8 +75,9 @@ public class ChannelService {
             return null;
         }
         
-        if (channels.containsKey(channelName)) {
-            return channels.get(channelName);
+        IrcChannel existing = getChannel(channelName);
+        if (existing != null) {
+            return existing;
         }
         
         IrcChannel channel = new IrcChannel(channelName);
@@ -68,11 +97,16 @@ public class ChannelService {
      * 获取频道
      */
     public IrcChannel getChannel(String channelName) {
-        return channels.get(channelName);
+        IrcChannel channel = channels.get(channelName);
+        if (channel == null && channelName != null && channelStore.contains(channelName)) {
+            // 注册频道第一次被访问时才解码完整状态
+            channel = channels.computeIfAbsent(channelName, channelStore::load);
+        }
+        return channel;
     }
     
     /**
-     * 获取所有频道
+     * 获取所有已加载的频道（尚未被访问过的注册频道不在其中，它们此时没有成员）
      */
     public Collection<IrcChannel> getAllChannels() {
         return channels.values();
@@ -83,6 +117,9 @@ public class ChannelService {
      */
     public boolean deleteChannel(String channelName) {
         IrcChannel channel = channels.remove(channelName);
+        boolean unregistered = channelStore.remove(channelName);
+        // 频道名随后可被任何人重新创建，历史随频道一起删除
+        historyService.remove(channelName);
         if (channel != null) {
             // 通知所有用户频道已关闭
             for (String nickname : channel.getUsers()) {
@@ -96,7 +133,7 @@ public class ChannelService {
             logger.info("频道已删除: {}", channelName);
             return true;
         }
-        return false;
+        return unregistered;
     }
     
     /**
@@ -131,9 +168,19 @@ public class ChannelService {
         channel.addUser(nickname);
         user.joinChannel(channelName);
         
-        // 广播加入消息
-        broadcastToChannel(channelName, 
-            ":" + user.getFullMask() + " JOIN :" + channelName, null);
+        // 操作员名单按账户记录，只有以名单中的账户认证的用户加入时自动获得操作员；昵称不受保护，不能作为依据
+        if (channel.isRegistered() && user.getAccount() != null && channel.hasAccess(user.getAccount())) {
+            channel.addOperator(nickname);
+        }
+        
+        // 广播加入消息，+D频道中只发给操作员和加入者本人
+        broadcastMemberEvent(channelName, nickname, ":" + user.getFullMask() + " JOIN :" + channelName, null,
+            OutboundPriority.BULK);
+        if (user.isAway()) {
+            // away-notify：加入者处于离开状态时，紧随JOIN告知启用了该能力的成员
+            broadcastMemberEvent(channelName, nickname, awayNotification(user), nickname, OutboundPriority.BULK);
+        }
+        channelLogService.append(channelName, "JOIN", user.getFullMask(), null, null);
         
         logger.info("用户加入频道: {} -> {}", nickname, channelName);
         return true;
@@ -155,15 +202,20 @@ public class ChannelService {
         if (reason != null && !reason.trim().isEmpty()) {
             partMessage += " :" + reason;
         }
-        broadcastToChannel(channelName, partMessage, null);
+        broadcastMemberEvent(channelName, nickname, partMessage, null, OutboundPriority.BULK);
+        channelLogService.append(channelName, "PART", user.getFullMask(), null, reason);
         
         // 离开频道
         channel.removeUser(nickname);
         user.leaveChannel(channelName);
         
-        // 如果频道为空，删除频道
+        // 如果频道为空，删除频道；注册频道的状态已持久化，只从内存中移除，下次访问时重新加载
         if (channel.isEmpty()) {
-            deleteChannel(channelName);
+            if (channel.isRegistered()) {
+                channels.remove(channelName, channel);
+            } else {
+                deleteChannel(channelName);
+            }
         }
         
         logger.info("用户离开频道: {} <- {}", nickname, channelName);
@@ -174,20 +226,141 @@ public class ChannelService {
      * 向频道广播消息
      */
     public void broadcastToChannel(String channelName, String message, String excludeNickname) {
+        broadcastToChannel(channelName, message, excludeNickname, OutboundPriority.BULK);
+    }
+    
+    /**
+     * 按指定优先级向频道广播消息，频道名作为排序键保证同一频道内的消息顺序；
+     * 启用server-time的成员收到带time标签的变体
+     */
+    public void broadcastToChannel(String channelName, String message, String excludeNickname, OutboundPriority priority) {
+        OutboundMessage outbound = OutboundMessage.builder(message)
+            .tag(Capability.SERVER_TIME, ServerTime.tag(System.currentTimeMillis()))
+            .build();
+        broadcastToChannel(channelName, outbound, excludeNickname, priority);
+    }
+    
+    /**
+     * 广播预先序列化的消息，每个接收者按自己的能力位图取对应的帧变体
+     */
+    public void broadcastToChannel(String channelName, OutboundMessage message, String excludeNickname, OutboundPriority priority) {
         IrcChannel channel = getChannel(channelName);
         if (channel != null) {
             for (String nickname : channel.getUsers()) {
                 if (!nickname.equals(excludeNickname)) {
-                    userService.sendMessageToUser(nickname, message);
+                    userService.sendMessageToUser(nickname, message, priority, channelName);
                 }
             }
         }
     }
     
+    /**
+     * 以某个成员的名义广播（JOIN、PART、QUIT、NICK等）：+D频道中该成员尚未公开时只发给操作员和本人，
+     * 潜水成员的进出不会扇出到整个频道
+     */
+    public void broadcastMemberEvent(String channelName, String nickname, String message, String excludeNickname,
+                                     OutboundPriority priority) {
+        broadcastMemberEvent(channelName, nickname, OutboundMessage.builder(message)
+            .tag(Capability.SERVER_TIME, ServerTime.tag(System.currentTimeMillis()))
+            .build(), excludeNickname, priority);
+    }
+    
+    public void broadcastMemberEvent(String channelName, String nickname, OutboundMessage message,
+                                     String excludeNickname, OutboundPriority priority) {
+        IrcChannel channel = getChannel(channelName);
+        if (channel == null) {
+            return;
+        }
+        if (channel.isVisible(nickname)) {
+            broadcastToChannel(channelName, message, excludeNickname, priority);
+            return;
+        }
+        for (String operator : channel.getOperators()) {
+            if (!operator.equals(excludeNickname)) {
+                userService.sendMessageToUser(operator, message, priority, channelName);
+            }
+        }
+        if (!nickname.equals(excludeNickname)) {
+            userService.sendMessageToUser(nickname, message, priority, channelName);
+        }
+    }
+    
+    /**
+     * +D频道中成员第一次发言、设置主题或成为操作员时公开，向此前看不到他的普通成员补发JOIN
+     */
+    private void revealMember(IrcChannel channel, String nickname) {
+        IrcUser user = userService.getUserByNickname(nickname);
+        if (user == null || !channel.reveal(nickname)) {
+            return;
+        }
+        OutboundMessage join = OutboundMessage.builder(":" + user.getFullMask() + " JOIN :" + channel.getName())
+            .tag(Capability.SERVER_TIME, ServerTime.tag(System.currentTimeMillis()))
+            .build();
+        for (String member : channel.getUsers()) {
+            if (!member.equals(nickname) && !channel.isOperator(member)) {
+                userService.sendMessageToUser(member, join, OutboundPriority.BULK, channel.getName());
+            }
+        }
+    }
+    
+    /**
+     * 与用户至少共享一个频道的其他用户，多个频道中重复出现的成员只计一次；
+     * 在+D频道中尚未公开时只计该频道的操作员
+     */
+    public Set<String> getChannelPeers(IrcUser user) {
+        Set<String> peers = new HashSet<>();
+        for (String channelName : user.getChannels()) {
+            IrcChannel channel = getChannel(channelName);
+            if (channel != null) {
+                peers.addAll(channel.isVisible(user.getNickname()) ? channel.getUsers() : channel.getOperators());
+            }
+        }
+        peers.remove(user.getNickname());
+        return peers;
+    }
+    
+    /**
+     * 向所有频道伙伴各发送一次，而不是逐个频道广播
+     */
+    public void broadcastToPeers(IrcUser user, OutboundMessage message, OutboundPriority priority) {
+        for (String nickname : getChannelPeers(user)) {
+            userService.sendMessageToUser(nickname, message, priority, null);
+        }
+    }
+    
+    /**
+     * 设置或取消AWAY，并通知启用了away-notify的频道伙伴
+     */
+    public void setAway(IrcUser user, String awayMessage) {
+        user.setAwayMessage(awayMessage);
+        broadcastToPeers(user, awayNotification(user), OutboundPriority.BULK);
+    }
+    
+    /**
+     * away-notify的AWAY消息，只发给启用了该能力的接收者
+     */
+    private OutboundMessage awayNotification(IrcUser user) {
+        String awayMessage = user.getAwayMessage();
+        String line = ":" + user.getFullMask() + " AWAY" + (awayMessage != null ? " :" + awayMessage : "");
+        return OutboundMessage.builder(line)
+            .tag(Capability.SERVER_TIME, ServerTime.tag(System.currentTimeMillis()))
+            .requires(Capability.AWAY_NOTIFY)
+            .build();
+    }
+    
     /**
      * 发送私聊消息
      */
     public boolean sendPrivateMessage(String senderNickname, String targetNickname, String message) {
+        return sendPrivateMessage(senderNickname, targetNickname, message, null);
+    }
+    
+    /**
+     * 发送私聊消息，客户端标签只转发给启用了message-tags的接收者
+     *
+     * @param clientTags 原样转发的客户端标签片段（不含@），没有时为null
+     */
+    public boolean sendPrivateMessage(String senderNickname, String targetNickname, String message, String clientTags) {
         IrcUser sender = userService.getUserByNickname(senderNickname);
         IrcUser target = userService.getUserByNickname(targetNickname);
         
@@ -195,14 +368,73 @@ public class ChannelService {
             return false;
         }
         
-        String privmsg = ":" + sender.getFullMask() + " PRIVMSG " + targetNickname + " :" + message;
-        return userService.sendMessageToUser(targetNickname, privmsg);
+        OutboundMessage privmsg = OutboundMessage.builder(":" + sender.getFullMask() + " PRIVMSG " + targetNickname + " :" + message)
+            .tag(Capability.SERVER_TIME, ServerTime.tag(System.currentTimeMillis()))
+            .tag(Capability.MESSAGE_TAGS, clientTags)
+            .build();
+        return deliverDirect(sender, target, privmsg);
+    }
+    
+    /**
+     * 发送只带客户端标签、没有正文的TAGMSG，只发给启用了message-tags的接收者
+     */
+    public boolean sendTagMessage(String senderNickname, String target, String clientTags) {
+        IrcUser sender = userService.getUserByNickname(senderNickname);
+        if (sender == null) {
+            return false;
+        }
+        
+        OutboundMessage tagmsg = OutboundMessage.builder(":" + sender.getFullMask() + " TAGMSG " + target)
+            .tag(Capability.SERVER_TIME, ServerTime.tag(System.currentTimeMillis()))
+            .tag(Capability.MESSAGE_TAGS, clientTags)
+            .requires(Capability.MESSAGE_TAGS)
+            .build();
+        
+        if (!target.startsWith("#")) {
+            IrcUser recipient = userService.getUserByNickname(target);
+            if (recipient == null) {
+                return false;
+            }
+            deliverDirect(sender, recipient, tagmsg);
+            return true;
+        }
+        
+        IrcChannel channel = getChannel(target);
+        if (channel == null || !channel.hasUser(senderNickname)
+                || (channel.isModerated() && !channel.isOperator(senderNickname))) {
+            return false;
+        }
+        revealMember(channel, senderNickname);
+        broadcastToChannel(target, tagmsg, sender.hasCapability(Capability.ECHO_MESSAGE) ? null : senderNickname,
+            OutboundPriority.BULK);
+        return true;
+    }
+    
+    /**
+     * 发给单个用户，发送者启用了echo-message时回显给发送者
+     */
+    private boolean deliverDirect(IrcUser sender, IrcUser target, OutboundMessage message) {
+        boolean delivered = userService.sendMessageToUser(target.getNickname(), message, OutboundPriority.DIRECT, null);
+        if (sender.hasCapability(Capability.ECHO_MESSAGE) && sender != target) {
+            userService.sendMessageToUser(sender.getNickname(), message, OutboundPriority.DIRECT, null);
+        }
+        return delivered;
     }
     
     /**
      * 发送频道消息
      */
     public boolean sendChannelMessage(String senderNickname, String channelName, String message) {
+        return sendChannelMessage(senderNickname, channelName, message, null);
+    }
+    
+    /**
+     * 发送频道消息，time标签只发给启用了server-time的成员，msgid和客户端标签只发给启用了message-tags的成员：
+     * 整次广播只格式化一次时间，最多生成四种帧变体，同一变体被所有对应成员共用
+     *
+     * @param clientTags 原样转发的客户端标签片段（不含@），没有时为null
+     */
+    public boolean sendChannelMessage(String senderNickname, String channelName, String message, String clientTags) {
         IrcUser sender = userService.getUserByNickname(senderNickname);
         IrcChannel channel = getChannel(channelName);
         
@@ -215,8 +447,20 @@ public class ChannelService {
             return false;
         }
         
-        String privmsg = ":" + sender.getFullMask() + " PRIVMSG " + channelName + " :" + message;
-        broadcastToChannel(channelName, privmsg, senderNickname);
+        revealMember(channel, senderNickname);
+        
+        // 先写入历史，广播与CHATHISTORY看到的是同一条消息
+        HistoryEntry entry = historyService.record(channelName, sender.getFullMask(), "PRIVMSG", message);
+        
+        OutboundMessage privmsg = OutboundMessage.builder(":" + sender.getFullMask() + " PRIVMSG " + channelName + " :" + message)
+            .tag(Capability.SERVER_TIME, ServerTime.tag(entry.time()))
+            .tag(Capability.MESSAGE_TAGS, "msgid=" + entry.msgid())
+            .tag(Capability.MESSAGE_TAGS, clientTags)
+            .build();
+        // 启用echo-message的发送者也会收到自己的消息，与其他成员走同一条有序队列
+        broadcastToChannel(channelName, privmsg,
+            sender.hasCapability(Capability.ECHO_MESSAGE) ? null : senderNickname, OutboundPriority.BULK);
+        channelLogService.append(channelName, "PRIVMSG", sender.getFullMask(), null, message);
         
         return true;
     }
@@ -238,10 +482,13 @@ public class ChannelService {
         }
         
         channel.setTopic(topic, nickname);
+        persist(channel);
+        revealMember(channel, nickname);
         
         // 广播主题变更
         String topicMessage = ":" + user.getFullMask() + " TOPIC " + channelName + " :" + topic;
         broadcastToChannel(channelName, topicMessage, null);
+        channelLogService.append(channelName, "TOPIC", user.getFullMask(), null, topic);
         
         logger.info("频道主题已设置: {} -> {}", channelName, topic);
         return true;
@@ -268,7 +515,8 @@ public class ChannelService {
         if (reason != null && !reason.trim().isEmpty()) {
             kickMessage += " :" + reason;
         }
-        broadcastToChannel(channelName, kickMessage, null);
+        broadcastMemberEvent(channelName, targetNickname, kickMessage, null, OutboundPriority.CONTROL);
+        channelLogService.append(channelName, "KICK", operator.getFullMask(), targetNickname, reason);
         
         // 移除用户
         channel.removeUser(targetNickname);
@@ -306,6 +554,273 @@ public class ChannelService {
         return true;
     }
     
+    /**
+     * 修改频道模式，支持 i m s p t k l b o r D；返回实际生效的变更（如"+ok-b alice secret bob"），没有变更时返回null。
+     * 调用方负责权限检查
+     */
+    public String changeChannelModes(String nickname, String channelName, String modes, List<String> args) {
+        IrcUser user = userService.getUserByNickname(nickname);
+        IrcChannel channel = getChannel(channelName);
+        if (user == null || channel == null) {
+            return null;
+        }
+        
+        StringBuilder applied = new StringBuilder();
+        List<String> appliedArgs = new ArrayList<>();
+        boolean adding = true;
+        char sign = 0;
+        int argIndex = 0;
+        
+        for (char mode : modes.toCharArray()) {
+            if (mode == '+' || mode == '-') {
+                adding = mode == '+';
+                continue;
+            }
+            
+            String arg = null;
+            if (mode == 'o' || mode == 'b' || (adding && (mode == 'k' || mode == 'l'))) {
+                if (argIndex >= args.size()) {
+                    continue;
+                }
+                arg = args.get(argIndex++);
+            }
+            
+            boolean changed = switch (mode) {
+                case 'i' -> applyFlag(channel.isInviteOnly(), adding, channel::setInviteOnly);
+                case 'm' -> applyFlag(channel.isModerated(), adding, channel::setModerated);
+                case 's' -> applyFlag(channel.isSecret(), adding, channel::setSecret);
+                case 'p' -> applyFlag(channel.isPrivateChannel(), adding, channel::setPrivateChannel);
+                case 't' -> applyFlag(channel.isTopicLocked(), adding, channel::setTopicLocked);
+                case 'k' -> applyKey(channel, adding, arg);
+                case 'l' -> applyLimit(channel, adding, arg);
+                case 'b' -> adding ? channel.getBanned().add(arg) : channel.getBanned().remove(arg);
+                case 'o' -> applyOperator(channel, adding, arg);
+                case 'r' -> adding ? canRegister(user) && markRegistered(channel, user.getAccount())
+                    : markUnregistered(channel);
+                case 'D' -> applyDelayedJoin(channel, adding);
+                default -> false;
+            };
+            
+            if (changed) {
+                char current = adding ? '+' : '-';
+                if (sign != current) {
+                    applied.append(current);
+                    sign = current;
+                }
+                applied.append(mode);
+                if (arg != null) {
+                    appliedArgs.add(arg);
+                }
+            }
+        }
+        
+        if (applied.isEmpty()) {
+            return null;
+        }
+        
+        persist(channel);
+        String change = appliedArgs.isEmpty() ? applied.toString() : applied + " " + String.join(" ", appliedArgs);
+        broadcastToChannel(channelName, ":" + user.getFullMask() + " MODE " + channelName + " " + change,
+            null, OutboundPriority.CONTROL);
+        channelLogService.append(channelName, "MODE", user.getFullMask(), null, change);
+        
+        logger.info("频道模式已修改: {} {} (操作员: {})", channelName, change, nickname);
+        return change;
+    }
+    
+    /**
+     * 注册频道（管理接口），频道不存在时只写入存储，等到第一次被访问时再加载
+     */
+    public boolean registerChannel(String channelName, String founder) {
+        IrcChannel channel = getChannel(channelName);
+        if (channel == null && isValidChannelName(channelName)) {
+            channel = new IrcChannel(channelName);
+        }
+        if (channel == null || !markRegistered(channel, founder)) {
+            return false;
+        }
+        persist(channel);
+        return true;
+    }
+    
+    /**
+     * 注销频道，频道状态不再持久化
+     */
+    public boolean unregisterChannel(String channelName) {
+        IrcChannel channel = getChannel(channelName);
+        if (channel == null || !markUnregistered(channel)) {
+            return false;
+        }
+        if (channel.isEmpty()) {
+            channels.remove(channelName, channel);
+            historyService.remove(channelName);
+        }
+        return true;
+    }
+    
+    /**
+     * 注册频道数量，包括尚未加载的
+     */
+    public int getRegisteredChannelCount() {
+        return channelStore.size();
+    }
+    
+    /**
+     * 注册频道会永久占用存储，需要已认证的账户或IRC操作员；仅凭创建频道获得的频道操作员不够
+     */
+    private boolean canRegister(IrcUser user) {
+        return user.getAccount() != null || user.hasPermission(UserRole.OPERATOR);
+    }
+    
+    /**
+     * @param founder 创始人账户名，没有时为null
+     */
+    private boolean markRegistered(IrcChannel channel, String founder) {
+        if (channel.isRegistered()) {
+            return false;
+        }
+        channel.setRegistered(true);
+        if (channel.getFounder() == null) {
+            channel.setFounder(founder);
+        }
+        // 当前已认证的操作员的账户和创始人账户组成初始操作员名单
+        for (String operator : channel.getOperators()) {
+            String account = accountOf(operator);
+            if (account != null) {
+                channel.getAccessList().add(account);
+            }
+        }
+        if (founder != null) {
+            channel.getAccessList().add(founder);
+        }
+        logger.info("频道已注册: {} (创始人: {})", channel.getName(), founder);
+        return true;
+    }
+    
+    private boolean markUnregistered(IrcChannel channel) {
+        if (!channel.isRegistered()) {
+            return false;
+        }
+        channel.setRegistered(false);
+        channel.getAccessList().clear();
+        channelStore.remove(channel.getName());
+        logger.info("频道已注销: {}", channel.getName());
+        return true;
+    }
+    
+    private boolean applyFlag(boolean current, boolean adding, Consumer<Boolean> setter) {
+        if (current == adding) {
+            return false;
+        }
+        setter.accept(adding);
+        return true;
+    }
+    
+    private boolean applyKey(IrcChannel channel, boolean adding, String key) {
+        if (!adding) {
+            if (channel.getKey() == null) {
+                return false;
+            }
+            channel.setKey(null);
+            return true;
+        }
+        if (key.isEmpty() || key.equals(channel.getKey())) {
+            return false;
+        }
+        channel.setKey(key);
+        return true;
+    }
+    
+    private boolean applyLimit(IrcChannel channel, boolean adding, String limit) {
+        if (!adding) {
+            if (channel.getUserLimit() == 0) {
+                return false;
+            }
+            channel.setUserLimit(0);
+            return true;
+        }
+        try {
+            int value = Integer.parseInt(limit);
+            if (value <= 0 || value == channel.getUserLimit()) {
+                return false;
+            }
+            channel.setUserLimit(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 取消+D时未公开的成员不逐个补发JOIN（大频道中是成员数平方级的消息），
+     * 而是给每个普通成员（包括此前未公开的成员）重发一次完整的NAMES
+     */
+    private boolean applyDelayedJoin(IrcChannel channel, boolean adding) {
+        if (channel.isDelayedJoin() == adding) {
+            return false;
+        }
+        Set<String> hidden = channel.setDelayedJoin(adding);
+        if (hidden.isEmpty()) {
+            return true;
+        }
+        List<String> chunks = getNamesChunks(channel);
+        String symbol = channel.isSecret() ? "@" : channel.isPrivateChannel() ? "*" : "=";
+        for (String member : channel.getUsers()) {
+            if (channel.isOperator(member)) {
+                continue;
+            }
+            String prefix = ":" + serverName + " 353 " + member + " " + symbol + " " + channel.getName() + " :";
+            for (String chunk : chunks) {
+                userService.sendMessageToUser(member, prefix + chunk, OutboundPriority.BULK, channel.getName());
+            }
+            userService.sendMessageToUser(member, ":" + serverName + " 366 " + member + " " + channel.getName()
+                + " :End of /NAMES list", OutboundPriority.BULK, channel.getName());
+        }
+        return true;
+    }
+    
+    private boolean applyOperator(IrcChannel channel, boolean adding, String target) {
+        if (!channel.hasUser(target)) {
+            return false;
+        }
+        if (adding) {
+            if (channel.isOperator(target)) {
+                return false;
+            }
+            // 未公开的成员先补发JOIN，普通成员再收到MODE +o
+            revealMember(channel, target);
+            channel.addOperator(target);
+            String account = accountOf(target);
+            if (channel.isRegistered() && account != null) {
+                channel.getAccessList().add(account);
+            }
+            return true;
+        }
+        String account = accountOf(target);
+        if (account != null) {
+            channel.getAccessList().remove(account);
+        }
+        if (!channel.isOperator(target)) {
+            return false;
+        }
+        channel.removeOperator(target);
+        return true;
+    }
+    
+    private String accountOf(String nickname) {
+        IrcUser user = userService.getUserByNickname(nickname);
+        return user != null ? user.getAccount() : null;
+    }
+    
+    /**
+     * 注册频道状态变化后写入存储
+     */
+    private void persist(IrcChannel channel) {
+        if (channel.isRegistered()) {
+            channelStore.save(channel);
+        }
+    }
+    
     /**
      * 获取频道用户列表
      */
@@ -324,6 +839,29 @@ public class ChannelService {
         return List.of();
     }
     
+    /**
+     * NAMES回复的353行成员分段，按最长昵称预留空间，保证每行不超过512字节
+     */
+    public List<String> getNamesChunks(IrcChannel channel) {
+        return channel.getNamesChunks(namesBudget(channel));
+    }
+    
+    /**
+     * 请求者看到的NAMES分段：+D频道中普通成员只看到操作员和已公开的成员，操作员看到全部
+     */
+    public List<String> getNamesChunks(IrcChannel channel, String requester) {
+        if (channel.isOperator(requester)) {
+            return getNamesChunks(channel);
+        }
+        return channel.getVisibleNamesChunks(namesBudget(channel));
+    }
+    
+    private int namesBudget(IrcChannel channel) {
+        // ":server 353 <nick> = <channel> :" 加上CRLF，按UTF-8字节计算；昵称只允许ASCII，最大长度即字节数
+        int overhead = Utf8.length(serverName) + maxNicknameLength + Utf8.length(channel.getName()) + 16;
+        return 512 - overhead;
+    }
+    
     /**
      * 验证频道名称
      */
@@ -352,6 +890,7 @@ public class ChannelService {
     public Map<String, Object> getChannelStatistics() {
         Map<String, Object> stats = new ConcurrentHashMap<>();
         stats.put("totalChannels", channels.size());
+        stats.put("registeredChannels", channelStore.size());
         stats.put("maxChannels", maxChannels);
         
         int totalUsers = channels.values().stream()
@@ -384,6 +923,10 @@ public class ChannelService {
         info.put("createdAt", channel.getCreatedAt());
         info.put("hasKey", channel.getKey() != null);
         info.put("userLimit", channel.getUserLimit());
+        info.put("registered", channel.isRegistered());
+        if (channel.getFounder() != null) {
+            info.put("founder", channel.getFounder());
+        }
         
         return info;
     }
@@ -0,0 +1,322 @@
+package com.irc4spring.service;
+
+import com.irc4spring.history.HeapHistoryRing;
+import com.irc4spring.history.HistoryRing;
+import com.irc4spring.history.OffHeapHistoryRing;
+import com.irc4spring.model.HistoryEntry;
+import com.irc4spring.server.ServerTime;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 频道历史服务
+ * 每个频道一个定长环形缓冲区，保存带msgid和服务器时间的消息，用于CHATHISTORY查询。
+ * 内存同时受单频道槽位数和全局字节数限制，超出全局限制时淘汰最久没有新消息的频道历史。
+ */
+@Service
+public class HistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryService.class);
+
+    @Value("${irc.history.enabled:true}")
+    private boolean enabled;
+
+    @Value("${irc.history.max-per-channel:1024}")
+    private int maxPerChannel;
+
+    @Value("${irc.history.max-total-bytes:67108864}")
+    private long maxTotalBytes;
+
+    @Value("${irc.history.off-heap:false}")
+    private boolean offHeap;
+
+    @Value("${irc.history.off-heap-slot-bytes:1024}")
+    private int offHeapSlotBytes;
+
+    @Value("${irc.history.max-query:100}")
+    private int maxQueryLimit;
+
+    private final Map<String, HistoryRing> rings = new ConcurrentHashMap<>();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong messageCounter = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final String messageIdPrefix = Long.toString(new SecureRandom().nextLong() >>> 1, 36);
+
+    /**
+     * 堆外缓冲区依赖预览API，JVM未开启--enable-preview时退回堆内缓冲区
+     */
+    @PostConstruct
+    public void checkOffHeap() {
+        if (!offHeap) {
+            return;
+        }
+        try {
+            new OffHeapHistoryRing(1, offHeapSlotBytes).release();
+        } catch (UnsupportedClassVersionError e) {
+            logger.error("堆外历史缓冲区需要以--enable-preview启动JVM，改用堆内缓冲区");
+            offHeap = false;
+        }
+    }
+
+    /**
+     * 记录一条频道消息，返回带msgid和时间的历史条目
+     */
+    public HistoryEntry record(String channelName, String source, String command, String text) {
+        HistoryEntry entry = new HistoryEntry(nextMessageId(), System.currentTimeMillis(),
+            source, command, channelName, text);
+
+        if (enabled) {
+            HistoryRing ring = rings.get(channelName);
+            if (ring == null) {
+                ring = createRing(channelName);
+            }
+            if (ring != null) {
+                ring.append(entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 生成全局唯一的消息ID
+     */
+    public String nextMessageId() {
+        return messageIdPrefix + Long.toString(messageCounter.incrementAndGet(), 36);
+    }
+
+    /**
+     * 按配置创建频道缓冲区，超出全局内存上限时先淘汰最久未活跃的频道
+     */
+    private HistoryRing createRing(String channelName) {
+        int capacity = Integer.highestOneBit(Math.max(1, maxPerChannel - 1)) << 1;
+        HistoryRing ring = offHeap
+            ? new OffHeapHistoryRing(capacity, offHeapSlotBytes)
+            : new HeapHistoryRing(capacity);
+        long bytes = ring.memoryBytes();
+
+        if (bytes > maxTotalBytes) {
+            logger.warn("单频道历史大小超过全局上限，历史功能对频道{}不可用", channelName);
+            ring.release();
+            return null;
+        }
+
+        while (reservedBytes.addAndGet(bytes) > maxTotalBytes) {
+            reservedBytes.addAndGet(-bytes);
+            if (!evictOldest()) {
+                ring.release();
+                return null;
+            }
+        }
+
+        HistoryRing existing = rings.putIfAbsent(channelName, ring);
+        if (existing != null) {
+            reservedBytes.addAndGet(-bytes);
+            ring.release();
+            return existing;
+        }
+        return ring;
+    }
+
+    /**
+     * 丢弃频道的全部历史；频道被删除后同名频道可能由任何人重新创建，不能再看到之前的对话
+     */
+    public void remove(String channelName) {
+        HistoryRing removed = rings.remove(channelName);
+        if (removed != null) {
+            reservedBytes.addAndGet(-removed.memoryBytes());
+            removed.release();
+            logger.debug("丢弃已删除频道的历史: {}", channelName);
+        }
+    }
+
+    private boolean evictOldest() {
+        String oldest = null;
+        long oldestTime = Long.MAX_VALUE;
+        for (Map.Entry<String, HistoryRing> entry : rings.entrySet()) {
+            if (entry.getValue().getLastAppendTime() < oldestTime) {
+                oldestTime = entry.getValue().getLastAppendTime();
+                oldest = entry.getKey();
+            }
+        }
+
+        if (oldest == null) {
+            return false;
+        }
+
+        HistoryRing removed = rings.remove(oldest);
+        if (removed != null) {
+            reservedBytes.addAndGet(-removed.memoryBytes());
+            removed.release();
+            evictions.increment();
+            logger.debug("淘汰频道历史: {}", oldest);
+        }
+        return true;
+    }
+
+    /**
+     * LATEST：最新的消息，after不为空时只返回其之后的消息
+     */
+    public List<HistoryEntry> latest(String channelName, Reference after, int limit) {
+        List<HistoryEntry> entries = entries(channelName);
+        int from = after != null ? after.lowerBound(entries) : 0;
+        return tail(entries, from, entries.size(), limit);
+    }
+
+    /**
+     * BEFORE：参考点之前最近的消息
+     */
+    public List<HistoryEntry> before(String channelName, Reference reference, int limit) {
+        List<HistoryEntry> entries = entries(channelName);
+        return tail(entries, 0, reference.upperBound(entries), limit);
+    }
+
+    /**
+     * AFTER：参考点之后最早的消息
+     */
+    public List<HistoryEntry> after(String channelName, Reference reference, int limit) {
+        List<HistoryEntry> entries = entries(channelName);
+        return head(entries, reference.lowerBound(entries), entries.size(), limit);
+    }
+
+    /**
+     * BETWEEN：两个参考点之间的消息，第一个参考点较早时从前往后取，否则从后往前取
+     */
+    public List<HistoryEntry> between(String channelName, Reference first, Reference second, int limit) {
+        List<HistoryEntry> entries = entries(channelName);
+        int firstLower = first.lowerBound(entries);
+        int secondLower = second.lowerBound(entries);
+        if (firstLower <= secondLower) {
+            return head(entries, firstLower, second.upperBound(entries), limit);
+        }
+        return tail(entries, secondLower, first.upperBound(entries), limit);
+    }
+
+    private List<HistoryEntry> entries(String channelName) {
+        HistoryRing ring = rings.get(channelName);
+        return ring != null ? ring.snapshot() : List.of();
+    }
+
+    private List<HistoryEntry> head(List<HistoryEntry> entries, int from, int to, int limit) {
+        if (from >= to) {
+            return List.of();
+        }
+        return List.copyOf(entries.subList(from, Math.min(to, from + clampLimit(limit))));
+    }
+
+    private List<HistoryEntry> tail(List<HistoryEntry> entries, int from, int to, int limit) {
+        if (from >= to) {
+            return List.of();
+        }
+        return List.copyOf(entries.subList(Math.max(from, to - clampLimit(limit)), to));
+    }
+
+    private int clampLimit(int limit) {
+        return Math.max(0, Math.min(limit, maxQueryLimit));
+    }
+
+    /**
+     * 解析CHATHISTORY参考点：msgid=xxx 或 timestamp=ISO8601，无法解析时返回null
+     */
+    public Reference parseReference(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.startsWith("msgid=")) {
+            return new Reference(value.substring("msgid=".length()), 0);
+        }
+        if (value.startsWith("timestamp=")) {
+            try {
+                return new Reference(null, Instant.parse(value.substring("timestamp=".length())).toEpochMilli());
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 格式化IRCv3 server-time
+     */
+    public String formatServerTime(long epochMillis) {
+        return ServerTime.format(epochMillis);
+    }
+
+    public int getMaxQueryLimit() {
+        return maxQueryLimit;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取历史统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new ConcurrentHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("offHeap", offHeap);
+        stats.put("channels", rings.size());
+        stats.put("reservedBytes", reservedBytes.get());
+        stats.put("maxTotalBytes", maxTotalBytes);
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    /**
+     * CHATHISTORY参考点，msgid优先，否则按时间
+     */
+    public record Reference(String msgid, long time) {
+
+        /**
+         * 参考点之后第一条消息的下标
+         */
+        int lowerBound(List<HistoryEntry> entries) {
+            if (msgid != null) {
+                int index = indexOf(entries);
+                return index >= 0 ? index + 1 : entries.size();
+            }
+            int i = 0;
+            while (i < entries.size() && entries.get(i).time() <= time) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * 参考点之前最后一条消息的下标+1
+         */
+        int upperBound(List<HistoryEntry> entries) {
+            if (msgid != null) {
+                int index = indexOf(entries);
+                return index >= 0 ? index : 0;
+            }
+            int i = 0;
+            while (i < entries.size() && entries.get(i).time() < time) {
+                i++;
+            }
+            return i;
+        }
+
+        private int indexOf(List<HistoryEntry> entries) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (msgid.equals(entries.get(i).msgid())) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
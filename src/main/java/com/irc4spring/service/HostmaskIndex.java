@@ -0,0 +1,190 @@
+package com.irc4spring.service;
+
+import com.irc4spring.model.IrcUser;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * WHO掩码查询索引
+ * 规范化昵称有序存放，nick* 这类掩码按字面前缀取一个范围；主机名反转后有序存放，
+ * *.example.com 这类掩码的字面后缀反转后同样是一个前缀范围。
+ * 查询代价与命中的候选数量成正比，只有掩码两端都以通配符开头/结尾（如 *）时才退化为全量遍历，且受结果上限约束。
+ */
+@Service
+public class HostmaskIndex {
+
+    private static final char KEY_SEPARATOR = '\u0000';
+    // 规范化昵称 + 分隔符 + 用户ID -> 用户，与主机索引一样按用户区分，规范化昵称相同的两项不会互相覆盖
+    // 规范化昵称 + 分隔符 + 用户ID -> 用户，某一时刻只能有一项，但改名或下线的先后不会让一个用户覆盖另一个
+    private final ConcurrentSkipListMap<String, IrcUser> byNickname = new ConcurrentSkipListMap<>();
+    // 反转的小写主机名 + 分隔符 + 用户ID -> 用户，同一主机上的多个用户各占一项
+    private final ConcurrentSkipListMap<String, IrcUser> byHost = new ConcurrentSkipListMap<>();
+
+    public void add(IrcUser user) {
+        byNickname.put(nickKey(user.getNickname(), user), user);
+        if (user.getHostname() != null) {
+            byHost.put(hostKey(user), user);
+        }
+    }
+
+    public void remove(IrcUser user, String nickname) {
+        byNickname.remove(nickKey(nickname, user), user);
+        if (user.getHostname() != null) {
+            byHost.remove(hostKey(user), user);
+        }
+    }
+
+    /**
+     * 昵称变更后更新昵称索引，主机索引不受影响
+     */
+    public void rename(IrcUser user, String oldNickname) {
+        byNickname.remove(nickKey(oldNickname, user), user);
+        byNickname.put(nickKey(user.getNickname(), user), user);
+    }
+
+    /**
+     * 查找匹配掩码的用户，最多返回limit个
+     * 掩码为 nick!user@host 形式时分别匹配各部分；单个词时匹配昵称或主机名，
+     * 支持 * 与 ? 通配符，忽略大小写。
+     */
+    public List<IrcUser> find(String mask, int limit) {
+        String pattern = mask.toLowerCase(Locale.ROOT);
+        String nickPattern;
+        String userPattern = "*";
+        String hostPattern;
+        boolean either;
+
+        int at = pattern.indexOf('@');
+        int bang = pattern.indexOf('!');
+        if (bang >= 0 || at >= 0) {
+            int nickEnd = bang >= 0 ? bang : (at >= 0 ? at : pattern.length());
+            nickPattern = nickEnd > 0 ? pattern.substring(0, nickEnd) : "*";
+            if (bang >= 0) {
+                userPattern = pattern.substring(bang + 1, at > bang ? at : pattern.length());
+            }
+            hostPattern = at >= 0 ? pattern.substring(at + 1) : "*";
+            either = false;
+        } else {
+            nickPattern = pattern;
+            hostPattern = pattern;
+            either = true;
+        }
+
+        Collection<IrcUser> candidates = candidates(nickPattern, hostPattern, either);
+        List<IrcUser> result = new ArrayList<>();
+        for (IrcUser user : candidates) {
+            if (result.size() >= limit) {
+                break;
+            }
+            boolean nickMatch = matches(nickPattern, MonitorService.casefold(user.getNickname()));
+            boolean hostMatch = user.getHostname() != null
+                && matches(hostPattern, user.getHostname().toLowerCase(Locale.ROOT));
+            boolean matched;
+            if (either) {
+                matched = nickMatch || hostMatch;
+            } else {
+                String username = user.getUsername() != null ? user.getUsername().toLowerCase(Locale.ROOT) : "";
+                matched = nickMatch && hostMatch && matches(userPattern, username);
+            }
+            if (matched) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 根据掩码的字面前缀/后缀从有序索引中取候选范围
+     *
+     * @param either true时昵称或主机名任一匹配即可，需要合并两个范围
+     */
+    private Collection<IrcUser> candidates(String nickPattern, String hostPattern, boolean either) {
+        String nickPrefix = literalPrefix(nickPattern);
+        String hostSuffix = literalSuffix(hostPattern);
+
+        if (either) {
+            if (nickPrefix.isEmpty() || hostSuffix.isEmpty()) {
+                return byNickname.values();
+            }
+            Set<IrcUser> merged = new LinkedHashSet<>(prefixRange(byNickname, nickPrefix));
+            merged.addAll(prefixRange(byHost, reverse(hostSuffix)));
+            return merged;
+        }
+
+        // 同时约束昵称与主机时，取字面部分更长、通常更有选择性的一边
+        if (!nickPrefix.isEmpty() && nickPrefix.length() >= hostSuffix.length()) {
+            return prefixRange(byNickname, nickPrefix);
+        }
+        if (!hostSuffix.isEmpty()) {
+            return prefixRange(byHost, reverse(hostSuffix));
+        }
+        return byNickname.values();
+    }
+
+    private static Collection<IrcUser> prefixRange(ConcurrentSkipListMap<String, IrcUser> index, String prefix) {
+        return index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+    }
+
+    private static String literalPrefix(String pattern) {
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '*' && pattern.charAt(end) != '?') {
+            end++;
+        }
+        return pattern.substring(0, end);
+    }
+
+    private static String literalSuffix(String pattern) {
+        int start = pattern.length();
+        while (start > 0 && pattern.charAt(start - 1) != '*' && pattern.charAt(start - 1) != '?') {
+            start--;
+        }
+        return pattern.substring(start);
+    }
+
+    private static String nickKey(String nickname, IrcUser user) {
+        return MonitorService.casefold(nickname) + KEY_SEPARATOR + user.getId();
+    }
+
+    private static String hostKey(IrcUser user) {
+        return reverse(user.getHostname().toLowerCase(Locale.ROOT)) + KEY_SEPARATOR + user.getId();
+    }
+
+    private static String reverse(String value) {
+        return new StringBuilder(value).reverse().toString();
+    }
+
+    /**
+     * 通配符匹配：* 匹配任意串，? 匹配单个字符（调用方已统一小写）
+     */
+    static boolean matches(String pattern, String text) {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int mark = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
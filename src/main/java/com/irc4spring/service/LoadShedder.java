@@ -0,0 +1,178 @@
+package com.irc4spring.service;
+
+import com.irc4spring.constant.IrcCommand;
+import com.irc4spring.server.ClientConnection;
+import com.irc4spring.server.execution.ExecutionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 过载保护
+ * 根据最近一个评估周期内的平均调度延迟（共享线程模型中会话等待工作线程的时间，
+ * virtual模型中虚拟线程等待载体线程的时间）和全部连接的出站积压判断负载级别：
+ * ELEVATED时拒绝可延后的查询（LIST、WHO、NAMES、管理统计接口），正在输出的LIST暂停；
+ * CRITICAL时再拒绝WHOIS、ISON、USERHOST、CHATHISTORY等次要查询和TAGMSG。
+ * PRIVMSG/NOTICE、PING/PONG、注册与认证、JOIN/PART/QUIT从不拒绝，服务器在突发负载下逐级降级而不是整体不可用。
+ * 级别在请求到来时按周期惰性重新评估，空闲时没有后台开销。
+ */
+@Service
+public class LoadShedder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadShedder.class);
+
+    /**
+     * 负载级别
+     */
+    public enum Level {
+        NORMAL, ELEVATED, CRITICAL
+    }
+
+    /**
+     * 管理统计接口在拒绝计数中使用的名称
+     */
+    public static final String ADMIN_STATS = "ADMIN_STATS";
+
+    // ELEVATED起拒绝
+    private static final Set<String> DEFERRABLE = Set.of(IrcCommand.LIST, IrcCommand.WHO, IrcCommand.NAMES,
+        IrcCommand.SEARCH, ADMIN_STATS);
+    // CRITICAL起拒绝，频道管理（MODE/KICK/TOPIC）保留以便操作员在高负载下处理刷屏
+    private static final Set<String> SECONDARY = Set.of(IrcCommand.WHOIS, IrcCommand.ISON, IrcCommand.USERHOST,
+        IrcCommand.MONITOR, IrcCommand.CHATHISTORY, IrcCommand.TAGMSG);
+
+    @Value("${irc.overload.enabled:true}")
+    private boolean enabled;
+
+    @Value("${irc.overload.evaluate-interval-ms:250}")
+    private long evaluateIntervalMs;
+
+    @Value("${irc.overload.queue-latency-ms:50}")
+    private long elevatedQueueLatencyMs;
+
+    @Value("${irc.overload.critical-queue-latency-ms:250}")
+    private long criticalQueueLatencyMs;
+
+    @Value("${irc.overload.outbound-backlog-bytes:67108864}")
+    private long elevatedBacklogBytes;
+
+    @Value("${irc.overload.critical-outbound-backlog-bytes:268435456}")
+    private long criticalBacklogBytes;
+
+    @Autowired
+    private ExecutionModel executionModel;
+
+    private final ReentrantLock evaluateLock = new ReentrantLock();
+    private final Map<String, LongAdder> shed = new ConcurrentHashMap<>();
+    private final LongAdder deferrals = new LongAdder();
+    private final LongAdder transitions = new LongAdder();
+
+    private volatile Level level = Level.NORMAL;
+    private volatile long evaluatedAt;
+    private volatile long queueLatencyMicros;
+    private volatile long outboundBacklogBytes;
+    private ExecutionModel.QueueSample lastSample;
+
+    /**
+     * 当前负载下是否应拒绝该命令，拒绝时计数
+     */
+    public boolean shouldShed(String command) {
+        Level current = level();
+        boolean reject = switch (current) {
+            case NORMAL -> false;
+            case ELEVATED -> DEFERRABLE.contains(command);
+            case CRITICAL -> DEFERRABLE.contains(command) || SECONDARY.contains(command);
+        };
+        if (reject) {
+            shed.computeIfAbsent(command, key -> new LongAdder()).increment();
+        }
+        return reject;
+    }
+
+    /**
+     * 正在输出的大批量结果（LIST）在过载时暂停的毫秒数，负载正常时为0
+     */
+    public long deferMillis() {
+        if (level() == Level.NORMAL) {
+            return 0;
+        }
+        deferrals.increment();
+        return evaluateIntervalMs;
+    }
+
+    public Level level() {
+        if (!enabled) {
+            return Level.NORMAL;
+        }
+        long now = System.currentTimeMillis();
+        if (now - evaluatedAt >= evaluateIntervalMs && evaluateLock.tryLock()) {
+            try {
+                if (now - evaluatedAt >= evaluateIntervalMs) {
+                    evaluate(now);
+                }
+            } finally {
+                evaluateLock.unlock();
+            }
+        }
+        return level;
+    }
+
+    private void evaluate(long now) {
+        ExecutionModel.QueueSample sample = executionModel.sampleQueue();
+        long latencyMicros = 0;
+        if (lastSample != null) {
+            long started = sample.startedTasks() - lastSample.startedTasks();
+            if (started > 0) {
+                latencyMicros = (sample.queueNanos() - lastSample.queueNanos()) / started / 1000;
+            } else if (sample.pendingTasks() > 0) {
+                // 整个周期内没有调度开始执行但仍有积压，按已等待一个周期计算
+                latencyMicros = (now - evaluatedAt) * 1000;
+            }
+        }
+        lastSample = sample;
+        evaluatedAt = now;
+        queueLatencyMicros = latencyMicros;
+        outboundBacklogBytes = ClientConnection.getTotalQueuedBytes();
+
+        Level next;
+        if (latencyMicros >= criticalQueueLatencyMs * 1000 || outboundBacklogBytes >= criticalBacklogBytes) {
+            next = Level.CRITICAL;
+        } else if (latencyMicros >= elevatedQueueLatencyMs * 1000 || outboundBacklogBytes >= elevatedBacklogBytes) {
+            next = Level.ELEVATED;
+        } else {
+            next = Level.NORMAL;
+        }
+        if (next != level) {
+            transitions.increment();
+            logger.warn("负载级别变化: {} -> {} (排队{}us, 出站积压{}字节)", level, next, latencyMicros, outboundBacklogBytes);
+            level = next;
+        }
+    }
+
+    /**
+     * 过载保护统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("level", level().name());
+        stats.put("queueLatencyMicros", queueLatencyMicros);
+        stats.put("outboundBacklogBytes", outboundBacklogBytes);
+        stats.put("queueLatencyThresholdsMs", Map.of("elevated", elevatedQueueLatencyMs, "critical", criticalQueueLatencyMs));
+        stats.put("outboundBacklogThresholds", Map.of("elevated", elevatedBacklogBytes, "critical", criticalBacklogBytes));
+        stats.put("transitions", transitions.sum());
+        stats.put("listDeferrals", deferrals.sum());
+        Map<String, Long> shedCounts = new LinkedHashMap<>();
+        shed.forEach((command, count) -> shedCounts.put(command, count.sum()));
+        stats.put("shed", shedCounts);
+        return stats;
+    }
+}
@@ -0,0 +1,338 @@
+package com.irc4spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 登录限流服务
+ * 按来源IP和账户分别统计失败次数（滑动窗口计数：上一窗口按剩余比例加权 + 当前窗口），
+ * 超过阈值后进入封禁，再次超限时封禁时间指数增长。
+ * 计数表分段加锁，每段是按访问顺序淘汰的有界LinkedHashMap，过期条目在访问和淘汰时清除：
+ * 攻击者轮换任意多的IP只会挤掉最久未活动的IP条目，内存占用不超过配置的上限；账户计数单独存放，不会被IP洪泛冲掉。
+ * 调用方必须在任何哈希计算之前调用{@link #checkAllowed(InetAddress, String)}。
+ */
+@Service
+public class LoginThrottleService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoginThrottleService.class);
+
+    private static final int IPV6_PREFIX_BYTES = 8;
+
+    @Value("${irc.auth.throttle.enabled:true}")
+    private boolean enabled;
+
+    @Value("${irc.auth.throttle.window-ms:60000}")
+    private long windowMillis;
+
+    @Value("${irc.auth.throttle.ip-max-failures:20}")
+    private int ipMaxFailures;
+
+    @Value("${irc.auth.throttle.account-max-failures:5}")
+    private int accountMaxFailures;
+
+    @Value("${irc.auth.throttle.base-backoff-ms:1000}")
+    private long baseBackoffMillis;
+
+    @Value("${irc.auth.throttle.max-backoff-ms:900000}")
+    private long maxBackoffMillis;
+
+    @Value("${irc.auth.throttle.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${irc.auth.throttle.stripes:16}")
+    private int stripeCount;
+
+    private CounterTable ipCounters;
+    private CounterTable accountCounters;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder throttledByIp = new LongAdder();
+    private final LongAdder throttledByAccount = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        int stripes = Integer.highestOneBit(Math.max(1, stripeCount));
+        // 账户和IP各占一半的条目上限
+        int perStripe = Math.max(16, maxEntries / 2 / stripes);
+        ipCounters = new CounterTable(stripes, perStripe, ipMaxFailures);
+        accountCounters = new CounterTable(stripes, perStripe, accountMaxFailures);
+        logger.info("登录限流已{}: 窗口{}ms，IP上限{}次，账户上限{}次，最多{}个条目",
+            enabled ? "启用" : "关闭", windowMillis, ipMaxFailures, accountMaxFailures, perStripe * stripes * 2);
+    }
+
+    /**
+     * 检查本次登录尝试是否允许进行，被限流时直接拒绝，不计入失败次数
+     *
+     * @param address  客户端地址，REST等没有来源地址的调用传null
+     * @param username 尝试登录的账户
+     */
+    public boolean checkAllowed(InetAddress address, String username) {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        String ipKey = ipKey(address);
+        if (ipKey != null && ipCounters.blockedUntil(ipKey, now) > now) {
+            throttledByIp.increment();
+            logger.debug("登录被限流（IP）: {} -> {}", ipKey, username);
+            return false;
+        }
+        String accountKey = accountKey(username);
+        if (accountKey != null && accountCounters.blockedUntil(accountKey, now) > now) {
+            throttledByAccount.increment();
+            logger.debug("登录被限流（账户）: {} <- {}", accountKey, ipKey);
+            return false;
+        }
+        allowed.increment();
+        return true;
+    }
+
+    /**
+     * 记录一次失败的登录
+     */
+    public void recordFailure(InetAddress address, String username) {
+        if (!enabled) {
+            return;
+        }
+        failures.increment();
+        long now = System.currentTimeMillis();
+        String ipKey = ipKey(address);
+        if (ipKey != null) {
+            long until = ipCounters.recordFailure(ipKey, now);
+            if (until > now) {
+                logger.warn("来源{}登录失败过多，封禁{}ms", ipKey, until - now);
+            }
+        }
+        String accountKey = accountKey(username);
+        if (accountKey != null) {
+            long until = accountCounters.recordFailure(accountKey, now);
+            if (until > now) {
+                logger.warn("账户{}登录失败过多，封禁{}ms", accountKey, until - now);
+            }
+        }
+    }
+
+    /**
+     * 记录一次成功的登录：清除账户的失败记录，IP计数保留，避免攻击者用自己的账户重置IP限流
+     */
+    public void recordSuccess(InetAddress address, String username) {
+        String accountKey = accountKey(username);
+        if (enabled && accountKey != null) {
+            accountCounters.clear(accountKey);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("windowMillis", windowMillis);
+        stats.put("ipMaxFailures", ipMaxFailures);
+        stats.put("accountMaxFailures", accountMaxFailures);
+        stats.put("trackedIps", ipCounters.size());
+        stats.put("trackedAccounts", accountCounters.size());
+        stats.put("blockedIps", ipCounters.blockedCount(System.currentTimeMillis()));
+        stats.put("blockedAccounts", accountCounters.blockedCount(System.currentTimeMillis()));
+        stats.put("allowed", allowed.sum());
+        stats.put("failures", failures.sum());
+        stats.put("throttledByIp", throttledByIp.sum());
+        stats.put("throttledByAccount", throttledByAccount.sum());
+        stats.put("evictions", ipCounters.evictions.sum() + accountCounters.evictions.sum());
+        return stats;
+    }
+
+    /**
+     * IPv4按完整地址计数，IPv6按/64前缀计数（同一用户通常可以随意使用整个/64）
+     */
+    private static String ipKey(InetAddress address) {
+        if (address == null) {
+            return null;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet6Address) {
+            StringBuilder prefix = new StringBuilder(20);
+            for (int i = 0; i < IPV6_PREFIX_BYTES; i += 2) {
+                prefix.append(Integer.toHexString(((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff))).append(':');
+            }
+            return prefix.append(":/64").toString();
+        }
+        return address.getHostAddress();
+    }
+
+    private static String accountKey(String username) {
+        return username != null ? username.toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * 一个键的失败计数
+     */
+    private static final class Counter {
+        long windowStart;
+        int previous;
+        int current;
+        int strikes;
+        long blockedUntil;
+        long lastFailure;
+    }
+
+    /**
+     * 分段加锁的有界计数表
+     */
+    private final class CounterTable {
+
+        private final Stripe[] stripes;
+        private final int maxFailures;
+        private final LongAdder evictions = new LongAdder();
+
+        CounterTable(int stripeCount, int perStripe, int maxFailures) {
+            this.stripes = new Stripe[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new Stripe(perStripe);
+            }
+            this.maxFailures = maxFailures;
+        }
+
+        private Stripe stripe(String key) {
+            int h = key.hashCode();
+            return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+        }
+
+        long blockedUntil(String key, long now) {
+            Stripe stripe = stripe(key);
+            stripe.lock.lock();
+            try {
+                Counter counter = stripe.map.get(key);
+                if (counter == null) {
+                    return 0;
+                }
+                if (isExpired(counter, now)) {
+                    stripe.map.remove(key);
+                    return 0;
+                }
+                return counter.blockedUntil;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        long recordFailure(String key, long now) {
+            Stripe stripe = stripe(key);
+            stripe.lock.lock();
+            try {
+                Counter counter = stripe.map.get(key);
+                if (counter == null || isExpired(counter, now)) {
+                    counter = new Counter();
+                    counter.windowStart = now;
+                    stripe.map.put(key, counter);
+                }
+                roll(counter, now);
+                counter.current++;
+                counter.lastFailure = now;
+
+                long elapsed = now - counter.windowStart;
+                double estimate = counter.previous * (double) (windowMillis - elapsed) / windowMillis + counter.current;
+                if (estimate > maxFailures) {
+                    // 每次超限封禁时间翻倍，封禁期间的尝试在检查时就被拒绝，不会走到这里
+                    long backoff = baseBackoffMillis << Math.min(counter.strikes, 30);
+                    counter.strikes++;
+                    counter.blockedUntil = now + Math.min(maxBackoffMillis, backoff);
+                    return counter.blockedUntil;
+                }
+                return 0;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        void clear(String key) {
+            Stripe stripe = stripe(key);
+            stripe.lock.lock();
+            try {
+                stripe.map.remove(key);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    size += stripe.map.size();
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            return size;
+        }
+
+        int blockedCount(long now) {
+            int count = 0;
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    for (Counter counter : stripe.map.values()) {
+                        if (counter.blockedUntil > now) {
+                            count++;
+                        }
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 滑动窗口前移：跨过一个窗口时当前计数变为上一窗口，跨过两个以上窗口时全部清零
+         */
+        private void roll(Counter counter, long now) {
+            long elapsed = now - counter.windowStart;
+            if (elapsed < windowMillis) {
+                return;
+            }
+            long windows = elapsed / windowMillis;
+            counter.previous = windows == 1 ? counter.current : 0;
+            counter.current = 0;
+            counter.windowStart += windows * windowMillis;
+        }
+
+        /**
+         * 封禁已结束，且最后一次失败已超过窗口和最长封禁时间，条目不再有意义（退避级别也随之重置）
+         */
+        private boolean isExpired(Counter counter, long now) {
+            return counter.blockedUntil <= now
+                && now - counter.lastFailure > Math.max(2 * windowMillis, maxBackoffMillis);
+        }
+
+        private final class Stripe {
+            private final ReentrantLock lock = new ReentrantLock();
+            private final LinkedHashMap<String, Counter> map;
+
+            Stripe(int capacity) {
+                this.map = new LinkedHashMap<>(64, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Counter> eldest) {
+                        if (size() > capacity) {
+                            evictions.increment();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+        }
+    }
+}
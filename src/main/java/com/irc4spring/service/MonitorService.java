@@ -0,0 +1,93 @@
+package com.irc4spring.service;
+
+import com.irc4spring.model.IrcUser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MONITOR在线状态订阅
+ * 维护 规范化昵称 -> 订阅者 的反向索引，用户上线、下线、改名时只需通知该昵称的订阅者，
+ * 代价与订阅者数量成正比，与在线用户总数无关；每个客户端的订阅列表保存在IrcUser上，受数量上限约束。
+ */
+@Service
+public class MonitorService {
+
+    @Value("${irc.monitor.max-targets:100}")
+    private int maxTargets;
+
+    private final Map<String, Set<IrcUser>> watchers = new ConcurrentHashMap<>();
+
+    /**
+     * 规范化昵称：昵称只允许ASCII字母、数字、下划线和连字符，按ASCII忽略大小写
+     */
+    public static String casefold(String nickname) {
+        return nickname.toLowerCase(Locale.ROOT);
+    }
+
+    public int getMaxTargets() {
+        return maxTargets;
+    }
+
+    /**
+     * 添加订阅，已在列表中时视为成功
+     *
+     * @return 超出上限时返回false
+     */
+    public boolean add(IrcUser watcher, String target) {
+        String key = casefold(target);
+        Map<String, String> list = watcher.getMonitorList();
+        if (list.containsKey(key)) {
+            return true;
+        }
+        if (list.size() >= maxTargets) {
+            return false;
+        }
+        list.put(key, target);
+        watchers.compute(key, (k, set) -> {
+            Set<IrcUser> result = set != null ? set : ConcurrentHashMap.newKeySet();
+            result.add(watcher);
+            return result;
+        });
+        return true;
+    }
+
+    public void remove(IrcUser watcher, String target) {
+        String key = casefold(target);
+        if (watcher.getMonitorList().remove(key) != null) {
+            unindex(watcher, key);
+        }
+    }
+
+    /**
+     * 清空订阅列表（MONITOR C 或断开连接）
+     */
+    public void clear(IrcUser watcher) {
+        Map<String, String> list = watcher.getMonitorList();
+        for (String key : List.copyOf(list.keySet())) {
+            list.remove(key);
+            unindex(watcher, key);
+        }
+    }
+
+    /**
+     * 订阅了该昵称的客户端
+     */
+    public Collection<IrcUser> getWatchers(String nickname) {
+        Set<IrcUser> set = watchers.get(casefold(nickname));
+        return set != null ? set : List.of();
+    }
+
+    private void unindex(IrcUser watcher, String key) {
+        watchers.computeIfPresent(key, (k, set) -> {
+            set.remove(watcher);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -0,0 +1,429 @@
+package com.irc4spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 密码哈希服务
+ * 使用PBKDF2派生密码哈希，计算全部在固定大小的平台线程池上执行，队列有界：
+ * 登录风暴时最多占用配置的核数，其余请求排队或被拒绝，不会挤占消息投递所需的CPU。
+ * 账户只保存SCRAM-SHA-256派生的密钥：scram-sha-256$迭代次数$盐$StoredKey$ServerKey（Base64），
+ * SASL SCRAM交换只需这两个密钥，服务器不需要明文密码。
+ * 旧版的 pbkdf2-sha256$迭代次数$盐$哈希 和 Base64(盐+SHA-256) 格式仍可验证，
+ * 调用方在登录成功后通过{@link #needsUpgrade(String)}判断是否需要重新哈希。
+ * 明文密码验证成功后在内存中缓存 HMAC(进程随机密钥, 密码)，重连风暴时每个客户端只需一次HMAC而不必重跑PBKDF2。
+ */
+@Service
+public class PasswordHashService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHashService.class);
+
+    private static final String PREFIX = "scram-sha-256$";
+    private static final String PBKDF2_PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String HMAC = "HmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int LEGACY_SALT_BYTES = 16;
+
+    @Value("${irc.auth.kdf.iterations:600000}")
+    private int iterations;
+
+    @Value("${irc.auth.kdf.threads:0}")
+    private int threads;
+
+    @Value("${irc.auth.kdf.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${irc.auth.kdf.timeout-ms:10000}")
+    private long timeoutMillis;
+
+    @Value("${irc.auth.kdf.verify-cache-size:10000}")
+    private int verifyCacheSize;
+
+    @Value("${irc.auth.kdf.verify-cache-ttl-ms:600000}")
+    private long verifyCacheTtlMillis;
+
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] cacheSecret = new byte[32];
+
+    /**
+     * 已验证的 存储哈希 -> 密码HMAC 缓存，按访问顺序淘汰；哈希变化（改密码、升级）后旧条目自然失效
+     */
+    private final LinkedHashMap<String, VerifiedEntry> verifiedCache = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock cacheLock = new ReentrantLock();
+    private final LongAdder cacheHits = new LongAdder();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder legacyVerifications = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAccumulator maxQueueNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder computeNanos = new LongAdder();
+
+    private ThreadPoolExecutor executor;
+    // 不存在的账户用它验证，耗时与真实账户相同，但不可能通过
+    private String dummyHash;
+
+    /**
+     * SCRAM-SHA-256凭据
+     */
+    public record ScramCredentials(int iterations, byte[] salt, byte[] storedKey, byte[] serverKey) {
+    }
+
+    private record VerifiedEntry(byte[] mac, long expiresAt) {
+    }
+
+    @PostConstruct
+    public void start() {
+        random.nextBytes(cacheSecret);
+        dummyHash = randomScramHash();
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().daemon().name("irc-kdf-", 0).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+        logger.info("密码哈希线程池已启动: {}个线程，队列容量{}，PBKDF2迭代{}次", poolSize, queueCapacity, iterations);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 计算密码哈希，在哈希线程池上执行并等待结果
+     *
+     * @throws RejectedExecutionException 队列已满或等待超时
+     */
+    public String hash(String password) {
+        return execute(() -> scramHash(password));
+    }
+
+    /**
+     * 异步计算密码哈希，用于登录后的哈希升级等不需要等待的场景
+     */
+    public CompletableFuture<String> hashAsync(String password) {
+        try {
+            return submit(() -> scramHash(password));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 验证密码，兼容旧版SHA-256哈希
+     *
+     * @throws RejectedExecutionException 队列已满或等待超时
+     */
+    public boolean verify(String password, String storedHash) {
+        if (storedHash.startsWith(PREFIX)) {
+            byte[] mac = hmac(cacheSecret, password.getBytes(StandardCharsets.UTF_8));
+            if (isCached(storedHash, mac)) {
+                cacheHits.increment();
+                return true;
+            }
+            boolean verified = execute(() -> verifyScram(password, storedHash));
+            if (verified) {
+                cacheVerified(storedHash, mac);
+            }
+            return verified;
+        }
+        if (storedHash.startsWith(PBKDF2_PREFIX)) {
+            return execute(() -> verifyPbkdf2(password, storedHash));
+        }
+        // 旧版单次SHA-256开销很小，直接在调用线程上验证
+        legacyVerifications.increment();
+        return verifyLegacy(password, storedHash);
+    }
+
+    /**
+     * 对不存在的账户做一次同样代价的验证，避免按响应时间区分账户是否存在；结果总是失败
+     *
+     * @throws RejectedExecutionException 队列已满或等待超时
+     */
+    public void verifyDummy(String password) {
+        execute(() -> verifyScram(password, dummyHash));
+    }
+
+    /**
+     * 解析SCRAM凭据，非SCRAM格式的旧哈希返回null
+     */
+    public ScramCredentials scramCredentials(String storedHash) {
+        if (storedHash == null || !storedHash.startsWith(PREFIX)) {
+            return null;
+        }
+        String[] parts = storedHash.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 4) {
+            return null;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        return new ScramCredentials(Integer.parseInt(parts[0]), decoder.decode(parts[1]),
+            decoder.decode(parts[2]), decoder.decode(parts[3]));
+    }
+
+    /**
+     * 当前配置的迭代次数，用于为不存在的账户构造假的SCRAM参数
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    public static byte[] hmac(byte[] key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(key, HMAC));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isCached(String storedHash, byte[] mac) {
+        cacheLock.lock();
+        try {
+            VerifiedEntry entry = verifiedCache.get(storedHash);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.expiresAt() < System.currentTimeMillis()) {
+                verifiedCache.remove(storedHash);
+                return false;
+            }
+            return MessageDigest.isEqual(entry.mac(), mac);
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private void cacheVerified(String storedHash, byte[] mac) {
+        if (verifyCacheSize <= 0) {
+            return;
+        }
+        cacheLock.lock();
+        try {
+            verifiedCache.put(storedHash, new VerifiedEntry(mac, System.currentTimeMillis() + verifyCacheTtlMillis));
+            Iterator<String> eldest = verifiedCache.keySet().iterator();
+            while (verifiedCache.size() > verifyCacheSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * 哈希是否需要升级：非SCRAM格式或迭代次数低于当前配置
+     */
+    public boolean needsUpgrade(String storedHash) {
+        if (!storedHash.startsWith(PREFIX)) {
+            return true;
+        }
+        String[] parts = storedHash.substring(PREFIX.length()).split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[0]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 提交到哈希线程池并同步等待；调用方是连接所在的虚拟线程，或platform-pool/event-loop模式下
+     * 承载阻塞任务（ExecutionModel.BlockingTask）的虚拟线程，阻塞等待不占用共享的工作线程
+     */
+    private <T> T execute(Callable<T> task) {
+        CompletableFuture<T> future = submit(task);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.increment();
+            throw new RejectedExecutionException("密码哈希等待超时", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new RejectedExecutionException("密码哈希被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("密码哈希失败", e.getCause());
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        long enqueuedAt = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                long waited = startedAt - enqueuedAt;
+                queueNanos.add(waited);
+                maxQueueNanos.accumulate(waited);
+                try {
+                    result.complete(task.call());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    computeNanos.add(System.nanoTime() - startedAt);
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        submitted.increment();
+        // 等待方超时取消时同时取消尚在排队的任务
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * SaltedPassword = PBKDF2(密码, 盐, 迭代次数)，只保存 StoredKey = H(HMAC(SaltedPassword, "Client Key"))
+     * 和 ServerKey = HMAC(SaltedPassword, "Server Key")
+     */
+    private String scramHash(String password) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] saltedPassword = pbkdf2(password, salt, iterations);
+        byte[] storedKey = sha256(hmac(saltedPassword, "Client Key".getBytes(StandardCharsets.US_ASCII)));
+        byte[] serverKey = hmac(saltedPassword, "Server Key".getBytes(StandardCharsets.US_ASCII));
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+            + encoder.encodeToString(storedKey) + "$" + encoder.encodeToString(serverKey);
+    }
+
+    /**
+     * 使用当前迭代次数和随机密钥构造的SCRAM哈希，没有任何密码与之匹配
+     */
+    private String randomScramHash() {
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] storedKey = new byte[32];
+        byte[] serverKey = new byte[32];
+        random.nextBytes(salt);
+        random.nextBytes(storedKey);
+        random.nextBytes(serverKey);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+            + encoder.encodeToString(storedKey) + "$" + encoder.encodeToString(serverKey);
+    }
+
+    private boolean verifyScram(String password, String storedHash) throws GeneralSecurityException {
+        ScramCredentials credentials = scramCredentials(storedHash);
+        if (credentials == null) {
+            return false;
+        }
+        byte[] saltedPassword = pbkdf2(password, credentials.salt(), credentials.iterations());
+        byte[] storedKey = sha256(hmac(saltedPassword, "Client Key".getBytes(StandardCharsets.US_ASCII)));
+        return MessageDigest.isEqual(credentials.storedKey(), storedKey);
+    }
+
+    private boolean verifyPbkdf2(String password, String storedHash) throws GeneralSecurityException {
+        String[] parts = storedHash.substring(PBKDF2_PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        int storedIterations = Integer.parseInt(parts[0]);
+        byte[] salt = Base64.getDecoder().decode(parts[1]);
+        byte[] expected = Base64.getDecoder().decode(parts[2]);
+        return MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * 验证旧版格式：Base64(16字节盐 + SHA-256(盐 + 密码))
+     */
+    private boolean verifyLegacy(String password, String storedHash) {
+        try {
+            byte[] combined = Base64.getDecoder().decode(storedHash);
+            if (combined.length <= LEGACY_SALT_BYTES) {
+                return false;
+            }
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(combined, 0, LEGACY_SALT_BYTES);
+            byte[] hashed = md.digest(password.getBytes(StandardCharsets.UTF_8));
+            byte[] stored = new byte[combined.length - LEGACY_SALT_BYTES];
+            System.arraycopy(combined, LEGACY_SALT_BYTES, stored, 0, stored.length);
+            return MessageDigest.isEqual(stored, hashed);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 获取密码哈希线程池统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("algorithm", ALGORITHM);
+        stats.put("iterations", iterations);
+        stats.put("threads", executor.getCorePoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        long done = completed.sum();
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", done);
+        stats.put("rejected", rejected.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("legacyVerifications", legacyVerifications.sum());
+        stats.put("verifyCacheHits", cacheHits.sum());
+        stats.put("avgQueueMillis", done > 0 ? queueNanos.sum() / 1e6 / done : 0);
+        stats.put("maxQueueMillis", maxQueueNanos.get() / 1e6);
+        stats.put("avgComputeMillis", done > 0 ? computeNanos.sum() / 1e6 / done : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,155 @@
+package com.irc4spring.service;
+
+import com.irc4spring.model.IrcUser;
+import com.irc4spring.model.TokenBucket;
+import com.irc4spring.model.UserRole;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 高开销查询的成本预算
+ * 每条查询按产生的回复行数计费，同时扣除会话桶（每个连接一个）和查询类别桶（全服共享，防止大量连接合力压垮服务器）。
+ * 同步执行的查询（NAMES、WHO、WHOIS）预算不足时直接以263拒绝，不会占住会话的命令线程；
+ * LIST本身在独立线程中分批输出，每批按需等待预算补足，因此是被延后而不是被拒绝，大型服务器上的完整LIST也能完成。
+ * IRC操作员不受会话预算限制，但仍计入类别预算。
+ */
+@Service
+public class QueryBudgetService {
+
+    /**
+     * 计费的查询类别
+     */
+    public enum QueryClass {
+        LIST, NAMES, WHO, WHOIS
+    }
+
+    @Value("${irc.query.budget.enabled:true}")
+    private boolean enabled;
+
+    @Value("${irc.query.budget.session-capacity:2000}")
+    private long sessionCapacity;
+
+    @Value("${irc.query.budget.session-refill-per-second:100}")
+    private long sessionRefillPerSecond;
+
+    @Value("${irc.query.budget.class-capacity:50000}")
+    private long classCapacity;
+
+    @Value("${irc.query.budget.class-refill-per-second:10000}")
+    private long classRefillPerSecond;
+
+    private final Map<QueryClass, TokenBucket> classBuckets = new EnumMap<>(QueryClass.class);
+    private final Map<QueryClass, Counters> counters = new EnumMap<>(QueryClass.class);
+    private final ReentrantLock initLock = new ReentrantLock();
+
+    private static final class Counters {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder delayed = new LongAdder();
+        private final LongAdder delayMillis = new LongAdder();
+        private final LongAdder refused = new LongAdder();
+    }
+
+    @PostConstruct
+    public void init() {
+        for (QueryClass queryClass : QueryClass.values()) {
+            classBuckets.put(queryClass, new TokenBucket(classCapacity, classRefillPerSecond));
+            counters.put(queryClass, new Counters());
+        }
+    }
+
+    /**
+     * 为一次查询计费
+     *
+     * @param rows 本次查询产生的回复行数
+     * @param maxDelayMillis 可以接受的最长等待，0表示预算不足时直接拒绝
+     * @return 0表示立即执行；正数为需要先等待的毫秒数；-1表示拒绝
+     */
+    public long charge(IrcUser user, QueryClass queryClass, long rows, long maxDelayMillis) {
+        Counters counter = counters.get(queryClass);
+        if (!enabled || rows <= 0) {
+            return 0;
+        }
+
+        TokenBucket session = null;
+        long sessionDelay = 0;
+        if (user != null && !user.hasPermission(UserRole.OPERATOR)) {
+            session = sessionBucket(user);
+            sessionDelay = session.charge(rows, maxDelayMillis);
+            if (sessionDelay < 0) {
+                counter.refused.increment();
+                return -1;
+            }
+        }
+
+        long classDelay = classBuckets.get(queryClass).charge(rows, maxDelayMillis);
+        if (classDelay < 0) {
+            if (session != null) {
+                session.refund(rows);
+            }
+            counter.refused.increment();
+            return -1;
+        }
+
+        long delay = Math.max(sessionDelay, classDelay);
+        counter.queries.increment();
+        counter.rows.add(rows);
+        if (delay > 0) {
+            counter.delayed.increment();
+            counter.delayMillis.add(delay);
+        }
+        return delay;
+    }
+
+    /**
+     * 会话桶在首次计费时创建；LIST的输出线程与会话的命令线程可能同时计费
+     */
+    private TokenBucket sessionBucket(IrcUser user) {
+        TokenBucket bucket = user.getQueryBudget();
+        if (bucket != null) {
+            return bucket;
+        }
+        initLock.lock();
+        try {
+            bucket = user.getQueryBudget();
+            if (bucket == null) {
+                bucket = new TokenBucket(sessionCapacity, sessionRefillPerSecond);
+                user.setQueryBudget(bucket);
+            }
+            return bucket;
+        } finally {
+            initLock.unlock();
+        }
+    }
+
+    /**
+     * 各查询类别的计费统计
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sessionCapacity", sessionCapacity);
+        stats.put("sessionRefillPerSecond", sessionRefillPerSecond);
+        stats.put("classCapacity", classCapacity);
+        stats.put("classRefillPerSecond", classRefillPerSecond);
+        for (QueryClass queryClass : QueryClass.values()) {
+            Counters counter = counters.get(queryClass);
+            Map<String, Object> classStats = new LinkedHashMap<>();
+            classStats.put("queries", counter.queries.sum());
+            classStats.put("rows", counter.rows.sum());
+            classStats.put("delayed", counter.delayed.sum());
+            classStats.put("delayMillis", counter.delayMillis.sum());
+            classStats.put("refused", counter.refused.sum());
+            stats.put(queryClass.name().toLowerCase(Locale.ROOT), classStats);
+        }
+        return stats;
+    }
+}
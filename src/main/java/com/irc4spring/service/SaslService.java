@@ -0,0 +1,223 @@
+package com.irc4spring.service;
+
+import com.irc4spring.model.SaslSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SASL认证服务，支持PLAIN和SCRAM-SHA-256
+ * SCRAM交换中服务器只用到账户保存的StoredKey和ServerKey，每次认证只需几次HMAC，不运行PBKDF2；
+ * 不存在的账户使用由用户名确定的假盐值继续交换，避免通过响应差异探测账户是否存在。
+ * 两种机制都经过登录限流，SCRAM在收到client-first时检查、验证证明后记录结果。
+ */
+@Service
+public class SaslService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SaslService.class);
+
+    public static final List<String> MECHANISMS = List.of("PLAIN", "SCRAM-SHA-256");
+
+    private static final int NONCE_BYTES = 18;
+
+    @Autowired
+    private AuthenticationService authService;
+
+    @Autowired
+    private PasswordHashService passwordHashService;
+
+    @Autowired
+    private LoginThrottleService loginThrottle;
+
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] fakeSaltSecret = new byte[32];
+
+    public SaslService() {
+        random.nextBytes(fakeSaltSecret);
+    }
+
+    /**
+     * 一步交换的结果
+     *
+     * @param status   继续、成功或失败
+     * @param response 需要发给客户端的数据（未编码），没有时为null
+     * @param account  成功时登录的账户
+     */
+    public record Step(Status status, String response, String account) {
+
+        static Step proceed(String response) {
+            return new Step(Status.CONTINUE, response, null);
+        }
+
+        static Step success(String account) {
+            return new Step(Status.SUCCESS, null, account);
+        }
+
+        static Step failure() {
+            return new Step(Status.FAILURE, null, null);
+        }
+    }
+
+    public enum Status {
+        CONTINUE, SUCCESS, FAILURE
+    }
+
+    public boolean isSupported(String mechanism) {
+        return MECHANISMS.contains(mechanism);
+    }
+
+    /**
+     * 处理客户端发来的一条完整消息（已拼接分段并Base64解码）
+     */
+    public Step step(SaslSession session, byte[] data) {
+        try {
+            return switch (session.getMechanism()) {
+                case "PLAIN" -> plain(session, data);
+                case "SCRAM-SHA-256" -> scram(session, new String(data, StandardCharsets.UTF_8));
+                default -> Step.failure();
+            };
+        } catch (RuntimeException e) {
+            logger.debug("SASL消息格式错误: {}", session.getMechanism(), e);
+            return Step.failure();
+        }
+    }
+
+    /**
+     * PLAIN：authzid \0 authcid \0 password，授权身份必须为空或与认证身份相同
+     */
+    private Step plain(SaslSession session, byte[] data) {
+        String message = new String(data, StandardCharsets.UTF_8);
+        String[] parts = message.split("\0", -1);
+        if (parts.length != 3) {
+            return Step.failure();
+        }
+        String authzid = parts[0];
+        String authcid = parts[1];
+        if (!authzid.isEmpty() && !authzid.equals(authcid)) {
+            return Step.failure();
+        }
+        return authService.authenticateUser(authcid, parts[2], session.getClientAddress())
+            ? Step.success(authcid) : Step.failure();
+    }
+
+    private Step scram(SaslSession session, String message) {
+        return switch (session.getStage()) {
+            case INITIAL -> scramClientFirst(session, message);
+            case SCRAM_FINAL -> scramClientFinal(session, message);
+            case SCRAM_CONFIRM -> Step.success(session.getAccount());
+        };
+    }
+
+    /**
+     * client-first-message：gs2-header n=用户名,r=客户端随机数
+     */
+    private Step scramClientFirst(SaslSession session, String message) {
+        int authzidEnd = message.indexOf(',', message.indexOf(',') + 1);
+        if (authzidEnd < 0 || !(message.startsWith("n,") || message.startsWith("y,"))) {
+            // 不支持通道绑定（p=）
+            return Step.failure();
+        }
+        String gs2Header = message.substring(0, authzidEnd + 1);
+        String clientFirstBare = message.substring(authzidEnd + 1);
+        Map<Character, String> attributes = attributes(clientFirstBare);
+        String username = attributes.get('n');
+        String clientNonce = attributes.get('r');
+        if (username == null || clientNonce == null || clientNonce.isEmpty()) {
+            return Step.failure();
+        }
+        username = username.replace("=2C", ",").replace("=3D", "=");
+        if (!loginThrottle.checkAllowed(session.getClientAddress(), username)) {
+            return Step.failure();
+        }
+
+        PasswordHashService.ScramCredentials credentials = authService.getScramCredentials(username);
+        if (credentials == null) {
+            // 账户不存在或仍是旧格式哈希：用假参数走完交换，最终失败
+            byte[] fakeSalt = Arrays.copyOf(
+                PasswordHashService.hmac(fakeSaltSecret, username.getBytes(StandardCharsets.UTF_8)), 16);
+            byte[] fakeKey = new byte[32];
+            random.nextBytes(fakeKey);
+            credentials = new PasswordHashService.ScramCredentials(
+                passwordHashService.getIterations(), fakeSalt, fakeKey, fakeKey);
+        } else {
+            session.setKnownAccount(true);
+        }
+
+        byte[] serverNonce = new byte[NONCE_BYTES];
+        random.nextBytes(serverNonce);
+        String nonce = clientNonce + Base64.getEncoder().encodeToString(serverNonce);
+        String serverFirst = "r=" + nonce + ",s=" + Base64.getEncoder().encodeToString(credentials.salt())
+            + ",i=" + credentials.iterations();
+
+        session.setAccount(username);
+        session.setGs2Header(gs2Header);
+        session.setClientFirstBare(clientFirstBare);
+        session.setServerFirst(serverFirst);
+        session.setNonce(nonce);
+        session.setStoredKey(credentials.storedKey());
+        session.setServerKey(credentials.serverKey());
+        session.setStage(SaslSession.Stage.SCRAM_FINAL);
+        return Step.proceed(serverFirst);
+    }
+
+    /**
+     * client-final-message：c=通道绑定,r=随机数,p=证明；验证 H(ClientProof XOR HMAC(StoredKey, AuthMessage)) == StoredKey
+     */
+    private Step scramClientFinal(SaslSession session, String message) {
+        int proofStart = message.lastIndexOf(",p=");
+        if (proofStart < 0) {
+            return Step.failure();
+        }
+        String withoutProof = message.substring(0, proofStart);
+        byte[] proof = Base64.getDecoder().decode(message.substring(proofStart + 3));
+        Map<Character, String> attributes = attributes(withoutProof);
+
+        String channelBinding = Base64.getEncoder().encodeToString(
+            session.getGs2Header().getBytes(StandardCharsets.UTF_8));
+        if (!channelBinding.equals(attributes.get('c')) || !session.getNonce().equals(attributes.get('r'))) {
+            return Step.failure();
+        }
+
+        byte[] authMessage = (session.getClientFirstBare() + "," + session.getServerFirst() + "," + withoutProof)
+            .getBytes(StandardCharsets.UTF_8);
+        byte[] clientSignature = PasswordHashService.hmac(session.getStoredKey(), authMessage);
+        if (proof.length != clientSignature.length) {
+            loginThrottle.recordFailure(session.getClientAddress(), session.getAccount());
+            return Step.failure();
+        }
+        byte[] clientKey = new byte[proof.length];
+        for (int i = 0; i < proof.length; i++) {
+            clientKey[i] = (byte) (proof[i] ^ clientSignature[i]);
+        }
+        boolean verified = MessageDigest.isEqual(PasswordHashService.sha256(clientKey), session.getStoredKey());
+        if (!verified || !session.isKnownAccount()) {
+            loginThrottle.recordFailure(session.getClientAddress(), session.getAccount());
+            return Step.failure();
+        }
+        loginThrottle.recordSuccess(session.getClientAddress(), session.getAccount());
+
+        byte[] serverSignature = PasswordHashService.hmac(session.getServerKey(), authMessage);
+        session.setStage(SaslSession.Stage.SCRAM_CONFIRM);
+        return Step.proceed("v=" + Base64.getEncoder().encodeToString(serverSignature));
+    }
+
+    private static Map<Character, String> attributes(String message) {
+        Map<Character, String> attributes = new HashMap<>();
+        for (String part : message.split(",")) {
+            if (part.length() >= 2 && part.charAt(1) == '=') {
+                attributes.putIfAbsent(part.charAt(0), part.substring(2));
+            }
+        }
+        return attributes;
+    }
+}
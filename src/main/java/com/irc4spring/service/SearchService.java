@@ -0,0 +1,435 @@
+package com.irc4spring.service;
+
+import com.irc4spring.search.IndexBuffer;
+import com.irc4spring.search.IndexSegment;
+import com.irc4spring.search.PostingCursor;
+import com.irc4spring.search.SearchQuery;
+import com.irc4spring.search.SearchResult;
+import com.irc4spring.search.Tokenizer;
+import com.irc4spring.storage.ChannelLogRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 频道历史全文检索服务
+ * 索引线程在热路径之外追读频道日志，把PRIVMSG和TOPIC分词后写入内存缓冲区；
+ * 缓冲区满后冻结为压缩的不可变段，同一层级的段数达到合并因子时合并为更大的段。
+ * 查询对各段的倒排表求交，从新到旧回查日志取出原始记录，不做全量扫描。
+ */
+@Service
+public class SearchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchService.class);
+
+    private static final int INDEX_BATCH_SIZE = 4096;
+
+    @Value("${irc.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${irc.search.buffer-docs:8192}")
+    private int bufferDocs;
+
+    @Value("${irc.search.merge-factor:8}")
+    private int mergeFactor;
+
+    @Value("${irc.search.poll-interval-ms:200}")
+    private long pollIntervalMillis;
+
+    @Value("${irc.search.max-results:100}")
+    private int maxResults;
+
+    @Autowired
+    private ChannelLogService channelLogService;
+
+    private final ReentrantLock indexLock = new ReentrantLock();
+    private final LongAdder indexedDocs = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder totalQueryMicros = new LongAdder();
+    private final LongAccumulator maxQueryMicros = new LongAccumulator(Math::max, 0);
+
+    /** 以下两项由indexLock保护，查询在锁内取快照 */
+    private IndexBuffer buffer = new IndexBuffer();
+    private List<IndexSegment> segments = List.of();
+
+    private Thread indexer;
+    private volatile boolean running;
+    private volatile long nextOffset;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || !channelLogService.isEnabled()) {
+            enabled = false;
+            return;
+        }
+
+        // 启动时从日志中最早的记录开始重建索引
+        nextOffset = channelLogService.getFirstOffset();
+        running = true;
+        indexer = Thread.ofPlatform().daemon().name("irc-search-indexer").start(this::indexLoop);
+        logger.info("全文检索索引线程已启动，从日志序号{}开始", nextOffset);
+    }
+
+    @PreDestroy
+    public void stop() {
+        // 不中断索引线程，避免中断关闭正在读取的日志文件通道；最多等待一个轮询间隔即退出
+        running = false;
+    }
+
+    /**
+     * 索引线程：追读日志，缓冲区满后冻结并按层级合并
+     */
+    private void indexLoop() {
+        while (running) {
+            try {
+                List<ChannelLogRecord> records = channelLogService.readFrom(nextOffset, INDEX_BATCH_SIZE);
+                if (records.isEmpty()) {
+                    Thread.sleep(pollIntervalMillis);
+                    continue;
+                }
+
+                for (ChannelLogRecord record : records) {
+                    if (isIndexable(record)) {
+                        Set<String> terms = terms(record);
+                        indexLock.lock();
+                        try {
+                            buffer.add(record.offset(), terms);
+                        } finally {
+                            indexLock.unlock();
+                        }
+                        indexedDocs.increment();
+
+                        // 按固定文档数冻结，同层级的段大小一致，合并才能按层级进行
+                        if (buffer.getDocCount() >= bufferDocs) {
+                            flushBuffer();
+                        }
+                    }
+                    nextOffset = record.offset() + 1;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("构建全文索引失败", e);
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean isIndexable(ChannelLogRecord record) {
+        return ("PRIVMSG".equals(record.command()) || "TOPIC".equals(record.command()))
+            && !record.text().isEmpty();
+    }
+
+    private Set<String> terms(ChannelLogRecord record) {
+        Set<String> terms = Tokenizer.tokenize(record.text());
+        terms.add(Tokenizer.channelTerm(record.channel()));
+        terms.add(Tokenizer.nickTerm(nicknameOf(record.source())));
+        return terms;
+    }
+
+    private static String nicknameOf(String source) {
+        int bang = source.indexOf('!');
+        return bang >= 0 ? source.substring(0, bang) : source;
+    }
+
+    /**
+     * 冻结缓冲区为新段；冻结只读取缓冲区，可在锁外进行，替换时再加锁
+     */
+    private void flushBuffer() {
+        IndexSegment frozen = buffer.freeze();
+        indexLock.lock();
+        try {
+            List<IndexSegment> updated = new ArrayList<>(segments);
+            updated.add(frozen);
+            segments = List.copyOf(updated);
+            buffer = new IndexBuffer();
+        } finally {
+            indexLock.unlock();
+        }
+
+        mergeSegments();
+        dropExpiredSegments();
+    }
+
+    /**
+     * 分层合并：末尾同一层级的段数达到合并因子时合并为一个段，合并后可能继续触发上一层合并
+     */
+    private void mergeSegments() {
+        while (true) {
+            List<IndexSegment> current = segments;
+            int count = 0;
+            int tier = tierOf(current.get(current.size() - 1));
+            for (int i = current.size() - 1; i >= 0 && tierOf(current.get(i)) == tier; i--) {
+                count++;
+            }
+            if (count < mergeFactor) {
+                return;
+            }
+
+            List<IndexSegment> toMerge = current.subList(current.size() - count, current.size());
+            long start = System.nanoTime();
+            IndexSegment merged = IndexSegment.merge(toMerge);
+
+            indexLock.lock();
+            try {
+                List<IndexSegment> updated = new ArrayList<>(segments.subList(0, segments.size() - count));
+                updated.add(merged);
+                segments = List.copyOf(updated);
+            } finally {
+                indexLock.unlock();
+            }
+            merges.increment();
+            logger.debug("合并{}个索引段，共{}个文档，耗时{}ms", count, merged.getDocCount(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private int tierOf(IndexSegment segment) {
+        int tier = 0;
+        long size = bufferDocs;
+        while (segment.getDocCount() >= size * mergeFactor) {
+            size *= mergeFactor;
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * 日志段被保留策略删除后，丢弃完全落在已删除范围内的索引段
+     */
+    private void dropExpiredSegments() {
+        long firstOffset = channelLogService.getFirstOffset();
+        indexLock.lock();
+        try {
+            if (!segments.isEmpty() && segments.get(0).getMaxDoc() < firstOffset) {
+                segments = segments.stream().filter(s -> s.getMaxDoc() >= firstOffset).toList();
+            }
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    /**
+     * 执行检索，返回从新到旧的命中记录
+     */
+    public SearchResult search(SearchQuery query) {
+        long start = System.nanoTime();
+        List<ChannelLogRecord> hits = new ArrayList<>();
+        if (!enabled) {
+            return new SearchResult(hits, 0, 0);
+        }
+
+        List<String> terms = new ArrayList<>(Tokenizer.tokenizeQuery(query.text()));
+        if (query.channel() != null) {
+            terms.add(Tokenizer.channelTerm(query.channel()));
+        }
+        if (query.nickname() != null) {
+            terms.add(Tokenizer.nickTerm(query.nickname()));
+        }
+        if (terms.isEmpty()) {
+            return new SearchResult(hits, 0, 0);
+        }
+
+        int limit = Math.max(1, Math.min(query.limit(), maxResults));
+        long lowerDoc = query.fromTime() > 0 ? channelLogService.offsetForTime(query.fromTime()) : 0;
+        // 有结束时间时换算为序号范围：certainDoc之前的记录都不晚于结束时间，upperDoc起的记录都晚于结束时间，
+        // 两者之间最多一个稀疏索引间隔，需要回查时间
+        boolean bounded = query.toTime() != Long.MAX_VALUE;
+        long certainDoc = bounded ? channelLogService.offsetForTime(query.toTime() + 1) : Long.MAX_VALUE;
+        long upperDoc = bounded ? channelLogService.offsetAfterTime(query.toTime()) : Long.MAX_VALUE;
+        DocRange range = new DocRange(lowerDoc, certainDoc, upperDoc);
+
+        // 在锁内取得段列表和缓冲区倒排表的快照，之后的求交和回查都在锁外进行
+        List<IndexSegment> snapshot;
+        PostingCursor[] bufferCursors;
+        long bufferMinDoc;
+        indexLock.lock();
+        try {
+            snapshot = segments;
+            bufferMinDoc = buffer.getMinDoc();
+            bufferCursors = new PostingCursor[terms.size()];
+            for (int i = 0; i < terms.size(); i++) {
+                bufferCursors[i] = buffer.snapshot(terms.get(i));
+            }
+        } finally {
+            indexLock.unlock();
+        }
+
+        int searched = 0;
+        boolean done = false;
+        if (bufferMinDoc >= 0 && bufferMinDoc < upperDoc) {
+            searched++;
+            done = collect(bufferCursors, range, query, limit, hits);
+        }
+        for (int i = snapshot.size() - 1; i >= 0 && !done; i--) {
+            IndexSegment segment = snapshot.get(i);
+            if (segment.getMaxDoc() < lowerDoc) {
+                break;
+            }
+            if (segment.getMinDoc() >= upperDoc) {
+                continue;
+            }
+            PostingCursor[] cursors = new PostingCursor[terms.size()];
+            for (int t = 0; t < terms.size(); t++) {
+                cursors[t] = segment.cursor(terms.get(t));
+            }
+            searched++;
+            done = collect(cursors, range, query, limit, hits);
+        }
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        queries.increment();
+        totalQueryMicros.add(micros);
+        maxQueryMicros.accumulate(micros);
+        return new SearchResult(hits, micros, searched);
+    }
+
+    /**
+     * 检索的序号范围：[lower, upper)，其中[certain, upper)内的记录可能晚于结束时间
+     */
+    private record DocRange(long lower, long certain, long upper) {
+    }
+
+    /**
+     * 对一个段求交，从最新的命中开始回查日志。
+     * 只保留序号上界之前最后limit个确定不晚于结束时间的命中，以及上界附近需要核对时间的少量命中，
+     * 更新的命中不会被收集或回查
+     *
+     * @return 是否已取满或已早于起始时间，无需再查更旧的段
+     */
+    private boolean collect(PostingCursor[] cursors, DocRange range, SearchQuery query, int limit,
+                            List<ChannelLogRecord> hits) {
+        for (PostingCursor cursor : cursors) {
+            if (cursor == null) {
+                return false;
+            }
+        }
+        Arrays.sort(cursors, Comparator.comparingInt(PostingCursor::cost));
+
+        long[] matches = new long[limit];
+        int count = 0;
+        long[] uncertain = null;
+        int uncertainCount = 0;
+
+        PostingCursor lead = cursors[0];
+        long doc = lead.advance(range.lower());
+        while (doc != PostingCursor.NO_MORE_DOCS && doc < range.upper()) {
+            long candidate = doc;
+            for (int i = 1; i < cursors.length; i++) {
+                long other = cursors[i].advance(candidate);
+                if (other != candidate) {
+                    candidate = other;
+                    break;
+                }
+            }
+            if (candidate != doc) {
+                doc = candidate == PostingCursor.NO_MORE_DOCS ? candidate : lead.advance(candidate);
+                continue;
+            }
+
+            if (doc < range.certain()) {
+                matches[count++ % limit] = doc;
+            } else {
+                if (uncertain == null) {
+                    uncertain = new long[16];
+                } else if (uncertainCount == uncertain.length) {
+                    uncertain = Arrays.copyOf(uncertain, uncertainCount * 2);
+                }
+                uncertain[uncertainCount++] = doc;
+            }
+            doc = lead.advance(doc + 1);
+        }
+
+        for (int i = uncertainCount - 1; i >= 0; i--) {
+            if (addHit(uncertain[i], query, limit, hits)) {
+                return true;
+            }
+        }
+        int available = Math.min(count, limit);
+        for (int i = 0; i < available; i++) {
+            if (addHit(matches[Math.floorMod(count - 1 - i, limit)], query, limit, hits)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 回查一条命中并按时间范围过滤
+     *
+     * @return 是否已取满或已早于起始时间
+     */
+    private boolean addHit(long doc, SearchQuery query, int limit, List<ChannelLogRecord> hits) {
+        ChannelLogRecord record = channelLogService.read(doc);
+        if (record == null || record.time() > query.toTime()) {
+            return false;
+        }
+        if (record.time() < query.fromTime()) {
+            return true;
+        }
+        hits.add(record);
+        return hits.size() >= limit;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * 获取索引统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        List<IndexSegment> snapshot;
+        int bufferedDocs;
+        indexLock.lock();
+        try {
+            snapshot = segments;
+            bufferedDocs = buffer.getDocCount();
+        } finally {
+            indexLock.unlock();
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("indexedDocs", indexedDocs.sum());
+        stats.put("nextOffset", nextOffset);
+        stats.put("lag", enabled ? Math.max(0, channelLogService.getNextOffset() - nextOffset) : 0);
+        stats.put("bufferedDocs", bufferedDocs);
+        stats.put("segments", snapshot.size());
+        stats.put("segmentDocs", snapshot.stream().mapToLong(IndexSegment::getDocCount).sum());
+        stats.put("segmentTerms", snapshot.stream().mapToLong(IndexSegment::getTermCount).sum());
+        stats.put("segmentBytes", snapshot.stream().mapToLong(IndexSegment::memoryBytes).sum());
+        stats.put("merges", merges.sum());
+        long count = queries.sum();
+        stats.put("queries", count);
+        stats.put("avgQueryMicros", count > 0 ? totalQueryMicros.sum() / count : 0);
+        stats.put("maxQueryMicros", maxQueryMicros.get());
+        return stats;
+    }
+}
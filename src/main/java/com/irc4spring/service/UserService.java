@@ -1,19 +1,22 @@
 package com.irc4spring.service;
 
+import com.irc4spring.constant.IrcCommand;
 import com.irc4spring.model.IrcUser;
 import com.irc4spring.model.UserRole;
+import com.irc4spring.server.ClientConnection;
+import com.irc4spring.server.OutboundMessage;
+import com.irc4spring.server.OutboundPriority;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.time.LocalDateTime;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -34,9 +37,44 @@ public class UserService {
     @Value("${irc.auth.session-timeout:3600000}")
     private long sessionTimeout;
     
+    @Value("${irc.server.name:IRC4Spring}")
+    private String serverName;
+    
+    @Value("${irc.away.reply-interval-ms:60000}")
+    private long awayReplyIntervalMs;
+    
+    @Autowired
+    private MonitorService monitorService;
+    
+    @Autowired
+    private HostmaskIndex hostmaskIndex;
+    
     private final Map<String, IrcUser> usersByNickname = new ConcurrentHashMap<>();
+    private final Map<String, IrcUser> usersByFoldedNickname = new ConcurrentHashMap<>();
     private final Map<Socket, IrcUser> usersBySocket = new ConcurrentHashMap<>();
     private final Map<String, IrcUser> usersByUsername = new ConcurrentHashMap<>();
+    private final Map<Socket, ClientConnection> connectionsBySocket = new ConcurrentHashMap<>();
+    
+    /**
+     * 注册客户端连接
+     */
+    public void registerConnection(ClientConnection connection) {
+        connectionsBySocket.put(connection.getSocket(), connection);
+    }
+    
+    /**
+     * 注销客户端连接
+     */
+    public void unregisterConnection(Socket socket) {
+        connectionsBySocket.remove(socket);
+    }
+    
+    /**
+     * 根据socket获取客户端连接
+     */
+    public ClientConnection getConnection(Socket socket) {
+        return socket != null ? connectionsBySocket.get(socket) : null;
+    }
     
     /**
      * 添加新用户
@@ -47,13 +85,16 @@ public class UserService {
             return false;
         }
         
-        if (user.getNickname() != null && usersByNickname.containsKey(user.getNickname())) {
+        // 以规范化昵称占位，Bob与bob不能同时在线
+        if (user.getNickname() != null
+                && usersByFoldedNickname.putIfAbsent(MonitorService.casefold(user.getNickname()), user) != null) {
             logger.warn("昵称已被使用: {}", user.getNickname());
             return false;
         }
         
         if (user.getNickname() != null) {
             usersByNickname.put(user.getNickname(), user);
+            hostmaskIndex.add(user);
         }
         
         if (user.getUsername() != null) {
@@ -74,14 +115,24 @@ public class UserService {
     public boolean removeUser(String nickname) {
         IrcUser user = usersByNickname.remove(nickname);
         if (user != null) {
+            usersByFoldedNickname.remove(MonitorService.casefold(nickname), user);
+            hostmaskIndex.remove(user, nickname);
+            monitorService.clear(user);
+            if (user.isRegistered()) {
+                notifyMonitors(nickname, null);
+            }
+            
             // 只有username不为null时才从usersByUsername中移除
             if (user.getUsername() != null) {
                 usersByUsername.remove(user.getUsername());
             }
             usersBySocket.remove(user.getSocket());
             
-            // 关闭socket连接
-            if (user.getSocket() != null && !user.getSocket().isClosed()) {
+            // 刷新剩余输出并关闭socket连接
+            ClientConnection connection = getConnection(user.getSocket());
+            if (connection != null) {
+                connection.close();
+            } else if (user.getSocket() != null && !user.getSocket().isClosed()) {
                 try {
                     user.getSocket().close();
                 } catch (IOException e) {
@@ -94,7 +145,28 @@ public class UserService {
         }
         return false;
     }
+
+    /**
+     * 移除尚未设置昵称（只发送过PASS/CAP等命令）的用户
+     */
+    public void removePendingUser(Socket socket) {
+        IrcUser user = usersBySocket.remove(socket);
+        if (user != null && user.getUsername() != null) {
+            usersByUsername.remove(user.getUsername(), user);
+        }
+        if (user != null) {
+            monitorService.clear(user);
+        }
+    }
     
+    /**
+     * 标记用户完成注册，通知MONITOR该昵称的客户端
+     */
+    public void completeRegistration(IrcUser user) {
+        user.setRegistered(true);
+        notifyMonitors(user.getNickname(), user);
+    }
+
     /**
      * 根据昵称获取用户
      */
@@ -102,6 +174,21 @@ public class UserService {
         return usersByNickname.get(nickname);
     }
     
+    /**
+     * 忽略大小写按昵称获取用户
+     */
+    public IrcUser getUserByNicknameIgnoreCase(String nickname) {
+        IrcUser user = usersByNickname.get(nickname);
+        return user != null ? user : usersByFoldedNickname.get(MonitorService.casefold(nickname));
+    }
+    
+    /**
+     * 按WHO掩码查找用户，最多返回limit个
+     */
+    public List<IrcUser> findUsersByMask(String mask, int limit) {
+        return hostmaskIndex.find(mask, limit);
+    }
+    
     /**
      * 根据用户名获取用户
      */
@@ -131,13 +218,21 @@ public class UserService {
     }
     
     /**
-     * 检查昵称是否可用
+     * 检查昵称是否可用，忽略大小写后与在线用户相同的昵称视为已占用
      */
     public boolean isNicknameAvailable(String nickname) {
+        return isNicknameAcceptable(nickname) &&
+               !usersByNickname.containsKey(nickname) &&
+               !usersByFoldedNickname.containsKey(MonitorService.casefold(nickname));
+    }
+    
+    /**
+     * 昵称格式和长度是否合法
+     */
+    private boolean isNicknameAcceptable(String nickname) {
         return nickname != null && 
                !nickname.trim().isEmpty() && 
                nickname.length() <= maxNicknameLength &&
-               !usersByNickname.containsKey(nickname) &&
                isValidNickname(nickname);
     }
     
@@ -162,14 +257,32 @@ public class UserService {
      * 更改用户昵称
      */
     public boolean changeNickname(String oldNickname, String newNickname) {
-        if (!isNicknameAvailable(newNickname)) {
+        if (!isNicknameAcceptable(newNickname) || newNickname.equals(oldNickname)) {
             return false;
         }
         
-        IrcUser user = usersByNickname.remove(oldNickname);
+        IrcUser user = usersByNickname.get(oldNickname);
         if (user != null) {
+            // 只改大小写时规范化昵称不变，仍由自己占用；否则先占新昵称，已被他人占用时失败
+            String oldFolded = MonitorService.casefold(oldNickname);
+            String newFolded = MonitorService.casefold(newNickname);
+            boolean caseOnly = oldFolded.equals(newFolded);
+            if (!caseOnly && usersByFoldedNickname.putIfAbsent(newFolded, user) != null) {
+                return false;
+            }
+            usersByNickname.remove(oldNickname, user);
             user.setNickname(newNickname);
             usersByNickname.put(newNickname, user);
+            if (!caseOnly) {
+                usersByFoldedNickname.remove(oldFolded, user);
+            }
+            hostmaskIndex.rename(user, oldNickname);
+            if (user.isRegistered()) {
+                if (!caseOnly) {
+                    notifyMonitors(oldNickname, null);
+                }
+                notifyMonitors(newNickname, user);
+            }
             logger.info("用户昵称已更改: {} -> {}", oldNickname, newNickname);
             return true;
         }
@@ -177,32 +290,96 @@ public class UserService {
         return false;
     }
     
+    /**
+     * 通知订阅了该昵称的客户端：user不为null时上线（730），否则下线（731）
+     */
+    private void notifyMonitors(String nickname, IrcUser user) {
+        for (IrcUser watcher : monitorService.getWatchers(nickname)) {
+            String reply = user != null
+                ? ":" + serverName + " " + IrcCommand.RPL_MONONLINE + " " + watcher.getNickname() + " :" + user.getFullMask()
+                : ":" + serverName + " " + IrcCommand.RPL_MONOFFLINE + " " + watcher.getNickname() + " :" + nickname;
+            ClientConnection connection = getConnection(watcher.getSocket());
+            if (connection != null) {
+                connection.send(reply, OutboundPriority.DIRECT, null);
+            }
+        }
+    }
+    
     /**
      * 向用户发送消息
      */
     public boolean sendMessageToUser(String nickname, String message) {
+        return sendMessageToUser(nickname, message, OutboundPriority.DIRECT, null);
+    }
+    
+    /**
+     * 按指定优先级向用户发送消息
+     */
+    public boolean sendMessageToUser(String nickname, String message, OutboundPriority priority, String orderingKey) {
         IrcUser user = getUserByNickname(nickname);
-        if (user != null && user.getSocket() != null && !user.getSocket().isClosed()) {
-            try {
-                PrintWriter writer = new PrintWriter(user.getSocket().getOutputStream(), true);
-                writer.println(message);
-                user.updateActivity();
-                return true;
-            } catch (IOException e) {
-                logger.error("发送消息失败: {}", nickname, e);
-                // 连接异常，移除用户
-                removeUser(nickname);
-            }
+        ClientConnection connection = user != null ? getConnection(user.getSocket()) : null;
+        if (connection == null || connection.isClosed()) {
+            return false;
+        }
+        
+        return sent(user, connection.send(message, priority, orderingKey));
+    }
+    
+    /**
+     * 发送广播消息，按接收者启用的能力选择预先序列化的帧变体
+     */
+    public boolean sendMessageToUser(String nickname, OutboundMessage message, OutboundPriority priority, String orderingKey) {
+        IrcUser user = getUserByNickname(nickname);
+        ClientConnection connection = user != null ? getConnection(user.getSocket()) : null;
+        if (connection == null || connection.isClosed()) {
+            return false;
         }
+        
+        OutboundMessage.Variant variant = message.forCapabilities(user.getCapabilities());
+        if (variant == null) {
+            return false;
+        }
+        return sent(user, connection.send(variant, priority, orderingKey));
+    }
+    
+    private boolean sent(IrcUser user, boolean success) {
+        if (success) {
+            user.updateActivity();
+            return true;
+        }
+        
+        logger.error("发送消息失败: {}", user.getNickname());
+        // 连接异常，移除用户
+        removeUser(user.getNickname());
         return false;
     }
     
+    /**
+     * 私聊离开状态的用户时是否回复RPL_AWAY：同一发送者对同一目标在间隔内只回复一次，
+     * 避免机器人或自动回复客户端互相触发回复风暴
+     */
+    public boolean shouldSendAwayReply(IrcUser sender, IrcUser target) {
+        long now = System.currentTimeMillis();
+        Map<Long, Long> received = sender.getAwayRepliesReceived();
+        Long last = received.get(target.getId());
+        if (last != null && now - last < awayReplyIntervalMs) {
+            return false;
+        }
+        received.put(target.getId(), now);
+        if (received.size() > 64) {
+            // 只保留间隔内仍有效的记录，防止向大量目标发消息的客户端无限增长
+            received.values().removeIf(time -> now - time >= awayReplyIntervalMs);
+        }
+        return true;
+    }
+    
     /**
      * 向所有用户广播消息
      */
     public void broadcastMessage(String message) {
+        OutboundMessage outbound = OutboundMessage.of(message);
         usersByNickname.values().forEach(user -> {
-            sendMessageToUser(user.getNickname(), message);
+            sendMessageToUser(user.getNickname(), outbound, OutboundPriority.DIRECT, null);
         });
     }
     
@@ -210,9 +387,10 @@ public class UserService {
      * 向指定角色的用户发送消息
      */
     public void sendMessageToRole(String message, UserRole role) {
+        OutboundMessage outbound = OutboundMessage.of(message);
         usersByNickname.values().stream()
                 .filter(user -> user.hasPermission(role))
-                .forEach(user -> sendMessageToUser(user.getNickname(), message));
+                .forEach(user -> sendMessageToUser(user.getNickname(), outbound, OutboundPriority.DIRECT, null));
     }
     
     /**
@@ -223,7 +401,7 @@ public class UserService {
         if (user != null) {
             String kickMessage = "ERROR :You have been kicked from the server" + 
                                (reason != null ? " (" + reason + ")" : "");
-            sendMessageToUser(nickname, kickMessage);
+            sendMessageToUser(nickname, kickMessage, OutboundPriority.CONTROL, null);
             removeUser(nickname);
             logger.info("用户已被踢出: {} (原因: {})", nickname, reason);
             return true;
@@ -0,0 +1,623 @@
+package com.irc4spring.storage;
+
+import com.irc4spring.model.Account;
+import com.irc4spring.model.UserRole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * 账户存储
+ * 账户全部保存在内存中，修改同时追加到预写日志(WAL)。写盘由单独的刷盘线程完成，
+ * 同一时间段内的多次修改合并为一次fsync（组提交），调用方等待所在批次落盘后返回。
+ * WAL超过阈值时写出压缩后的快照并切换到新一代WAL；启动时加载最新快照再重放之后的WAL。
+ * 文件按代编号：snapshot-{代}.dat 保存该代开始时的完整状态，wal-{代}.log 保存之后的修改。
+ */
+@Component
+public class AccountStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountStore.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x49524341;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 20;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final UserRole[] ROLES = UserRole.values();
+    private static final long RETRY_DELAY_MS = 1000;
+
+    @Value("${irc.storage.dir:data}")
+    private String storageDir;
+
+    @Value("${irc.accounts.fsync:true}")
+    private boolean fsync;
+
+    @Value("${irc.accounts.compact-threshold-bytes:16777216}")
+    private long compactThresholdBytes;
+
+    @Value("${irc.accounts.sync-timeout-ms:5000}")
+    private long syncTimeoutMillis;
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder syncedRecords = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+
+    private Path directory;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private long appendedSequence;
+    private long syncedSequence;
+    private long writingSequence; // writing中最后一条记录的序号
+    private IOException failure; // 最近一次写盘失败，成功落盘后清除
+    private boolean running;
+
+    private FileChannel wal;
+    private long generation;
+    private volatile long walBytes;
+    private Thread flusher;
+    private long replayedRecords;
+    private long replayMillis;
+
+    @PostConstruct
+    public void open() throws IOException {
+        directory = Paths.get(storageDir, "accounts");
+        Files.createDirectories(directory);
+
+        long start = System.nanoTime();
+        recover();
+        replayMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        wal = FileChannel.open(walFile(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        wal.position(wal.size());
+        walBytes = wal.size();
+
+        running = true;
+        flusher = Thread.ofPlatform().daemon().name("irc-account-wal").start(this::flushLoop);
+        logger.info("账户存储已加载: {}个账户，重放{}条日志，耗时{}ms", accounts.size(), replayedRecords, replayMillis);
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            hasPending.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (flusher != null) {
+                flusher.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            if (wal != null) {
+                wal.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("关闭账户日志失败", e);
+        }
+    }
+
+    /**
+     * 读取账户，只访问内存
+     */
+    public Account get(String username) {
+        return accounts.get(username);
+    }
+
+    public Collection<Account> getAll() {
+        return accounts.values();
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    /**
+     * 账户不存在时创建，等待落盘后返回
+     *
+     * @throws UncheckedIOException 日志写盘失败；内存中的修改保留，由刷盘线程在写盘恢复后重试落盘
+     */
+    public boolean putIfAbsent(Account account) {
+        long sequence;
+        lock.lock();
+        try {
+            if (accounts.containsKey(account.username())) {
+                return false;
+            }
+            accounts.put(account.username(), account);
+            sequence = appendLocked(OP_PUT, account.username(), account);
+        } finally {
+            lock.unlock();
+        }
+        awaitSync(sequence);
+        return true;
+    }
+
+    /**
+     * 原子地修改账户：函数返回null表示删除，返回值与原值相同则不写日志
+     *
+     * @return 修改后的账户
+     * @throws UncheckedIOException 日志写盘失败；内存中的修改保留，由刷盘线程在写盘恢复后重试落盘
+     */
+    public Account update(String username, UnaryOperator<Account> function) {
+        long sequence;
+        Account updated;
+        lock.lock();
+        try {
+            Account current = accounts.get(username);
+            updated = function.apply(current);
+            if (updated == current) {
+                return current;
+            }
+            if (updated == null) {
+                accounts.remove(username);
+                sequence = appendLocked(OP_DELETE, username, null);
+            } else {
+                accounts.put(username, updated);
+                sequence = appendLocked(OP_PUT, username, updated);
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitSync(sequence);
+        return updated;
+    }
+
+    /**
+     * 删除账户
+     */
+    public boolean remove(String username) {
+        return accounts.containsKey(username) && update(username, current -> null) == null;
+    }
+
+    /**
+     * 把记录编码进待写缓冲区，返回其序号
+     */
+    private long appendLocked(byte op, String username, Account account) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = account != null && account.passwordHash() != null
+            ? account.passwordHash().getBytes(StandardCharsets.UTF_8) : null;
+        int payload = 1 + 2 + user.length + (op == OP_PUT ? 2 + (hash != null ? hash.length : 0) + 1 : 0);
+
+        pending = ensureCapacity(pending, RECORD_HEADER_BYTES + payload);
+        int start = pending.position();
+        pending.position(start + RECORD_HEADER_BYTES);
+        pending.put(op);
+        putBytes(pending, user);
+        if (op == OP_PUT) {
+            putBytes(pending, hash);
+            pending.put((byte) account.role().ordinal());
+        }
+        pending.putInt(start, payload).putInt(start + 4, crc(pending, start + RECORD_HEADER_BYTES, payload));
+
+        hasPending.signal();
+        return ++appendedSequence;
+    }
+
+    /**
+     * 等待指定序号的记录落盘；超时只记录告警，内存中的修改已生效；写盘失败时抛出，不把未落盘的修改报告为成功
+     */
+    private void awaitSync(long sequence) {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(syncTimeoutMillis);
+            while (syncedSequence < sequence && running) {
+                if (failure != null) {
+                    throw new UncheckedIOException("账户日志写盘失败，修改尚未持久化", failure);
+                }
+                if (remaining <= 0) {
+                    logger.warn("等待账户日志落盘超时，序号: {}", sequence);
+                    return;
+                }
+                remaining = synced.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷盘线程：交换双缓冲后在锁外写入并fsync，一次覆盖期间所有修改。
+     * 写盘失败时保留writing中的数据，间隔一段时间后先重试它，期间的新修改留在pending中，顺序不变
+     */
+    private void flushLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                if (writing.position() == 0) {
+                    while (pending.position() == 0 && running) {
+                        hasPending.await();
+                    }
+                    if (pending.position() == 0) {
+                        return;
+                    }
+                    ByteBuffer swap = writing;
+                    writing = pending;
+                    pending = swap;
+                    writingSequence = appendedSequence;
+                } else if (!running) {
+                    logger.error("账户日志写盘持续失败，关闭时仍有{}字节未落盘", writing.position() + pending.position());
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (writing.position() > 0 && !flush(writing, writingSequence)) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            if (walBytes > compactThresholdBytes) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.error("账户快照压缩失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录并推进已落盘序号；失败时把WAL截回本批之前的位置并保留缓冲区，已落盘序号不变
+     */
+    private boolean flush(ByteBuffer buffer, long sequence) {
+        long start = walBytes;
+        try {
+            int records = writeAndSync(buffer);
+            syncs.increment();
+            syncedRecords.add(records);
+        } catch (IOException e) {
+            writeFailures.increment();
+            if (failure == null) {
+                logger.error("写入账户日志失败，每{}ms重试一次", RETRY_DELAY_MS, e);
+            } else {
+                logger.warn("重试写入账户日志失败: {}", e.getMessage());
+            }
+            // 恢复为未flip的状态，下次重试重新写入整批
+            int end = buffer.limit();
+            buffer.limit(buffer.capacity()).position(end);
+            try {
+                wal.position(start);
+                wal.truncate(start);
+            } catch (IOException truncateFailure) {
+                logger.error("截断账户日志失败", truncateFailure);
+            }
+            walBytes = start;
+            lock.lock();
+            try {
+                failure = e;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return false;
+        }
+
+        buffer.clear();
+        lock.lock();
+        try {
+            syncedSequence = sequence;
+            failure = null;
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private int writeAndSync(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        int records = 0;
+        for (int position = 0; position < buffer.limit(); records++) {
+            position += RECORD_HEADER_BYTES + buffer.getInt(position);
+        }
+        while (buffer.hasRemaining()) {
+            walBytes += wal.write(buffer);
+        }
+        if (fsync) {
+            wal.force(false);
+        }
+        return records;
+    }
+
+    /**
+     * 压缩：在锁内切换到新一代并复制当前状态，之后的修改进入新WAL；快照写完后删除上一代文件
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        List<Account> state;
+        long previousGeneration = generation;
+
+        lock.lock();
+        try {
+            state = new ArrayList<>(accounts.values());
+            // 切换前已追加的记录属于旧一代，先取出写入旧WAL；此时writing已在上一次成功落盘后清空
+            ByteBuffer swap = writing;
+            writing = pending;
+            pending = swap;
+            writingSequence = appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+
+        if (writing.position() > 0 && !flush(writing, writingSequence)) {
+            // 旧一代尚未完整落盘，不切换；由刷盘线程重试
+            return;
+        }
+
+        FileChannel previous = wal;
+        long nextGeneration = previousGeneration + 1;
+        wal = FileChannel.open(walFile(nextGeneration), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        walBytes = 0;
+        generation = nextGeneration;
+        previous.close();
+
+        writeSnapshot(nextGeneration, state);
+        Files.deleteIfExists(snapshotFile(previousGeneration));
+        Files.deleteIfExists(walFile(previousGeneration));
+        snapshots.increment();
+        logger.info("账户快照已压缩: {}个账户，第{}代，耗时{}ms", state.size(), nextGeneration,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void writeSnapshot(long snapshotGeneration, List<Account> state) throws IOException {
+        Path temp = directory.resolve("snapshot-" + snapshotGeneration + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(snapshotGeneration).putInt(state.size());
+            for (Account account : state) {
+                byte[] user = account.username().getBytes(StandardCharsets.UTF_8);
+                byte[] hash = account.passwordHash() != null
+                    ? account.passwordHash().getBytes(StandardCharsets.UTF_8) : null;
+                int length = 2 + user.length + 2 + (hash != null ? hash.length : 0) + 1;
+                if (buffer.remaining() < length) {
+                    drain(buffer, out, crc);
+                    buffer = ensureCapacity(buffer, length);
+                }
+                putBytes(buffer, user);
+                putBytes(buffer, hash);
+                buffer.put((byte) account.role().ordinal());
+            }
+            drain(buffer, out, crc);
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, snapshotFile(snapshotGeneration), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void drain(ByteBuffer buffer, FileChannel out, java.util.zip.CRC32C crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 启动恢复：加载最新的有效快照，再按代顺序重放不早于该代的WAL
+     */
+    private void recover() throws IOException {
+        List<Long> snapshotGenerations = generations("snapshot-", ".dat");
+        List<Long> walGenerations = generations("wal-", ".log");
+
+        long loaded = -1;
+        for (int i = snapshotGenerations.size() - 1; i >= 0 && loaded < 0; i--) {
+            long candidate = snapshotGenerations.get(i);
+            if (loadSnapshot(candidate)) {
+                loaded = candidate;
+            } else {
+                accounts.clear();
+                logger.warn("账户快照损坏，尝试更早的快照: {}", snapshotFile(candidate));
+            }
+        }
+
+        generation = Math.max(loaded, 0);
+        for (long walGeneration : walGenerations) {
+            if (walGeneration >= generation || loaded < 0) {
+                replayWal(walGeneration);
+                generation = Math.max(generation, walGeneration);
+            }
+        }
+
+        // 清理已被快照覆盖的旧文件
+        for (long old : snapshotGenerations) {
+            if (old < loaded) {
+                Files.deleteIfExists(snapshotFile(old));
+            }
+        }
+        for (long old : walGenerations) {
+            if (old < loaded) {
+                Files.deleteIfExists(walFile(old));
+            }
+        }
+    }
+
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private boolean loadSnapshot(long snapshotGeneration) throws IOException {
+        try (FileChannel in = FileChannel.open(snapshotFile(snapshotGeneration), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < SNAPSHOT_HEADER_BYTES + 4 || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int contentLength = (int) size - 4;
+            if (crc(buffer, 0, contentLength) != buffer.getInt(contentLength)) {
+                return false;
+            }
+            if (buffer.getInt(0) != SNAPSHOT_MAGIC || buffer.getInt(4) != SNAPSHOT_VERSION) {
+                return false;
+            }
+
+            int count = buffer.getInt(16);
+            buffer.position(SNAPSHOT_HEADER_BYTES).limit(contentLength);
+            for (int i = 0; i < count; i++) {
+                String username = getString(buffer);
+                String hash = getString(buffer);
+                UserRole role = ROLES[buffer.get()];
+                accounts.put(username, new Account(username, hash, role));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 重放WAL，遇到长度非法或校验失败的记录即认为是未写完的尾部并截断
+     */
+    private void replayWal(long walGeneration) throws IOException {
+        Path file = walFile(walGeneration);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int position = 0;
+            while (position + RECORD_HEADER_BYTES <= size) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > size
+                        || crc(buffer, position + RECORD_HEADER_BYTES, length) != buffer.getInt(position + 4)) {
+                    break;
+                }
+
+                ByteBuffer record = buffer.slice(position + RECORD_HEADER_BYTES, length);
+                byte op = record.get();
+                String username = getString(record);
+                if (op == OP_PUT) {
+                    String hash = getString(record);
+                    accounts.put(username, new Account(username, hash, ROLES[record.get()]));
+                } else if (op == OP_DELETE) {
+                    accounts.remove(username);
+                }
+                replayedRecords++;
+                position += RECORD_HEADER_BYTES + length;
+            }
+
+            if (position < size) {
+                logger.warn("账户日志尾部不完整，截断 {} 字节: {}", size - position, file);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private Path snapshotFile(long snapshotGeneration) {
+        return directory.resolve("snapshot-" + snapshotGeneration + ".dat");
+    }
+
+    private Path walFile(long walGeneration) {
+        return directory.resolve("wal-" + walGeneration + ".log");
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) NULL_LENGTH);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 获取账户存储统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accounts", accounts.size());
+        stats.put("generation", generation);
+        stats.put("walBytes", walBytes);
+        stats.put("fsync", fsync);
+        long syncCount = syncs.sum();
+        stats.put("syncs", syncCount);
+        stats.put("syncedRecords", syncedRecords.sum());
+        stats.put("avgRecordsPerSync", syncCount > 0 ? (double) syncedRecords.sum() / syncCount : 0);
+        stats.put("snapshots", snapshots.sum());
+        stats.put("writeFailures", writeFailures.sum());
+        stats.put("replayedRecords", replayedRecords);
+        stats.put("startupReplayMillis", replayMillis);
+        return stats;
+    }
+}
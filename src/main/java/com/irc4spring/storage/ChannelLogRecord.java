@@ -0,0 +1,20 @@
+package com.irc4spring.storage;
+
+/**
+ * 频道日志记录
+ *
+ * @param offset  全局递增的记录序号，尚未写入时为-1
+ * @param time    事件时间（毫秒），写入时保证单调不减
+ * @param channel 频道名
+ * @param command 事件类型：PRIVMSG/TOPIC/KICK/JOIN/PART
+ * @param source  发送者完整掩码
+ * @param target  被操作的用户（KICK），其他事件为空字符串
+ * @param text    消息内容、主题或原因
+ */
+public record ChannelLogRecord(long offset, long time, String channel, String command,
+                               String source, String target, String text) {
+
+    public ChannelLogRecord withOffset(long offset, long time) {
+        return new ChannelLogRecord(offset, time, channel, command, source, target, text);
+    }
+}
@@ -0,0 +1,620 @@
+package com.irc4spring.storage;
+
+import com.irc4spring.model.IrcChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 注册频道存储
+ * 每个注册频道的完整状态（主题、密码、模式、封禁名单和操作员名单）编码为一条二进制记录，
+ * 状态变化时整条记录追加到变更日志；日志超过阈值后把最新记录写成压缩快照并切换到新一代日志。
+ * 启动时只映射快照和日志文件并建立 频道名 -> 记录切片 的索引，不解码任何频道，
+ * 频道第一次被访问时才由{@link #load(String)}解码成{@link IrcChannel}。
+ */
+@Component
+public class ChannelStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelStore.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x49524348;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 20;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte OP_SAVE = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int NULL_LENGTH = 0xFFFF;
+    // 写盘失败后的重试间隔
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private static final int FLAG_INVITE_ONLY = 1;
+    private static final int FLAG_MODERATED = 1 << 1;
+    private static final int FLAG_SECRET = 1 << 2;
+    private static final int FLAG_PRIVATE = 1 << 3;
+    private static final int FLAG_TOPIC_LOCKED = 1 << 4;
+    private static final int FLAG_DELAYED_JOIN = 1 << 5;
+
+    @Value("${irc.storage.dir:data}")
+    private String storageDir;
+
+    @Value("${irc.channels.compact-threshold-bytes:8388608}")
+    private long compactThresholdBytes;
+
+    @Value("${irc.channels.poll-interval-ms:1000}")
+    private long pollIntervalMillis;
+
+    /**
+     * 每个注册频道最新的带校验头的记录，可能是映射文件的切片或运行期编码的堆内缓冲区
+     */
+    private final Map<String, ByteBuffer> records = new ConcurrentHashMap<>();
+    private final BlockingQueue<ByteBuffer> pending = new LinkedBlockingQueue<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+
+    private Path directory;
+    private FileChannel journal;
+    private long generation;
+    private volatile long journalBytes;
+    private volatile boolean running;
+    private Thread writer;
+    private long indexMillis;
+
+    @PostConstruct
+    public void open() throws IOException {
+        directory = Paths.get(storageDir, "channels");
+        Files.createDirectories(directory);
+
+        long start = System.nanoTime();
+        recover();
+        indexMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        journal = FileChannel.open(journalFile(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.position(journal.size());
+        journalBytes = journal.size();
+
+        running = true;
+        writer = Thread.ofPlatform().daemon().name("irc-channel-store").start(this::writeLoop);
+        logger.info("注册频道索引已建立: {}个频道，耗时{}ms", records.size(), indexMillis);
+    }
+
+    @PreDestroy
+    public void close() {
+        // 不中断写线程，避免中断关闭正在写入的FileChannel
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (journal != null) {
+                writeBatch(drain(new ArrayList<>()));
+                journal.close();
+            }
+        } catch (IOException e) {
+            logger.error("关闭频道变更日志失败", e);
+        }
+    }
+
+    /**
+     * 频道是否已注册
+     */
+    public boolean contains(String channelName) {
+        return records.containsKey(channelName);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public Collection<String> getChannelNames() {
+        return records.keySet();
+    }
+
+    /**
+     * 解码注册频道的完整状态，未注册或记录损坏时返回null
+     */
+    public IrcChannel load(String channelName) {
+        ByteBuffer framed = records.get(channelName);
+        if (framed == null) {
+            return null;
+        }
+        try {
+            ByteBuffer record = framed.slice(RECORD_HEADER_BYTES, framed.getInt(0));
+            if (crc(record) != framed.getInt(4)) {
+                logger.error("注册频道记录校验失败: {}", channelName);
+                return null;
+            }
+            IrcChannel channel = decode(record);
+            loads.increment();
+            return channel;
+        } catch (RuntimeException e) {
+            logger.error("注册频道记录损坏: {}", channelName, e);
+            return null;
+        }
+    }
+
+    /**
+     * 保存注册频道的当前状态，写盘由后台线程完成
+     */
+    public void save(IrcChannel channel) {
+        ByteBuffer framed = frame(encode(channel));
+        appendLock.lock();
+        try {
+            // 加锁保证同一频道的内存记录与日志顺序一致
+            records.put(channel.getName(), framed);
+            pending.add(framed.duplicate());
+        } finally {
+            appendLock.unlock();
+        }
+        saves.increment();
+    }
+
+    /**
+     * 注销频道
+     */
+    public boolean remove(String channelName) {
+        appendLock.lock();
+        try {
+            if (records.remove(channelName) == null) {
+                return false;
+            }
+            ByteBuffer record = ByteBuffer.allocate(1 + 2 + channelName.length() * 3);
+            record.put(OP_REMOVE);
+            putString(record, channelName);
+            pending.add(frame(record.flip()));
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        boolean failing = false;
+        while (running || !pending.isEmpty() || !batch.isEmpty()) {
+            try {
+                // 上一批写入失败时保留在batch中，连同新的变更一起重试
+                if (batch.isEmpty()) {
+                    ByteBuffer first = pending.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                writeBatch(drain(batch));
+                batch.clear();
+                if (failing) {
+                    logger.info("频道变更日志恢复写入");
+                    failing = false;
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                writeFailures.increment();
+                if (!running) {
+                    logger.error("频道变更日志写盘持续失败，关闭时仍有{}条变更未落盘", batch.size(), e);
+                    return;
+                }
+                if (!failing) {
+                    logger.error("写入频道变更日志失败，每{}ms重试一次", RETRY_DELAY_MS, e);
+                    failing = true;
+                } else {
+                    logger.warn("重试写入频道变更日志失败: {}", e.getMessage());
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                continue;
+            }
+
+            if (journalBytes > compactThresholdBytes) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.error("注册频道快照压缩失败", e);
+                }
+            }
+        }
+    }
+
+    private List<ByteBuffer> drain(List<ByteBuffer> batch) {
+        pending.drainTo(batch);
+        return batch;
+    }
+
+    /**
+     * 写入一批记录并刷盘；失败时把日志截回本批之前的位置并恢复各缓冲区，
+     * 避免中间留下半条记录使重放在此处截断而丢掉之后成功写入的变更
+     */
+    private void writeBatch(List<ByteBuffer> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        int[] positions = new int[buffers.length];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            positions[i] = buffers[i].position();
+            remaining += buffers[i].remaining();
+        }
+        long start = journalBytes;
+        try {
+            while (remaining > 0) {
+                long written = journal.write(buffers);
+                remaining -= written;
+                journalBytes += written;
+            }
+            journal.force(false);
+        } catch (IOException e) {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i].position(positions[i]);
+            }
+            try {
+                journal.position(start);
+                journal.truncate(start);
+            } catch (IOException truncateFailure) {
+                logger.error("截断频道变更日志失败", truncateFailure);
+            }
+            journalBytes = start;
+            throw e;
+        }
+    }
+
+    /**
+     * 压缩：先切换到新一代日志，再把当前所有记录写成快照；之后的变更进入新日志，重放时覆盖快照中的旧值
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        long previousGeneration = generation;
+        long nextGeneration = previousGeneration + 1;
+
+        FileChannel previous = journal;
+        journal = FileChannel.open(journalFile(nextGeneration), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        journalBytes = 0;
+        generation = nextGeneration;
+        previous.close();
+
+        Path temp = directory.resolve("snapshot-" + nextGeneration + ".tmp");
+        int count = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+            buffer.position(SNAPSHOT_HEADER_BYTES);
+            for (ByteBuffer record : records.values()) {
+                ByteBuffer framed = record.duplicate();
+                if (buffer.remaining() < framed.remaining()) {
+                    writeFully(out, buffer.flip());
+                    buffer.clear();
+                    if (buffer.capacity() < framed.remaining()) {
+                        buffer = ByteBuffer.allocate(framed.remaining());
+                    }
+                }
+                buffer.put(framed);
+                count++;
+            }
+            writeFully(out, buffer.flip());
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES)
+                .putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(nextGeneration).putInt(count).flip();
+            out.write(header, 0);
+            out.force(true);
+        }
+        Files.move(temp, snapshotFile(nextGeneration), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(snapshotFile(previousGeneration));
+        Files.deleteIfExists(journalFile(previousGeneration));
+
+        snapshots.increment();
+        logger.info("注册频道快照已压缩: {}个频道，第{}代，耗时{}ms", count, nextGeneration,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * 启动恢复：索引最新快照，再按顺序重放不早于该代的变更日志（只校验和建索引，不解码频道）
+     */
+    private void recover() throws IOException {
+        List<Long> snapshotGenerations = generations("snapshot-", ".dat");
+        List<Long> journalGenerations = generations("journal-", ".log");
+
+        long loaded = -1;
+        for (int i = snapshotGenerations.size() - 1; i >= 0 && loaded < 0; i--) {
+            long candidate = snapshotGenerations.get(i);
+            if (indexSnapshot(candidate)) {
+                loaded = candidate;
+            } else {
+                records.clear();
+                logger.warn("注册频道快照无效，尝试更早的快照: {}", snapshotFile(candidate));
+            }
+        }
+
+        generation = Math.max(loaded, 0);
+        for (long journalGeneration : journalGenerations) {
+            if (journalGeneration >= generation || loaded < 0) {
+                replayJournal(journalGeneration);
+                generation = Math.max(generation, journalGeneration);
+            }
+        }
+
+        for (long old : snapshotGenerations) {
+            if (old < loaded) {
+                Files.deleteIfExists(snapshotFile(old));
+            }
+        }
+        for (long old : journalGenerations) {
+            if (old < loaded) {
+                Files.deleteIfExists(journalFile(old));
+            }
+        }
+    }
+
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                .sorted()
+                .toList();
+        }
+    }
+
+    /**
+     * 映射快照并建立索引；快照记录的校验和在频道被加载时才检查，启动时不必读完整个文件
+     */
+    private boolean indexSnapshot(long snapshotGeneration) throws IOException {
+        try (FileChannel in = FileChannel.open(snapshotFile(snapshotGeneration), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < SNAPSHOT_HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt(0) != SNAPSHOT_MAGIC || mapped.getInt(4) != SNAPSHOT_VERSION
+                    || mapped.getLong(8) != snapshotGeneration) {
+                return false;
+            }
+
+            int count = mapped.getInt(16);
+            int position = SNAPSHOT_HEADER_BYTES;
+            for (int i = 0; i < count; i++) {
+                if (position + RECORD_HEADER_BYTES > size) {
+                    return false;
+                }
+                int length = mapped.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > size) {
+                    return false;
+                }
+                ByteBuffer record = mapped.slice(position, RECORD_HEADER_BYTES + length);
+                String name = getString(record.duplicate().position(RECORD_HEADER_BYTES + 1));
+                records.put(name, record);
+                position += RECORD_HEADER_BYTES + length;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 重放变更日志，遇到未写完或校验失败的记录即截断尾部
+     */
+    private void replayJournal(long journalGeneration) throws IOException {
+        Path file = journalFile(journalGeneration);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int position = 0;
+            while (position + RECORD_HEADER_BYTES <= size) {
+                int length = mapped.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > size
+                        || crc(mapped.slice(position + RECORD_HEADER_BYTES, length)) != mapped.getInt(position + 4)) {
+                    break;
+                }
+                ByteBuffer record = mapped.slice(position, RECORD_HEADER_BYTES + length);
+                byte op = record.get(RECORD_HEADER_BYTES);
+                String name = getString(record.duplicate().position(RECORD_HEADER_BYTES + 1));
+                if (op == OP_SAVE) {
+                    records.put(name, record);
+                } else if (op == OP_REMOVE) {
+                    records.remove(name);
+                }
+                position += RECORD_HEADER_BYTES + length;
+            }
+
+            if (position < size) {
+                logger.warn("频道变更日志尾部不完整，截断 {} 字节: {}", size - position, file);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private Path snapshotFile(long snapshotGeneration) {
+        return directory.resolve("snapshot-" + snapshotGeneration + ".dat");
+    }
+
+    private Path journalFile(long journalGeneration) {
+        return directory.resolve("journal-" + journalGeneration + ".log");
+    }
+
+    /**
+     * 编码频道状态：操作码、频道名、主题、主题设置者与时间、密码、人数上限、模式位、创建时间、创始人、封禁名单、操作员名单
+     */
+    private static ByteBuffer encode(IrcChannel channel) {
+        List<byte[]> strings = new ArrayList<>();
+        strings.add(bytes(channel.getName()));
+        strings.add(bytes(channel.getTopic()));
+        strings.add(bytes(channel.getTopicSetBy()));
+        strings.add(bytes(channel.getKey()));
+        strings.add(bytes(channel.getFounder()));
+        List<String> banned = List.copyOf(channel.getBanned());
+        List<String> access = List.copyOf(channel.getAccessList());
+        banned.forEach(mask -> strings.add(bytes(mask)));
+        access.forEach(nickname -> strings.add(bytes(nickname)));
+
+        int length = 1 + 8 + 4 + 1 + 8 + 2 + 2;
+        for (byte[] value : strings) {
+            length += 2 + (value != null ? value.length : 0);
+        }
+
+        int flags = (channel.isInviteOnly() ? FLAG_INVITE_ONLY : 0)
+            | (channel.isModerated() ? FLAG_MODERATED : 0)
+            | (channel.isSecret() ? FLAG_SECRET : 0)
+            | (channel.isPrivateChannel() ? FLAG_PRIVATE : 0)
+            | (channel.isTopicLocked() ? FLAG_TOPIC_LOCKED : 0)
+            | (channel.isDelayedJoin() ? FLAG_DELAYED_JOIN : 0);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(OP_SAVE);
+        putBytes(buffer, strings.get(0));
+        putBytes(buffer, strings.get(1));
+        putBytes(buffer, strings.get(2));
+        buffer.putLong(toMillis(channel.getTopicSetAt()));
+        putBytes(buffer, strings.get(3));
+        buffer.putInt(channel.getUserLimit());
+        buffer.put((byte) flags);
+        buffer.putLong(toMillis(channel.getCreatedAt()));
+        putBytes(buffer, strings.get(4));
+        buffer.putShort((short) banned.size());
+        for (int i = 0; i < banned.size(); i++) {
+            putBytes(buffer, strings.get(5 + i));
+        }
+        buffer.putShort((short) access.size());
+        for (int i = 0; i < access.size(); i++) {
+            putBytes(buffer, strings.get(5 + banned.size() + i));
+        }
+        return buffer.flip();
+    }
+
+    private static IrcChannel decode(ByteBuffer record) {
+        record.get();
+        IrcChannel channel = new IrcChannel(getString(record));
+        channel.setTopic(getString(record));
+        channel.setTopicSetBy(getString(record));
+        channel.setTopicSetAt(fromMillis(record.getLong()));
+        channel.setKey(getString(record));
+        channel.setUserLimit(record.getInt());
+        int flags = record.get();
+        channel.setInviteOnly((flags & FLAG_INVITE_ONLY) != 0);
+        channel.setModerated((flags & FLAG_MODERATED) != 0);
+        channel.setSecret((flags & FLAG_SECRET) != 0);
+        channel.setPrivateChannel((flags & FLAG_PRIVATE) != 0);
+        channel.setTopicLocked((flags & FLAG_TOPIC_LOCKED) != 0);
+        channel.setDelayedJoin((flags & FLAG_DELAYED_JOIN) != 0);
+        channel.setCreatedAt(fromMillis(record.getLong()));
+        channel.setFounder(getString(record));
+        for (int i = Short.toUnsignedInt(record.getShort()); i > 0; i--) {
+            channel.banUser(getString(record));
+        }
+        for (int i = Short.toUnsignedInt(record.getShort()); i > 0; i--) {
+            channel.getAccessList().add(getString(record));
+        }
+        channel.setRegistered(true);
+        return channel;
+    }
+
+    /**
+     * 加上长度和CRC32C校验头
+     */
+    private static ByteBuffer frame(ByteBuffer record) {
+        ByteBuffer framed = ByteBuffer.allocate(RECORD_HEADER_BYTES + record.remaining());
+        framed.putInt(record.remaining()).putInt(crc(record)).put(record.duplicate());
+        return framed.flip();
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1;
+    }
+
+    private static LocalDateTime fromMillis(long millis) {
+        return millis >= 0 ? LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()) : null;
+    }
+
+    private static byte[] bytes(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) NULL_LENGTH);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        putBytes(buffer, bytes(value));
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取注册频道存储统计信息
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("registeredChannels", records.size());
+        stats.put("generation", generation);
+        stats.put("journalBytes", journalBytes);
+        stats.put("pendingWrites", pending.size());
+        stats.put("saves", saves.sum());
+        stats.put("loads", loads.sum());
+        stats.put("snapshots", snapshots.sum());
+        stats.put("writeFailures", writeFailures.sum());
+        stats.put("startupIndexMillis", indexMillis);
+        return stats;
+    }
+}
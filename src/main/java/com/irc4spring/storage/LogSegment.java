@@ -0,0 +1,526 @@
+package com.irc4spring.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 频道日志段
+ * 每个段由三个文件组成：
+ * <ul>
+ *   <li>{base}.log：内存映射的追加写数据文件，记录格式为 [长度][CRC32C][内容]，长度为0表示结尾</li>
+ *   <li>{base}.idx：稀疏索引，每隔固定字节数记录一项 (时间, 序号, 位置)，用于按时间或序号定位</li>
+ *   <li>{base}.meta：段封存时写入的元数据（时间范围、记录数和包含的频道），存在即表示段已封存</li>
+ * </ul>
+ * 只有单个写线程追加，读取方可以并发读取已发布的部分。
+ */
+public class LogSegment {
+
+    static final int RECORD_HEADER_BYTES = 8;
+    private static final int INDEX_ENTRY_BYTES = 20;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final Path metaFile;
+    private final long baseOffset;
+    private final int indexIntervalBytes;
+
+    private FileChannel fileChannel;
+    private MappedByteBuffer writeBuffer;
+    private volatile ByteBuffer readBuffer;
+    private final ByteBuffer pendingIndex = ByteBuffer.allocate(INDEX_ENTRY_BYTES * 256);
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock mapLock = new ReentrantLock();
+
+    private volatile Index index = new Index(new long[64], new long[64], new int[64]);
+    private volatile int indexCount;
+    private volatile int size;
+    private volatile long nextOffset;
+    private volatile long firstTime = Long.MAX_VALUE;
+    private volatile long lastTime = Long.MIN_VALUE;
+    private volatile boolean sealed;
+    private int lastIndexedPosition = -1;
+
+    private LogSegment(Path directory, long baseOffset, int indexIntervalBytes) {
+        String name = String.format("%020d", baseOffset);
+        this.logFile = directory.resolve(name + ".log");
+        this.indexFile = directory.resolve(name + ".idx");
+        this.metaFile = directory.resolve(name + ".meta");
+        this.baseOffset = baseOffset;
+        this.nextOffset = baseOffset;
+        this.indexIntervalBytes = indexIntervalBytes;
+    }
+
+    /**
+     * 创建新的可写段，数据文件按容量预先映射
+     */
+    public static LogSegment create(Path directory, long baseOffset, int capacity, int indexIntervalBytes)
+            throws IOException {
+        LogSegment segment = new LogSegment(directory, baseOffset, indexIntervalBytes);
+        Files.deleteIfExists(segment.indexFile);
+        Files.deleteIfExists(segment.metaFile);
+        segment.openForWrite(capacity);
+        return segment;
+    }
+
+    /**
+     * 打开已有段：已封存的段只加载索引和元数据，未封存的段扫描恢复后继续写入
+     */
+    public static LogSegment open(Path directory, long baseOffset, int capacity, int indexIntervalBytes)
+            throws IOException {
+        LogSegment segment = new LogSegment(directory, baseOffset, indexIntervalBytes);
+        if (Files.exists(segment.metaFile) && segment.loadSealed()) {
+            return segment;
+        }
+        segment.openForWrite(Math.max(capacity, (int) Files.size(segment.logFile)));
+        segment.recover();
+        return segment;
+    }
+
+    private void openForWrite(int capacity) throws IOException {
+        fileChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        writeBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        readBuffer = writeBuffer;
+    }
+
+    /**
+     * 从头扫描数据文件，遇到长度为0或校验失败的记录即视为结尾（上次异常退出时未写完的部分）
+     */
+    private void recover() throws IOException {
+        Files.deleteIfExists(indexFile);
+        ByteBuffer buffer = writeBuffer.duplicate();
+        CRC32C crc = new CRC32C();
+        int position = 0;
+
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(position + RECORD_HEADER_BYTES, length));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            ByteBuffer payload = buffer.slice(position + RECORD_HEADER_BYTES, length);
+            long offset = payload.getLong(0);
+            long time = payload.getLong(8);
+            maybeIndex(position, offset, time);
+            channels.add(readString(payload, 16));
+            updateRange(time);
+            nextOffset = offset + 1;
+            position += RECORD_HEADER_BYTES + length;
+        }
+
+        // 清掉残留的半条记录，避免之后被误认为有效数据
+        for (int i = position; i < Math.min(buffer.capacity(), position + RECORD_HEADER_BYTES); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        size = position;
+        flushIndex();
+    }
+
+    private boolean loadSealed() throws IOException {
+        ByteBuffer meta = ByteBuffer.wrap(Files.readAllBytes(metaFile));
+        if (meta.remaining() < 32) {
+            return false;
+        }
+        firstTime = meta.getLong();
+        lastTime = meta.getLong();
+        nextOffset = meta.getLong();
+        size = meta.getInt();
+        int channelCount = meta.getInt();
+        for (int i = 0; i < channelCount; i++) {
+            int length = Short.toUnsignedInt(meta.getShort());
+            byte[] bytes = new byte[length];
+            meta.get(bytes);
+            channels.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        ByteBuffer indexBytes = ByteBuffer.wrap(Files.exists(indexFile) ? Files.readAllBytes(indexFile) : new byte[0]);
+        while (indexBytes.remaining() >= INDEX_ENTRY_BYTES) {
+            addIndexEntry(indexBytes.getLong(), indexBytes.getLong(), indexBytes.getInt());
+        }
+        sealed = true;
+        return true;
+    }
+
+    /**
+     * 追加一条已编码的记录（含头部），空间不足时返回false
+     */
+    public boolean append(ByteBuffer record, long offset, long time, String channel) {
+        int length = record.remaining();
+        if (size + length + RECORD_HEADER_BYTES > writeBuffer.capacity()) {
+            // 至少留出一个空头部作为结尾标记
+            return false;
+        }
+
+        maybeIndex(size, offset, time);
+        writeBuffer.put(size, record, record.position(), length);
+        channels.add(channel);
+        updateRange(time);
+        nextOffset = offset + 1;
+        // 最后发布size，读取方读到新的size时能看到完整记录
+        size += length;
+        return true;
+    }
+
+    private void maybeIndex(int position, long offset, long time) {
+        if (lastIndexedPosition >= 0 && position - lastIndexedPosition < indexIntervalBytes) {
+            return;
+        }
+        lastIndexedPosition = position;
+        addIndexEntry(time, offset, position);
+        if (pendingIndex.remaining() < INDEX_ENTRY_BYTES) {
+            try {
+                flushIndex();
+            } catch (IOException e) {
+                // 索引是稀疏的，缺少部分项只会让定位从更早的位置开始扫描
+            }
+        }
+        if (pendingIndex.remaining() >= INDEX_ENTRY_BYTES) {
+            pendingIndex.putLong(time).putLong(offset).putInt(position);
+        }
+    }
+
+    private void addIndexEntry(long time, long offset, int position) {
+        Index current = index;
+        int count = indexCount;
+        if (count == current.times().length) {
+            int capacity = count * 2;
+            current = new Index(Arrays.copyOf(current.times(), capacity),
+                Arrays.copyOf(current.offsets(), capacity),
+                Arrays.copyOf(current.positions(), capacity));
+            index = current;
+        }
+        current.times()[count] = time;
+        current.offsets()[count] = offset;
+        current.positions()[count] = position;
+        indexCount = count + 1;
+    }
+
+    private void updateRange(long time) {
+        if (firstTime == Long.MAX_VALUE) {
+            firstTime = time;
+        }
+        lastTime = time;
+    }
+
+    /**
+     * 把数据和新增索引刷到磁盘
+     */
+    public void flush() throws IOException {
+        if (writeBuffer != null) {
+            writeBuffer.force();
+            flushIndex();
+        }
+    }
+
+    private void flushIndex() throws IOException {
+        if (pendingIndex.position() == 0) {
+            return;
+        }
+        pendingIndex.flip();
+        try (FileChannel out = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (pendingIndex.hasRemaining()) {
+                out.write(pendingIndex);
+            }
+        } finally {
+            pendingIndex.clear();
+        }
+    }
+
+    /**
+     * 封存段：刷盘、截断到实际大小并写入元数据，之后只读
+     */
+    public void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+        flush();
+        writeBuffer = null;
+        fileChannel.truncate(size);
+        fileChannel.close();
+        fileChannel = null;
+        readBuffer = null;
+
+        ByteBuffer meta = ByteBuffer.allocate(32 + channels.stream()
+            .mapToInt(c -> 2 + Math.min(MAX_FIELD_BYTES, c.getBytes(StandardCharsets.UTF_8).length)).sum());
+        meta.putLong(firstTime).putLong(lastTime).putLong(nextOffset).putInt(size).putInt(channels.size());
+        for (String channel : channels) {
+            putString(meta, channel);
+        }
+        Path temp = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+        Files.write(temp, meta.array());
+        Files.move(temp, metaFile, StandardCopyOption.ATOMIC_MOVE);
+        sealed = true;
+    }
+
+    /**
+     * 删除段文件
+     */
+    public void delete() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+        writeBuffer = null;
+        readBuffer = null;
+        Files.deleteIfExists(metaFile);
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(logFile);
+    }
+
+    /**
+     * 读取视图：可写段直接使用写映射，封存段按需只读映射
+     */
+    private ByteBuffer view() throws IOException {
+        ByteBuffer buffer = readBuffer;
+        if (buffer == null) {
+            mapLock.lock();
+            try {
+                buffer = readBuffer;
+                if (buffer == null) {
+                    try (FileChannel in = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                        buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                    readBuffer = buffer;
+                }
+            } finally {
+                mapLock.unlock();
+            }
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * 读取指定频道在时间范围内的记录，先通过稀疏索引定位起点
+     *
+     * @return 是否已经越过结束时间（后续段无需再读）
+     */
+    public boolean scan(String channel, long fromTime, long toTime, int limit, List<ChannelLogRecord> out)
+            throws IOException {
+        if (!channels.contains(channel) || lastTime < fromTime) {
+            return firstTime > toTime;
+        }
+
+        int end = size;
+        ByteBuffer buffer = view();
+        int position = seekTime(fromTime);
+        while (position < end && out.size() < limit) {
+            int length = buffer.getInt(position);
+            ByteBuffer payload = buffer.slice(position + RECORD_HEADER_BYTES, length);
+            long time = payload.getLong(8);
+            if (time > toTime) {
+                return true;
+            }
+            if (time >= fromTime && channel.equals(readString(payload, 16))) {
+                out.add(decode(payload));
+            }
+            position += RECORD_HEADER_BYTES + length;
+        }
+        return false;
+    }
+
+    /**
+     * 从指定序号开始顺序读取记录
+     */
+    public void readFrom(long offset, int max, List<ChannelLogRecord> out) throws IOException {
+        int end = size;
+        ByteBuffer buffer = view();
+        int position = seekOffset(offset);
+        while (position < end && out.size() < max) {
+            int length = buffer.getInt(position);
+            ByteBuffer payload = buffer.slice(position + RECORD_HEADER_BYTES, length);
+            if (payload.getLong(0) >= offset) {
+                out.add(decode(payload));
+            }
+            position += RECORD_HEADER_BYTES + length;
+        }
+    }
+
+    /**
+     * 找到时间早于fromTime的最后一个索引项的位置
+     */
+    private int seekTime(long fromTime) {
+        // 先读条数再读数组：扩容时新数组在条数增加之前发布，读到的数组至少容纳count项
+        int count = indexCount;
+        Index current = index;
+        int low = 0;
+        int high = count - 1;
+        int position = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (current.times()[mid] < fromTime) {
+                position = current.positions()[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 时间早于fromTime的最后一个索引项的序号，可作为该时间之后记录的序号下界
+     */
+    public long offsetBefore(long fromTime) {
+        int count = indexCount;
+        Index current = index;
+        int low = 0;
+        int high = count - 1;
+        long offset = baseOffset;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (current.times()[mid] < fromTime) {
+                offset = current.offsets()[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * 时间晚于toTime的第一个索引项的序号，从该序号起的记录都晚于toTime，可作为序号上界（不含）；
+     * 没有这样的索引项时返回段的下一个序号
+     */
+    public long offsetAfter(long toTime) {
+        int count = indexCount;
+        Index current = index;
+        int low = 0;
+        int high = count - 1;
+        long offset = nextOffset;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (current.times()[mid] > toTime) {
+                offset = current.offsets()[mid];
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * 找到序号不大于offset的最后一个索引项的位置
+     */
+    private int seekOffset(long offset) {
+        int count = indexCount;
+        Index current = index;
+        int low = 0;
+        int high = count - 1;
+        int position = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (current.offsets()[mid] <= offset) {
+                position = current.positions()[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 将记录编码到缓冲区（含头部和校验和），缓冲区空间不足时抛出BufferOverflowException
+     */
+    public static void encode(ChannelLogRecord record, ByteBuffer out) {
+        int start = out.position();
+        out.position(start + RECORD_HEADER_BYTES);
+        out.putLong(record.offset()).putLong(record.time());
+        putString(out, record.channel());
+        putString(out, record.command());
+        putString(out, record.source());
+        putString(out, record.target());
+        putString(out, record.text());
+
+        int length = out.position() - start - RECORD_HEADER_BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(out.slice(start + RECORD_HEADER_BYTES, length));
+        out.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+    }
+
+    private static ChannelLogRecord decode(ByteBuffer payload) {
+        int position = 16;
+        String channel = readString(payload, position);
+        position += 2 + Short.toUnsignedInt(payload.getShort(position));
+        String command = readString(payload, position);
+        position += 2 + Short.toUnsignedInt(payload.getShort(position));
+        String source = readString(payload, position);
+        position += 2 + Short.toUnsignedInt(payload.getShort(position));
+        String target = readString(payload, position);
+        position += 2 + Short.toUnsignedInt(payload.getShort(position));
+        String text = readString(payload, position);
+        return new ChannelLogRecord(payload.getLong(0), payload.getLong(8), channel, command, source, target, text);
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = Math.min(bytes.length, MAX_FIELD_BYTES);
+        out.putShort((short) length).put(bytes, 0, length);
+    }
+
+    private static String readString(ByteBuffer payload, int position) {
+        int length = Short.toUnsignedInt(payload.getShort(position));
+        byte[] bytes = new byte[length];
+        payload.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getBaseOffset() {
+        return baseOffset;
+    }
+
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public boolean isEmpty() {
+        return nextOffset == baseOffset;
+    }
+
+    public int getIndexEntries() {
+        return indexCount;
+    }
+
+    /**
+     * 稀疏索引，扩容时整体替换，读取方先读条数再读数组即可看到完整内容
+     */
+    private record Index(long[] times, long[] offsets, int[] positions) {}
+}